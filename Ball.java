@@ -1,7 +1,11 @@
 import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Represents a ball that can move around in 2-dimensional space.
+ * The ball's position, velocity and sunken state actually live in a BallStore; a Ball is just a view onto one slot in it.
+ * Balls start off with a store of their own, and get moved into their table's store once they're added to a TableState.
  */
 class Ball {
 	public final double radius; 
@@ -13,24 +17,132 @@ class Ball {
 	public static final int TYPE_BLUE = 2;
 	public static final int TYPE_8BALL = 3;
 
-	public double xPos, yPos;
-	public double xVel, yVel;
-	public boolean sunk; public double sunkTime;
+	public static final double SINK_TIME = 0.25; // how long, in seconds, a ball takes to fade out after it's sunk
+
+	private BallStore store; private int index;
 	private int r, g, b;
+	private BufferedImage[] sprites; private boolean spritesAntialiased; // this ball's sprites (see getSprites()), and which kind they are
+
+	private static final int MAX_SPRITE_RADIUS = 512; // balls bigger than this (in pixels) are just drawn directly
+	private static final int SPRITE_PADDING = 2;      // extra room around the ball in its sprite, for the antialiased edge of the outline
+
+	// Java2D allocates a little every time it draws an antialiased oval, so balls are drawn once into a sprite
+	// and copied over from then on. this is only touched by drawBall(), so a Ball that's never drawn never loads any of AWT
+	private static class Sprites {
+		// every ball of the same color shares the same sprites, indexed by radius in pixels
+		static final ConcurrentHashMap<Integer, BufferedImage[]> SPRITES = new ConcurrentHashMap<Integer, BufferedImage[]>();
+		static final AlphaComposite[] FADES = new AlphaComposite[256]; // FADES[alpha] draws things with that much alpha
+		static {
+			for (int alpha = 0; alpha < 256; alpha++){FADES[alpha] = AlphaComposite.getInstance(AlphaComposite.SRC_OVER, alpha/255f);}
+		}
+
+		// copies a sprite onto g with some amount of alpha, leaving g's composite the way it was
+		static void draw(Graphics2D g, BufferedImage sprite, int x, int y, int alpha){
+			Composite composite = g.getComposite(); g.setComposite(FADES[alpha]);
+			g.drawImage(sprite, x, y, null);
+			g.setComposite(composite);
+		}
+	}
 
 	public Ball(double radius, int type, double xPos, double yPos, double xVel, double yVel){
 		this.radius = radius; this.type = type; this.mass = 50.0;
-		this.xPos = xPos; this.yPos = yPos;
-		this.xVel = xVel; this.yVel = yVel;
+		this.store = new BallStore(1); this.index = this.store.add(radius, this.mass, type);
+		this.setPosition(xPos, yPos);
+		this.setVelocity(xVel, yVel);
 		this.setColor();
-		this.sunk = false;
 	}
 
 	public Ball(double radius, int type, double xPos, double yPos){
-		this.radius = radius; this.type = type; this.mass = 50.0;
-		this.xPos = xPos; this.yPos = yPos;
-		this.setColor();
-		this.sunk = false;
+		this(radius, type, xPos, yPos, 0, 0);
+	}
+
+	/**
+	 * Creates a view onto slot i of some store that looks just like another ball (same radius, type, color and so on).
+	 * The state in that slot is left alone, so it should already hold a copy of the other ball's state.
+	 * Used by TableState when it copies a table.
+	 *
+	 * @param other the ball being copied
+	 * @param store the store holding the copy of the other ball's state
+	 * @param     i the index of the slot in that store
+	 */
+	Ball(Ball other, BallStore store, int i){
+		this.radius = other.radius; this.type = other.type; this.mass = other.mass;
+		this.store = store; this.index = i;
+		this.setColor(other.r, other.g, other.b);
+	}
+
+	/**
+	 * Moves this ball's state into slot i of some other store, and makes this Ball a view onto that slot from now on.
+	 * Used by TableState when a ball gets put onto the table.
+	 *
+	 * @param store the store that this ball's state is being moved into
+	 * @param     i the index of the slot in that store
+	 */
+	void attach(BallStore store, int i){
+		store.copy(i, this.store, this.index);
+		this.store = store; this.index = i;
+	}
+
+	/**
+	 * Copies this ball's state out into a store of its own, so changes to the slot it used to view don't affect it anymore.
+	 * Used by TableState when a ball gets replaced on the table.
+	 */
+	void detach(){
+		BallStore own = new BallStore(1);
+		own.copy(own.add(this.radius, this.mass, this.type), this.store, this.index);
+		this.store = own; this.index = 0;
+	}
+
+	/**
+	 * Gets the store that this ball's state lives in.
+	 *
+	 * @return the store this ball is a view onto
+	 */
+	BallStore getStore(){
+		return this.store;
+	}
+
+	/**
+	 * Gets the index of the slot in getStore() that this ball's state lives in.
+	 *
+	 * @return the index of this ball in its store
+	 */
+	int getIndex(){
+		return this.index;
+	}
+
+	public double getXPos(){return this.store.xPos[this.index];}
+	public double getYPos(){return this.store.yPos[this.index];}
+	public double getXVel(){return this.store.xVel[this.index];}
+	public double getYVel(){return this.store.yVel[this.index];}
+	public boolean isSunk(){return this.store.sunk[this.index];}
+	public double getSunkTime(){return this.store.sunkTime[this.index];}
+
+	// changing a ball from the outside wakes it up, otherwise the table would never notice (see BallStore.wake())
+	public void setXPos(double xPos){this.store.xPos[this.index] = xPos; this.store.wake(this.index);}
+	public void setYPos(double yPos){this.store.yPos[this.index] = yPos; this.store.wake(this.index);}
+	public void setXVel(double xVel){this.store.xVel[this.index] = xVel; this.store.wake(this.index);}
+	public void setYVel(double yVel){this.store.yVel[this.index] = yVel; this.store.wake(this.index);}
+	public void setSunk(boolean sunk){this.store.sunk[this.index] = sunk; this.store.wake(this.index);}
+
+	/**
+	 * Moves the ball to some position.
+	 *
+	 * @param xPos the new x coordinate of the ball
+	 * @param yPos the new y coordinate of the ball
+	 */
+	public void setPosition(double xPos, double yPos){
+		this.setXPos(xPos); this.setYPos(yPos);
+	}
+
+	/**
+	 * Changes how fast the ball is moving.
+	 *
+	 * @param xVel the new velocity along the x axis
+	 * @param yVel the new velocity along the y axis
+	 */
+	public void setVelocity(double xVel, double yVel){
+		this.setXVel(xVel); this.setYVel(yVel);
 	}
 
 	/**
@@ -43,6 +155,7 @@ class Ball {
 	 */
 	public void setColor(int r, int g, int b){
 		this.r = r; this.g = g; this.b = b;
+		this.sprites = null; // looked up again the next time the ball's drawn
 	}
 
 	/**
@@ -72,7 +185,7 @@ class Ball {
 	 * @return the magnitude of the ball's velocity
 	 */
 	public double getVelocity(){
-		return Math.sqrt(this.xVel*this.xVel + this.yVel*this.yVel);
+		return this.store.getVelocity(this.index);
 	}
 
 	/**
@@ -82,7 +195,7 @@ class Ball {
 	 * @return the angle of the ball's velocity in radians 
 	*/
 	public double getAngle(){
-		return Math.atan2(this.yVel, this.xVel);
+		return Math.atan2(this.getYVel(), this.getXVel());
 	}
 
 	/**
@@ -93,34 +206,14 @@ class Ball {
 	 * @param friction the rate at which velocity decreases over time (velocity decreases by 1*friction every second)
 	 */
 	public void moveTime(double time, double friction){
-		// add to sunkTime if the ball is sunk
-		if (this.sunk) {this.sunkTime += time;}
-		else {this.sunkTime = 0;}
-
-		// get the velocity and its angle
-		double velocity = this.getVelocity(); double angle = this.getAngle();
-
 		// v0 = initial velocity; f = friction; t = time
 		// velocity = v0 - f*t
-
-		// we dont want this to go on to the point where our velocity ends up negative somehow, so...
-		// 0 = v0 - f*t; solve for t -> t = v0/f
-		if (friction > 0) {
-			time = Math.min(time, velocity/friction);
-		}
-
+		// we dont want this to go on to the point where our velocity ends up negative somehow, so t can't go past v0/f
 		// distance = ∫velocity dt 
 		//          = ∫(v0 - f*t) dt 
 		//          = t*v0 - (f*t^2)/2
-		double distance = time*velocity - (friction*time*time)/2.0;
-
-		// add the distance traveled to both xPos and yPos
-		this.xPos += distance*Math.cos(angle);
-		this.yPos += distance*Math.sin(angle);
-
-		// change velocity since friction has affected it, then change xVel and yVel accordingly
-		velocity -= friction*time;
-		this.xVel = velocity*Math.cos(angle); this.yVel = velocity*Math.sin(angle);
+		// (the actual math lives in BallStore.moveTime() so TableState can run it without going through a Ball)
+		this.store.moveTime(this.index, time, friction);
 	}
 
 	/**
@@ -136,25 +229,8 @@ class Ball {
 		// per comments in moveTime(), distance = t*v0 - (f*t^2)/2
 		// we can just solve this for t now
 		// wolfram|alpha (and a bit of playing around) says that's t = (v - √(v^2 - 2df))/f
-
-		double velocity = this.getVelocity();
-		double sqrt_term = velocity*velocity - 2*distance*friction;
-
-		if (friction == 0) {
-			// oh yea, there's also an edge case here (can't divide by zero); in which case t = d/v
-			return distance/velocity;
-		}
-		else if (sqrt_term >= 0) {
-			return (velocity - Math.sqrt(velocity*velocity - 2*distance*friction)) / friction;
-		}
-		else {
-			// if the sqrt_term is negative, we'd get an imaginary number
-			// this occurs if the resultant time would've been greater than velocity/friction
-			// but by then our velocity would be zero, so we can't ever get that far
-			// therefore, just return the max amount of time we can travel instead (velocity/friction)
-
-			return velocity/friction;
-		}
+		// see Kinematics.travelTime() for the edge cases (no friction, or a distance we'd stop before reaching)
+		return this.store.distanceToTime(this.index, distance, friction);
 	}
 
 	/**
@@ -165,15 +241,42 @@ class Ball {
 	 * @return      the distance between the edges of this Ball and the other Ball.
 	 */
 	public double distanceFrom(Ball other){
-		double distX = other.xPos - this.xPos; double distY = other.yPos - this.yPos;
-		double distance = Math.sqrt(distX*distX + distY*distY);
-
 		// subtract the radii of both balls in order to get the distance between their edges
 		//     this function now multiplies the sum of the radii by 0.99 here in order to mitigate an issue where balls get stuck
 		//     the issue seems to get exacerbated whenever balls are placed exactly right next to each other (0 distance)
 		//     so doing this will make the balls look like they're next to each other even though they really aren't
 		//     good enough hack for now.
-		return distance - (this.radius + other.radius)*0.99;
+		return BallStore.distanceBetween(this.store, this.index, other.store, other.index);
+	}
+
+	/**
+	 * Gets an image of this ball at some size, drawn at (SPRITE_PADDING, SPRITE_PADDING) on a transparent background.
+	 * Sprites are only ever drawn once for each color, size and antialiasing setting, and then kept around for good.
+	 * 
+	 * @param      g the Graphics object the sprite is going to be drawn onto (its rendering hints are used for the sprite too)
+	 * @param radius the radius of the ball, in pixels (less than MAX_SPRITE_RADIUS)
+	 * @return       the sprite
+	 */
+	private BufferedImage getSprite(Graphics2D g, int radius){
+		boolean antialiased = (g.getRenderingHint(RenderingHints.KEY_ANTIALIASING) == RenderingHints.VALUE_ANTIALIAS_ON);
+		if (this.sprites == null || this.spritesAntialiased != antialiased){
+			int key = (antialiased ? 1 << 24 : 0) | (this.r << 16) | (this.g << 8) | this.b;
+			this.sprites = Sprites.SPRITES.computeIfAbsent(key, k -> new BufferedImage[MAX_SPRITE_RADIUS]);
+			this.spritesAntialiased = antialiased;
+		}
+
+		BufferedImage sprite = this.sprites[radius];
+		if (sprite == null){ // (if two threads get here at once, they'll both draw the exact same thing, so it doesn't matter which one wins)
+			int size = 2*radius + 2 + 2*SPRITE_PADDING;
+			sprite = g.getDeviceConfiguration().createCompatibleImage(size, size, Transparency.TRANSLUCENT);
+			Graphics2D sg = sprite.createGraphics();
+			sg.setRenderingHints(g.getRenderingHints());
+			sg.setColor(new Color(this.r, this.g, this.b)); sg.fillOval(SPRITE_PADDING, SPRITE_PADDING, radius*2+1, radius*2+1);
+			sg.setColor(Color.black); sg.drawOval(SPRITE_PADDING, SPRITE_PADDING, radius*2, radius*2);
+			sg.dispose();
+			this.sprites[radius] = sprite;
+		}
+		return sprite;
 	}
 
 	/**
@@ -187,24 +290,29 @@ class Ball {
 	 */
 	public void drawBall(Graphics g, double scale, double xOffset, double yOffset){
 		// set a parameter based on how long the ball's been sunk
-		double sunkParam = Math.sqrt(Math.max((0.25-this.sunkTime),0) / 0.25);
+		double sunkParam = Math.sqrt(Math.max((Ball.SINK_TIME-this.getSunkTime()),0) / Ball.SINK_TIME);
 
-		// ball should be completely invisible when sunkParam is 0 (happens after 0.25 seconds)
+		// ball should be completely invisible when sunkParam is 0 (happens after Ball.SINK_TIME seconds)
 		// so don't draw it if this is the case
 		if (sunkParam > 0){
 			// adjust x, y and r based on scale, xOffset and yOffset for isotropic scaling
-			int x = (int)((this.xPos-this.radius)*scale + xOffset);
-			int y = (int)((this.yPos-this.radius)*scale + yOffset);
+			int x = (int)((this.getXPos()-this.radius)*scale + xOffset);
+			int y = (int)((this.getYPos()-this.radius)*scale + yOffset);
 			int r = (int)(this.radius * scale * (0.8+sunkParam*0.2)); // size of ball affected by sunkParam
 
 			// draw the ball
 			int alpha = (int)(255*sunkParam); // transparency of ball affected by sunkParam
-			Color ballColor = new Color(this.r, this.g, this.b, alpha);
-			g.setColor(ballColor); g.fillOval(x, y, r*2+1, r*2+1);
-			g.setColor(new Color(0, 0, 0, alpha)); g.drawOval(x, y, r*2, r*2);
+			Graphics2D g2d = (Graphics2D)g;
+			if (r < MAX_SPRITE_RADIUS){
+				Sprites.draw(g2d, this.getSprite(g2d, r), x - SPRITE_PADDING, y - SPRITE_PADDING, alpha);
+			}
+			else {
+				g.setColor(new Color(this.r, this.g, this.b, alpha)); g.fillOval(x, y, r*2+1, r*2+1);
+				g.setColor(new Color(0, 0, 0, alpha)); g.drawOval(x, y, r*2, r*2);
+			}
 
 			// draws velocity vectors for debugging purposes
-			// g.setColor(Color.red); g.drawLine((int)(x+r), (int)(y+r), (int)(x+r+this.xVel/10*scale), (int)(y+r+this.yVel/10*scale));
+			// g.setColor(Color.red); g.drawLine((int)(x+r), (int)(y+r), (int)(x+r+this.getXVel()/10*scale), (int)(y+r+this.getYVel()/10*scale));
 		}
 	}
 }
\ No newline at end of file
@@ -16,6 +16,8 @@ public class BallController {
 	public static final int MODE_SHOOTING = 1;
 	public static final int MODE_PLACING = 2;
 
+	public static final double MAX_SHOT_SPEED = 1500; // the limit of the curve in getShotSpeed(), and about as hard as bots (see ShotSearch) will hit the cue ball
+
 	public BallController(Ball ball){
 		this.ball = ball;
 
@@ -84,7 +86,7 @@ public class BallController {
 	 */
 	public void shootBall(double scale){
 		double[] velocity = this.getShotSpeed(scale, this.xPressed, this.yPressed, this.xReleased, this.yReleased);
-		ball.xVel = velocity[0]; ball.yVel = velocity[1];
+		ball.setVelocity(velocity[0], velocity[1]);
 	}
 
 	/**
@@ -96,9 +98,9 @@ public class BallController {
 	 * @param yOffset Offset along the y-axis between the canvas and the GameState the ball is in.
 	 */
 	public void placeBall(double scale, double xOffset, double yOffset){
-		ball.xPos = (this.xPressed - xOffset)/scale; ball.xVel = 0;
-		ball.yPos = (this.yPressed - yOffset)/scale; ball.yVel = 0;
-		ball.sunk = false;
+		ball.setXPos((this.xPressed - xOffset)/scale); ball.setXVel(0);
+		ball.setYPos((this.yPressed - yOffset)/scale); ball.setYVel(0);
+		ball.setSunk(false);
 	}
 
 	/**
@@ -112,17 +114,34 @@ public class BallController {
 	 * @return          An array of doubles containing the resultant velocity in the x direction and the y direction, in that order
 	 */
 	public double[] getShotSpeed(double scale, double xPressed, double yPressed, double xReleased, double yReleased){
+		double[] velocity = new double[2];
+		this.getShotSpeed(scale, xPressed, yPressed, xReleased, yReleased, velocity);
+		return velocity;
+	}
+
+	/**
+	 * Same as getShotSpeed() above, but writes the velocity into an array that's passed in instead of making a new one,
+	 * so that working it out every frame while the player's aiming doesn't allocate anything.
+	 * 
+	 * @param     scale Ratio between the size of the canvas and the size of the GameState the ball is in
+	 * @param  xPressed X coordinate of where the mouse was initially pressed
+	 * @param  yPressed Y coordinate of where the mouse was initially pressed
+	 * @param xReleased X coordinate of where the mouse was released
+	 * @param yReleased Y coordinate of where the mouse was released
+	 * @param  velocity An array of at least 2 doubles; the velocity in the x direction and the y direction get written into it, in that order
+	 */
+	public void getShotSpeed(double scale, double xPressed, double yPressed, double xReleased, double yReleased, double[] velocity){
 		double dx = (xPressed - xReleased) / scale;
 		double dy = (yPressed - yReleased) / scale;
 		double distance = Math.sqrt(dx*dx + dy*dy);
 
 		double speed = Math.atan(distance); // put the dragged distance into atan (a function which converges toward some limit)
 		speed /= (Math.PI/2); // limit of atan is pi/2, so this normalizes it
-		speed *= 1500; // and we can set the limit to 1500 now instead
+		speed *= BallController.MAX_SHOT_SPEED; // and we can set the limit to 1500 now instead
 
 		double xVel = (distance == 0) ? 0 : (dx * Math.sqrt(speed / distance));
 		double yVel = (distance == 0) ? 0 : (dy * Math.sqrt(speed / distance));
 
-		return new double[]{xVel, yVel};
+		velocity[0] = xVel; velocity[1] = yVel;
 	}
 }
\ No newline at end of file
@@ -0,0 +1,154 @@
+/**
+ * A uniform grid used as a broad phase for ball-ball collisions.
+ * The table is split up into square cells that are at least one ball diameter across, and each ball is bucketed
+ * into whichever cell its center is in. Two balls can only be touching if they're in the same cell or in adjacent cells,
+ * so only those candidates need to be handed off to CollisionHandler.handleBallCollisions().
+ *
+ * Balls are referred to by their index in the TableState. Each cell is a doubly linked list threaded through
+ * plain int arrays, so moving a ball between cells doesn't allocate anything.
+ */
+class BallGrid {
+	private final double xMin, yMin;
+	private final double cellSize;
+	private final int cols, rows;
+
+	private final int[] head;  // index of the first ball in each cell (-1 if the cell's empty)
+	private int[] next, prev;  // the balls before and after each ball in its cell (-1 if there aren't any)
+	private int[] cellOf;      // the cell each ball is in (-1 if it isn't in the grid)
+
+	/**
+	 * Creates an empty grid covering some rectangular region.
+	 * Balls outside of that region are still handled correctly; they just get lumped into the cells along the edges.
+	 *
+	 * @param     xMin the x coordinate of the left side of the region
+	 * @param     yMin the y coordinate of the top side of the region
+	 * @param     xMax the x coordinate of the right side of the region
+	 * @param     yMax the y coordinate of the bottom side of the region
+	 * @param cellSize how wide and tall each cell is. should be at least as large as the largest distance two balls can collide at
+	 */
+	public BallGrid(double xMin, double yMin, double xMax, double yMax, double cellSize){
+		this.xMin = xMin; this.yMin = yMin;
+		this.cellSize = cellSize;
+		this.cols = Math.max(1, (int)Math.ceil((xMax - xMin) / cellSize));
+		this.rows = Math.max(1, (int)Math.ceil((yMax - yMin) / cellSize));
+
+		this.head = new int[this.cols * this.rows];
+		java.util.Arrays.fill(this.head, -1);
+		this.next = new int[0]; this.prev = new int[0]; this.cellOf = new int[0];
+	}
+
+	/**
+	 * Gets how wide and tall each cell in the grid is.
+	 *
+	 * @return the size of each cell
+	 */
+	public double getCellSize(){
+		return this.cellSize;
+	}
+
+	/**
+	 * Removes every ball from the grid and makes sure there's room for n balls.
+	 *
+	 * @param n the number of balls that'll be tracked by the grid
+	 */
+	public void clear(int n){
+		java.util.Arrays.fill(this.head, -1);
+		if (this.cellOf.length < n){
+			this.next = new int[n]; this.prev = new int[n]; this.cellOf = new int[n];
+		}
+		java.util.Arrays.fill(this.cellOf, -1);
+	}
+
+	/**
+	 * Gets the cell a point lies in, clamping points outside the grid onto its edges.
+	 */
+	private int cellAt(double x, double y){
+		int col = (int)Math.floor((x - this.xMin) / this.cellSize);
+		int row = (int)Math.floor((y - this.yMin) / this.cellSize);
+		col = Math.max(0, Math.min(this.cols - 1, col));
+		row = Math.max(0, Math.min(this.rows - 1, row));
+		return row * this.cols + col;
+	}
+
+	/**
+	 * Adds a ball into the cell that contains (x, y).
+	 *
+	 * @param i the index of the ball
+	 * @param x the x coordinate of the ball's center
+	 * @param y the y coordinate of the ball's center
+	 */
+	public void insert(int i, double x, double y){
+		int cell = this.cellAt(x, y);
+		this.cellOf[i] = cell;
+		this.prev[i] = -1;
+		this.next[i] = this.head[cell];
+		if (this.head[cell] != -1){this.prev[this.head[cell]] = i;}
+		this.head[cell] = i;
+	}
+
+	/**
+	 * Takes a ball out of the grid. Does nothing if the ball isn't in the grid.
+	 *
+	 * @param i the index of the ball
+	 */
+	public void remove(int i){
+		int cell = this.cellOf[i];
+		if (cell == -1){return;}
+
+		if (this.prev[i] != -1){this.next[this.prev[i]] = this.next[i];}
+		else {this.head[cell] = this.next[i];}
+		if (this.next[i] != -1){this.prev[this.next[i]] = this.prev[i];}
+
+		this.cellOf[i] = -1;
+	}
+
+	/**
+	 * Returns whether a ball is currently in the grid.
+	 *
+	 * @param i the index of the ball
+	 * @return  true if the ball was inserted and hasn't been removed since
+	 */
+	public boolean contains(int i){
+		return i < this.cellOf.length && this.cellOf[i] != -1;
+	}
+
+	/**
+	 * Moves a ball into the cell that contains (x, y) if it isn't in that cell already.
+	 * Does nothing if the ball isn't in the grid.
+	 *
+	 * @param i the index of the ball
+	 * @param x the new x coordinate of the ball's center
+	 * @param y the new y coordinate of the ball's center
+	 */
+	public void update(int i, double x, double y){
+		int cell = this.cellOf[i];
+		if (cell == -1 || cell == this.cellAt(x, y)){return;}
+
+		this.remove(i);
+		this.insert(i, x, y);
+	}
+
+	/**
+	 * Finds every ball in the same cell as ball i or in one of the 8 cells surrounding it.
+	 * Ball i itself is left out of the results.
+	 *
+	 * @param   i the index of the ball we're finding neighbors for
+	 * @param out the array the neighbors' indices are written into. should be large enough to hold every ball in the grid
+	 * @return    how many neighbors were written into out
+	 */
+	public int query(int i, int[] out){
+		int cell = this.cellOf[i];
+		if (cell == -1){return 0;}
+
+		int col = cell % this.cols; int row = cell / this.cols;
+		int n = 0;
+		for (int r = Math.max(0, row-1); r <= Math.min(this.rows-1, row+1); r++){
+			for (int c = Math.max(0, col-1); c <= Math.min(this.cols-1, col+1); c++){
+				for (int j = this.head[r * this.cols + c]; j != -1; j = this.next[j]){
+					if (j != i){out[n++] = j;}
+				}
+			}
+		}
+		return n;
+	}
+}
@@ -0,0 +1,193 @@
+/**
+ * Stores the physical state of a group of balls as parallel primitive arrays (one array per field) rather than as separate objects.
+ * TableState.moveTime() and the collision code in CollisionHandler work on these arrays directly,
+ * which keeps the data they touch packed together in memory instead of spread out across the heap.
+ *
+ * Ball objects are lightweight views onto a slot in one of these stores; see Ball.
+ * Only things needed for the physics are kept here. Rendering details (like colors) stay on the Ball itself.
+ *
+ * The store also keeps track of which balls are awake. A ball that's sitting still is put to sleep by TableState,
+ * and sleeping balls are skipped entirely when the table is moved forward. Anything that changes a ball's state
+ * (the setters on Ball, the kernels in CollisionHandler, copy()) wakes it back up again; see wake().
+ */
+class BallStore {
+	public int size;
+	public double[] xPos, yPos;
+	public double[] xVel, yVel;
+	public double[] radius, mass;
+	public boolean[] sunk; public double[] sunkTime;
+	public int[] type;
+	public int[] awake; public int awakeCount; // the indices of every awake ball, in the order they were woken up
+	public int[] awakeSlot;                    // where each ball is in awake (-1 if the ball's asleep)
+	public long wakes;                         // how many times a sleeping ball's been woken up, so sleeping balls that haven't changed can be told apart cheaply (see DeltaEncoder)
+
+	public BallStore(int capacity){
+		capacity = Math.max(capacity, 1);
+		this.size = 0;
+		this.xPos = new double[capacity]; this.yPos = new double[capacity];
+		this.xVel = new double[capacity]; this.yVel = new double[capacity];
+		this.radius = new double[capacity]; this.mass = new double[capacity];
+		this.sunk = new boolean[capacity]; this.sunkTime = new double[capacity];
+		this.type = new int[capacity];
+		this.awake = new int[capacity]; this.awakeCount = 0;
+		this.awakeSlot = new int[capacity];
+	}
+
+	/**
+	 * Creates a copy of another store, including which of its balls are awake.
+	 *
+	 * @param other the store being copied
+	 */
+	public BallStore(BallStore other){
+		this.size = other.size;
+		this.xPos = other.xPos.clone(); this.yPos = other.yPos.clone();
+		this.xVel = other.xVel.clone(); this.yVel = other.yVel.clone();
+		this.radius = other.radius.clone(); this.mass = other.mass.clone();
+		this.sunk = other.sunk.clone(); this.sunkTime = other.sunkTime.clone();
+		this.type = other.type.clone();
+		this.awake = other.awake.clone(); this.awakeCount = other.awakeCount;
+		this.awakeSlot = other.awakeSlot.clone();
+		this.wakes = other.wakes;
+	}
+
+	/**
+	 * Adds a ball to the end of the store, growing the arrays if they're full.
+	 *
+	 * @param   radius the radius of the ball
+	 * @param     mass the mass of the ball
+	 * @param     type the type of the ball (see Ball.TYPE_CUEBALL and so on)
+	 * @return         the index of the new ball
+	 */
+	public int add(double radius, double mass, int type){
+		if (this.size == this.xPos.length){
+			int capacity = this.size * 2;
+			this.xPos = java.util.Arrays.copyOf(this.xPos, capacity); this.yPos = java.util.Arrays.copyOf(this.yPos, capacity);
+			this.xVel = java.util.Arrays.copyOf(this.xVel, capacity); this.yVel = java.util.Arrays.copyOf(this.yVel, capacity);
+			this.radius = java.util.Arrays.copyOf(this.radius, capacity); this.mass = java.util.Arrays.copyOf(this.mass, capacity);
+			this.sunk = java.util.Arrays.copyOf(this.sunk, capacity); this.sunkTime = java.util.Arrays.copyOf(this.sunkTime, capacity);
+			this.type = java.util.Arrays.copyOf(this.type, capacity);
+			this.awake = java.util.Arrays.copyOf(this.awake, capacity); this.awakeSlot = java.util.Arrays.copyOf(this.awakeSlot, capacity);
+		}
+
+		int i = this.size++;
+		this.radius[i] = radius; this.mass[i] = mass; this.type[i] = type;
+		this.xPos[i] = 0; this.yPos[i] = 0; this.xVel[i] = 0; this.yVel[i] = 0;
+		this.sunk[i] = false; this.sunkTime[i] = 0;
+		this.awakeSlot[i] = -1; this.wake(i);
+		return i;
+	}
+
+	/**
+	 * Copies the state of a ball from another store (or this one) into slot i.
+	 *
+	 * @param     i the index of the slot being written into
+	 * @param other the store the ball is being copied from
+	 * @param     j the index of the ball in the other store
+	 */
+	public void copy(int i, BallStore other, int j){
+		this.xPos[i] = other.xPos[j]; this.yPos[i] = other.yPos[j];
+		this.xVel[i] = other.xVel[j]; this.yVel[i] = other.yVel[j];
+		this.radius[i] = other.radius[j]; this.mass[i] = other.mass[j];
+		this.sunk[i] = other.sunk[j]; this.sunkTime[i] = other.sunkTime[j];
+		this.type[i] = other.type[j];
+		this.wake(i);
+	}
+
+	/**
+	 * Wakes ball i up if it's asleep, so it gets moved and checked for collisions again.
+	 * Cheap enough to call whenever a ball's state might have changed.
+	 *
+	 * @param i the index of the ball
+	 */
+	public void wake(int i){
+		if (this.awakeSlot[i] == -1){
+			this.awakeSlot[i] = this.awakeCount;
+			this.awake[this.awakeCount++] = i;
+			this.wakes++;
+		}
+	}
+
+	/**
+	 * Returns whether ball i is awake.
+	 *
+	 * @param i the index of the ball
+	 * @return  false if the ball is asleep, true otherwise
+	 */
+	public boolean isAwake(int i){
+		return this.awakeSlot[i] != -1;
+	}
+
+	/**
+	 * Returns how quickly ball i is moving, independently of angle.
+	 *
+	 * @param i the index of the ball
+	 * @return  the magnitude of the ball's velocity
+	 */
+	public double getVelocity(int i){
+		return Math.sqrt(this.xVel[i]*this.xVel[i] + this.yVel[i]*this.yVel[i]);
+	}
+
+	/**
+	 * Updates the position and velocity of ball i under the assumption that the ball
+	 * has moved forward a certain amount of time on a surface with some amount of friction.
+	 * See Ball.moveTime() for the details.
+	 *
+	 * @param        i the index of the ball
+	 * @param     time the amount of time, in seconds, that the ball is moved forward
+	 * @param friction the rate at which velocity decreases over time (velocity decreases by 1*friction every second)
+	 */
+	public void moveTime(int i, double time, double friction){
+		// add to sunkTime if the ball is sunk
+		if (this.sunk[i]) {this.sunkTime[i] += time;}
+		else {this.sunkTime[i] = 0;}
+
+		double velocity = this.getVelocity(i);
+		if (velocity == 0) {return;} // nowhere to go
+
+		// 0 = v0 - f*t; solve for t -> t = v0/f
+		if (friction > 0) {
+			time = Math.min(time, velocity/friction);
+		}
+
+		// distance = t*v0 - (f*t^2)/2
+		double distance = time*velocity - (friction*time*time)/2.0;
+
+		// move along the direction of travel, then scale the velocity down since friction has affected it
+		double xDir = this.xVel[i]/velocity; double yDir = this.yVel[i]/velocity;
+		this.xPos[i] += distance*xDir;
+		this.yPos[i] += distance*yDir;
+
+		velocity -= friction*time;
+		this.xVel[i] = velocity*xDir; this.yVel[i] = velocity*yDir;
+	}
+
+	/**
+	 * Returns the amount of time in seconds it'd take for ball i to travel
+	 * a given distance over a surface with some amount of friction.
+	 * See Ball.distanceToTime() for the details.
+	 *
+	 * @param        i the index of the ball
+	 * @param distance the distance which we're trying to determine how long it takes to travel
+	 * @param friction the rate at which velocity decreases over time (velocity decreases by 1*friction every second)
+	 * @return         the amount of time in seconds it would take to travel distance given friction
+	 */
+	public double distanceToTime(int i, double distance, double friction){
+		return Kinematics.travelTime(this.getVelocity(i), friction, distance);
+	}
+
+	/**
+	 * Returns the distance between the edges of two balls, which may be in different stores.
+	 * See Ball.distanceFrom() for the details.
+	 *
+	 * @param sa the store the first ball is in
+	 * @param  a the index of the first ball
+	 * @param sb the store the second ball is in
+	 * @param  b the index of the second ball
+	 * @return   the distance between the edges of both balls
+	 */
+	public static double distanceBetween(BallStore sa, int a, BallStore sb, int b){
+		double distX = sb.xPos[b] - sa.xPos[a]; double distY = sb.yPos[b] - sa.yPos[a];
+		double distance = Math.sqrt(distX*distX + distY*distY);
+		return distance - (sa.radius[a] + sb.radius[b])*0.99;
+	}
+}
@@ -0,0 +1,68 @@
+/**
+ * A ring buffer of everything that's happened on a table: balls hitting each other, balls bouncing off walls and balls getting sunk.
+ * TableState writes into it as it moves the balls (see TableState.getEvents()), and anything that cares about what happened
+ * (the rules in GameState, recording, metrics, etc.) reads from it afterwards, without anything getting allocated along the way.
+ *
+ * Every event gets a sequence number, counting up from 0. Readers keep track of the next sequence number they want on their own,
+ * so any number of them can read the same events, each at their own pace:
+ *
+ *     long end = events.getWritten();
+ *     for (long e = Math.max(next, events.getOldest()); e < end; e++){ ... events.getType(e) ... }
+ *     next = end;
+ *
+ * Only the last CAPACITY events are kept, so readers should catch up at least once a frame (which is way more than enough room for one).
+ * A reader that falls further behind than that just misses the oldest events; getOldest() says where the buffer starts.
+ */
+class CollisionEvents {
+	public static final int TYPE_BALL = 0;   // ball a hit ball b
+	public static final int TYPE_WALL = 1;   // ball a bounced off of wall b
+	public static final int TYPE_POCKET = 2; // ball a was sunk into pocket b
+	public static final int CAPACITY = 256;  // must be a power of two
+
+	private final int[] type, a, b;
+	private final double[] time;
+	private long written;
+
+	public CollisionEvents(){
+		this.type = new int[CAPACITY]; this.a = new int[CAPACITY]; this.b = new int[CAPACITY];
+		this.time = new double[CAPACITY];
+		this.written = 0;
+	}
+
+	/**
+	 * Adds an event onto the end of the buffer, pushing out the oldest one if it's full.
+	 *
+	 * @param type what sort of event it is (TYPE_BALL, TYPE_WALL or TYPE_POCKET)
+	 * @param time when it happened, in seconds of simulated time (see TableState.time)
+	 * @param    a the index of the ball the event happened to
+	 * @param    b the index of the other ball, the wall or the pocket, depending on type
+	 */
+	public void add(int type, double time, int a, int b){
+		int i = (int)(this.written & (CAPACITY - 1));
+		this.type[i] = type; this.time[i] = time; this.a[i] = a; this.b[i] = b;
+		this.written++;
+	}
+
+	/**
+	 * Gets the sequence number the next event will get, which is also how many events have been written so far.
+	 *
+	 * @return one past the sequence number of the newest event
+	 */
+	public long getWritten(){
+		return this.written;
+	}
+
+	/**
+	 * Gets the sequence number of the oldest event that's still in the buffer.
+	 *
+	 * @return the oldest sequence number that can still be read
+	 */
+	public long getOldest(){
+		return Math.max(0, this.written - CAPACITY);
+	}
+
+	public int getType(long e){return this.type[(int)(e & (CAPACITY - 1))];}
+	public double getTime(long e){return this.time[(int)(e & (CAPACITY - 1))];}
+	public int getA(long e){return this.a[(int)(e & (CAPACITY - 1))];}
+	public int getB(long e){return this.b[(int)(e & (CAPACITY - 1))];}
+}
@@ -2,6 +2,10 @@
  * Utility class used to resolve collisions that occur between Balls, Walls and Pockets.
  * The methods here handle both collision detection and collision resolution.
  * The collision handling methods here can modify the Balls' velocities, positions and sunken states that you put into them.
+ *
+ * Each method comes in two flavors: one that takes Ball objects, and one that takes a BallStore and the index of a ball in it.
+ * The Ball versions just forward to the BallStore versions, which is what TableState uses in its hot loops.
+ * Any ball whose velocity gets changed here is woken up (see BallStore.wake()).
  */
 public class CollisionHandler {
 	/**
@@ -15,79 +19,162 @@ public class CollisionHandler {
 	 * @param      cor the coefficient of restitution (1 for elastic collision; 0 for perfectly inelastic collision).
 	 */
 	public static void handleBallCollisions(Ball a, Ball b, double friction, double cor){
-		double distance = a.distanceFrom(b);
-		
-		if (distance < 0 && !a.sunk && !b.sunk){
+		CollisionHandler.handleBallCollisions(a.getStore(), a.getIndex(), b.getStore(), b.getIndex(), friction, cor);
+	}
+
+	/**
+	 * Adjusts the velocities of two non-sunken balls assuming they have collided with one another.
+	 * Same as handleBallCollisions(Ball, Ball, double, double), but works on balls inside of BallStores.
+	 * 
+	 * @param       sa the store the first ball is in.
+	 * @param        a the index of the first ball.
+	 * @param       sb the store the second ball is in.
+	 * @param        b the index of the second ball.
+	 * @param friction the rate at which velocity decreases over time (velocity decreases by 1*friction every second)
+	 * @param      cor the coefficient of restitution (1 for elastic collision; 0 for perfectly inelastic collision).
+	 * @return          true if the balls were touching and the collision got resolved
+	 */
+	public static boolean handleBallCollisions(BallStore sa, int a, BallStore sb, int b, double friction, double cor){
+		double distance = BallStore.distanceBetween(sa, a, sb, b);
+
+		if (distance < 0 && !sa.sunk[a] && !sb.sunk[b]){
 			// add the distance lost in distanceBetween() back
 			// intended effect of this is to make collisions less likely
 			// but if they do happen, the balls ACTUALLY won't be colliding anymore
-			distance -= (a.radius + b.radius) * 0.01;
+			distance -= (sa.radius[a] + sb.radius[b]) * 0.01;
 
 			// the ball with the higher velocity is able to move more over some period of time
 			// so we should pick the ball with the higher velocity so not as much time ends up getting rewinded
 			// lets set a variable to keep track of which ball to move
-			boolean moveA = a.getVelocity() > b.getVelocity();
+			boolean moveA = sa.getVelocity(a) > sb.getVelocity(b);
 
 			// rewind time on the faster ball to stop the balls from intersecting
 			double time = 0;
 			if (moveA){
-				time = a.distanceToTime(distance, friction);
-				a.moveTime(time, friction);
+				time = sa.distanceToTime(a, distance, friction);
+				sa.moveTime(a, time, friction);
 			}
 			else{
-				time = b.distanceToTime(distance, friction);
-				b.moveTime(time, friction);
+				time = sb.distanceToTime(b, distance, friction);
+				sb.moveTime(b, time, friction);
 			}
 
-			// == ELASTIC COLLISION SIMULATION == \\
-			// step 1: find the unit normal vector (difference between centers, then divide that vector by its magnitude) 
-			//         and unit tangent vector (same vector rotated 90 degrees)
-			double normalX = b.xPos - a.xPos; double normalY = b.yPos - a.yPos;
-			double magnitude = Math.sqrt(normalX*normalX + normalY*normalY);
-			normalX /= magnitude; normalY /= magnitude;
-			double tangentX = -normalY; double tangentY = normalX;
-
-			// step 2: find the dot product between both (velocity*normal) and (velocity*tangent) for both balls
-			//         (this is essentially the magnitude when we project our velocity vectors onto both the normal vector and the tangent vector)
-			double aVelNormal = normalX * a.xVel + normalY * a.yVel;
-			double aVelTangent = tangentX * a.xVel + tangentY * a.yVel;
-			double bVelNormal = normalX * b.xVel + normalY * b.yVel;
-			double bVelTangent = tangentX * b.xVel + tangentY * b.yVel;
-
-			// step 3: the tangent components will not change magnitude at all (after all, its the part facing perpendicular to the other object)
-			//         this means we've reduced this into a one dimensional collision along the normal vector. apply that formula to aVelNormal and bVelNormal.
-			//         (formula being vAn = (CoR*mB(vBn-vAn) + mAvAn + mBvBn) / (mA + mB) and vice-versa; taken from https://en.wikipedia.org/wiki/Inelastic_collision)
-
-			double newAVN = (cor*b.mass*(bVelNormal - aVelNormal) + a.mass*aVelNormal + b.mass*bVelNormal) / (a.mass + b.mass);
-			double newBVN = (cor*a.mass*(aVelNormal - bVelNormal) + a.mass*aVelNormal + b.mass*bVelNormal) / (a.mass + b.mass);
-			aVelNormal = newAVN; bVelNormal = newBVN;
-
-			// step 4: you now have the normal and tangent velocities for both balls
-			//         convert them back into vectors by multiplying the unit normal/tangent vectors by these velocities.
-
-			// ball a
-			double aNormalX = normalX * aVelNormal; double aNormalY = normalY * aVelNormal;
-			double aTangentX = tangentX * aVelTangent; double aTangentY = tangentY * aVelTangent;
-
-			// ball b
-			double bNormalX = normalX * bVelNormal; double bNormalY = normalY * bVelNormal;
-			double bTangentX = tangentX * bVelTangent; double bTangentY = tangentY * bVelTangent;
-
-			// step 5: add the normal and tangent vectors together; change both balls' velocities to that sum
-			a.xVel = aNormalX + aTangentX; a.yVel = aNormalY + aTangentY;
-			b.xVel = bNormalX + bTangentX; b.yVel = bNormalY + bTangentY;
-			// == ELASTIC COLLISION SIMULATION == \\
+			CollisionHandler.resolveBallCollision(sa, a, sb, b, cor);
 
 			// then move the initially faster ball forward again
 			if (moveA) {
-				a.moveTime(-time, friction);
+				sa.moveTime(a, -time, friction);
 			}
 			else {
-				b.moveTime(-time, friction);
+				sb.moveTime(b, -time, friction);
 			}
+			return true;
 		}
+		return false;
+	}
+
+	/**
+	 * Changes the velocities of two balls as if they had just collided with one another, without moving either of them.
+	 * Should only be called once the balls are touching; handleBallCollisions() and EventSimulator take care of that.
+	 * 
+	 * @param   a the first Ball involved in the collision.
+	 * @param   b the second Ball involved in the collision.
+	 * @param cor the coefficient of restitution (1 for elastic collision; 0 for perfectly inelastic collision).
+	 */
+	public static void resolveBallCollision(Ball a, Ball b, double cor){
+		CollisionHandler.resolveBallCollision(a.getStore(), a.getIndex(), b.getStore(), b.getIndex(), cor);
 	}
-	
+
+	/**
+	 * Changes the velocities of two balls as if they had just collided with one another, without moving either of them.
+	 * Same as resolveBallCollision(Ball, Ball, double), but works on balls inside of BallStores.
+	 * 
+	 * @param  sa the store the first ball is in.
+	 * @param   a the index of the first ball.
+	 * @param  sb the store the second ball is in.
+	 * @param   b the index of the second ball.
+	 * @param cor the coefficient of restitution (1 for elastic collision; 0 for perfectly inelastic collision).
+	 */
+	public static void resolveBallCollision(BallStore sa, int a, BallStore sb, int b, double cor){
+		// == ELASTIC COLLISION SIMULATION == \\
+		// step 1: find the unit normal vector (difference between centers, then divide that vector by its magnitude) 
+		//         and unit tangent vector (same vector rotated 90 degrees)
+		double normalX = sb.xPos[b] - sa.xPos[a]; double normalY = sb.yPos[b] - sa.yPos[a];
+		double magnitude = Math.sqrt(normalX*normalX + normalY*normalY);
+		normalX /= magnitude; normalY /= magnitude;
+		double tangentX = -normalY; double tangentY = normalX;
+
+		// step 2: find the dot product between both (velocity*normal) and (velocity*tangent) for both balls
+		//         (this is essentially the magnitude when we project our velocity vectors onto both the normal vector and the tangent vector)
+		double aVelNormal = normalX * sa.xVel[a] + normalY * sa.yVel[a];
+		double aVelTangent = tangentX * sa.xVel[a] + tangentY * sa.yVel[a];
+		double bVelNormal = normalX * sb.xVel[b] + normalY * sb.yVel[b];
+		double bVelTangent = tangentX * sb.xVel[b] + tangentY * sb.yVel[b];
+
+		// step 3: the tangent components will not change magnitude at all (after all, its the part facing perpendicular to the other object)
+		//         this means we've reduced this into a one dimensional collision along the normal vector. apply that formula to aVelNormal and bVelNormal.
+		//         (formula being vAn = (CoR*mB(vBn-vAn) + mAvAn + mBvBn) / (mA + mB) and vice-versa; taken from https://en.wikipedia.org/wiki/Inelastic_collision)
+		double aMass = sa.mass[a]; double bMass = sb.mass[b];
+		double newAVN = (cor*bMass*(bVelNormal - aVelNormal) + aMass*aVelNormal + bMass*bVelNormal) / (aMass + bMass);
+		double newBVN = (cor*aMass*(aVelNormal - bVelNormal) + aMass*aVelNormal + bMass*bVelNormal) / (aMass + bMass);
+		aVelNormal = newAVN; bVelNormal = newBVN;
+
+		// step 4: you now have the normal and tangent velocities for both balls
+		//         convert them back into vectors by multiplying the unit normal/tangent vectors by these velocities.
+
+		// ball a
+		double aNormalX = normalX * aVelNormal; double aNormalY = normalY * aVelNormal;
+		double aTangentX = tangentX * aVelTangent; double aTangentY = tangentY * aVelTangent;
+
+		// ball b
+		double bNormalX = normalX * bVelNormal; double bNormalY = normalY * bVelNormal;
+		double bTangentX = tangentX * bVelTangent; double bTangentY = tangentY * bVelTangent;
+
+		// step 5: add the normal and tangent vectors together; change both balls' velocities to that sum
+		sa.xVel[a] = aNormalX + aTangentX; sa.yVel[a] = aNormalY + aTangentY;
+		sb.xVel[b] = bNormalX + bTangentX; sb.yVel[b] = bNormalY + bTangentY;
+		// == ELASTIC COLLISION SIMULATION == \\
+
+		sa.wake(a); sb.wake(b);
+	}
+
+	/**
+	 * Bounces a ball off of a surface with a given unit normal vector, without moving the ball.
+	 * The part of the ball's velocity along the surface is kept, while the part along the normal is inverted and scaled by cor.
+	 * 
+	 * @param    ball the ball being bounced.
+	 * @param normalX the x component of the surface's unit normal vector.
+	 * @param normalY the y component of the surface's unit normal vector.
+	 * @param     cor the coefficient of restitution (1 for elastic collision; 0 for perfectly inelastic collision).
+	 */
+	public static void reflect(Ball ball, double normalX, double normalY, double cor){
+		CollisionHandler.reflect(ball.getStore(), ball.getIndex(), normalX, normalY, cor);
+	}
+
+	/**
+	 * Bounces a ball off of a surface with a given unit normal vector, without moving the ball.
+	 * Same as reflect(Ball, double, double, double), but works on a ball inside of a BallStore.
+	 * 
+	 * @param       s the store the ball is in.
+	 * @param       i the index of the ball.
+	 * @param normalX the x component of the surface's unit normal vector.
+	 * @param normalY the y component of the surface's unit normal vector.
+	 * @param     cor the coefficient of restitution (1 for elastic collision; 0 for perfectly inelastic collision).
+	 */
+	public static void reflect(BallStore s, int i, double normalX, double normalY, double cor){
+		double tangentX = -normalY; double tangentY = normalX;
+
+		double velTangent = tangentX * s.xVel[i] + tangentY * s.yVel[i]; // get the dot product of the ball's velocity onto the tangent vector
+		tangentX *= velTangent; tangentY *= velTangent; // and scale tangentX/tangentY by that dot product 
+
+		double velNormal = normalX * s.xVel[i] + normalY * s.yVel[i]; // repeat for normal vector
+		velNormal *= cor; // except multiply it by the coefficient of restitution
+		normalX *= -velNormal; normalY *= -velNormal; // and also invert it
+
+		s.xVel[i] = tangentX + normalX; s.yVel[i] = tangentY + normalY;
+		s.wake(i);
+	}
+
 	/**
 	 * Handles a collision between a Ball and a Wall, should it occur.
 	 * Pushes the ball outside of the wall and then changes its velocity.
@@ -99,44 +186,50 @@ public class CollisionHandler {
 	 * @param      cor The coefficient of restitution (1 for elastic collision; 0 for perfectly inelastic collision).
 	 */
 	public static void handleWallCollisions(Ball ball, Wall wall, double friction, double cor){
-		double distance = wall.isBallColliding(ball);
+		CollisionHandler.handleWallCollisions(ball.getStore(), ball.getIndex(), wall, friction, cor);
+	}
+
+	/**
+	 * Handles a collision between a Ball and a Wall, should it occur.
+	 * Same as handleWallCollisions(Ball, Wall, double, double), but works on a ball inside of a BallStore.
+	 * 
+	 * @param        s The store the ball is in.
+	 * @param        i The index of the ball.
+	 * @param     wall The wall that we're handling collisions for.
+	 * @param friction the rate at which velocity decreases over time (velocity decreases by 1*friction every second)
+	 * @param      cor The coefficient of restitution (1 for elastic collision; 0 for perfectly inelastic collision).
+	 * @return          true if the ball was touching the wall and got bounced off of it
+	 */
+	public static boolean handleWallCollisions(BallStore s, int i, Wall wall, double friction, double cor){
+		double distance = wall.isBallColliding(s.xPos[i], s.yPos[i], s.radius[i]);
 
-		if (distance < 0 && (ball.sunk == wall.sunk || wall.always)) {
+		if (distance < 0 && (s.sunk[i] == wall.sunk || wall.always)) {
 			// if we're more than a.radius into the wall, we might as well be on the other side of it
 			// so add 2*a.radius and try to move that distance instead
 			// effectively makes the walls have 2-way collision rather than 1-way
-			if (distance < -ball.radius) {
-				distance += 2 * ball.radius;
+			if (distance < -s.radius[i]) {
+				distance += 2 * s.radius[i];
 			}
 
-			// get the unit tangent vector (Wall but with length of 1)
-			double tangentX = (wall.x2 - wall.x1) / wall.length; 
-			double tangentY = (wall.y2 - wall.y1) / wall.length;
-
-			// get the unit normal vector
-			double normalX = tangentY; double normalY = -tangentX;
+			// get the unit normal vector (the wall works this out ahead of time)
+			double normalX = wall.normalX; double normalY = wall.normalY;
 
 			// we can determine how far to move backwards with a couple steps
-			double velNormal = normalX * ball.xVel + normalY * ball.yVel; // get the dot product of the ball's velocity onto the normal vector
-			velNormal = velNormal / ball.getVelocity(); // calculate how much of the ball's velocity is going along the normal vector as a ratio
+			double velNormal = normalX * s.xVel[i] + normalY * s.yVel[i]; // get the dot product of the ball's velocity onto the normal vector
+			velNormal = velNormal / s.getVelocity(i); // calculate how much of the ball's velocity is going along the normal vector as a ratio
 			distance /= velNormal; // divide the distance from isBallColliding() by that ratio
 
 			// move the ball back that determined distance
-			double time = ball.distanceToTime(-distance, friction);
-			ball.moveTime(time, friction);
+			double time = s.distanceToTime(i, -distance, friction);
+			s.moveTime(i, time, friction);
 
 			// the rest is pretty similar to the elastic collisions in handleBallCollisions()
-			double velTangent = tangentX * ball.xVel + tangentY * ball.yVel; // so get the dot product of the ball's velocity onto the tangent vector
-			tangentX *= velTangent; tangentY *= velTangent; // and scale tangentX/tangentY by that dot product 
-
-			velNormal = normalX * ball.xVel + normalY * ball.yVel; // repeat for normal vector
-			velNormal *= cor; // except multiply it by the coefficient of restitution
-			normalX *= -velNormal; normalY *= -velNormal; // and also invert it
-
 			// change balls[i]'s velocity accordingly and move it forwards in time
-			ball.xVel = tangentX + normalX; ball.yVel = tangentY + normalY;
-			ball.moveTime(-time, friction);
+			CollisionHandler.reflect(s, i, normalX, normalY, cor);
+			s.moveTime(i, -time, friction);
+			return true;
 		}
+		return false;
 	}
 
 	/**
@@ -149,15 +242,30 @@ public class CollisionHandler {
 	 * @param      cor The coefficient of restitution (1 for elastic collision; 0 for perfectly inelastic collision).
 	 */
 	public static void handlePocketCollisions(Ball ball, Pocket pocket, double friction, double cor){
-		ball.sunk = ball.sunk || pocket.ballInPocket(ball);
+		CollisionHandler.handlePocketCollisions(ball.getStore(), ball.getIndex(), pocket, friction, cor);
+	}
+
+	/**
+	 * Changes the ball's sunken property to true should a ball fall into the pocket.
+	 * Same as handlePocketCollisions(Ball, Pocket, double, double), but works on a ball inside of a BallStore.
+	 * 
+	 * @param        s The store the ball is in.
+	 * @param        i The index of the ball.
+	 * @param   pocket The pocket which the ball may have fallen into.
+	 * @param friction the rate at which velocity decreases over time (velocity decreases by 1*friction every second)
+	 * @param      cor The coefficient of restitution (1 for elastic collision; 0 for perfectly inelastic collision).
+	 * @return          true if the ball was in the pocket and got bounced off of its edge
+	 */
+	public static boolean handlePocketCollisions(BallStore s, int i, Pocket pocket, double friction, double cor){
+		s.sunk[i] = s.sunk[i] || pocket.ballInPocket(s.xPos[i], s.yPos[i], s.radius[i]);
 
-		if (ball.sunk){ // if the ball's in a pocket, we need to keep it in there
+		if (s.sunk[i]){ // if the ball's in a pocket, we need to keep it in there
 			// so we're gonna try to make a wall tangent to the pocket and let handleWallCollisions do the heavy lifting
 			// TODO: this method doesn't work well if the size of the ball and the size of the pocket are fairly close to one another
 
 			// scale the distance from ball to the pocket up such that it's the size of the pocket's radius
-			double distance = pocket.distanceFromPocket(ball.xPos, ball.yPos);
-			double dx = ball.xPos - pocket.xPos; double dy = ball.yPos - pocket.yPos;
+			double distance = pocket.distanceFromPocket(s.xPos[i], s.yPos[i]);
+			double dx = s.xPos[i] - pocket.xPos; double dy = s.yPos[i] - pocket.yPos;
 			dx /= distance; dy /= distance; // TODO: what if distance = 0?
 			dx *= pocket.radius; dy *= pocket.radius;
 
@@ -167,7 +275,8 @@ public class CollisionHandler {
 			// get the line running perpendicular to that distance vector and turn it into a wall for the ball to collide with
 			double tx = -dy; double ty = dx;
 			Wall tangent = new Wall(x-tx, y-ty, x+tx, y+ty, true, true);
-			CollisionHandler.handleWallCollisions(ball, tangent, friction, cor);
+			return CollisionHandler.handleWallCollisions(s, i, tangent, friction, cor);
 		}
+		return false;
 	}
 }
@@ -0,0 +1,30 @@
+/**
+ * Describes where a ball moving across the table first touches something, as determined by TableState.castBall().
+ */
+class CollisionPoint {
+	public static final int HIT_NONE = 0;   // the ball stopped or left the table without touching anything
+	public static final int HIT_BALL = 1;   // the ball touched another ball
+	public static final int HIT_WALL = 2;   // the ball touched a wall
+	public static final int HIT_POCKET = 3; // the ball sunk into a pocket
+
+	public final double xPos, yPos;
+	public final double time;
+	public final int type;
+	public final int index;
+
+	/**
+	 * Creates a description of a collision.
+	 *
+	 * @param  xPos the x coordinate of the moving ball's center when the collision happens
+	 * @param  yPos the y coordinate of the moving ball's center when the collision happens
+	 * @param  time how long, in seconds, it takes the moving ball to get there
+	 * @param  type what the ball hit (one of the HIT_ constants)
+	 * @param index the index of the ball, wall or pocket that got hit in its TableState (-1 for HIT_NONE)
+	 */
+	public CollisionPoint(double xPos, double yPos, double time, int type, int index){
+		this.xPos = xPos; this.yPos = yPos;
+		this.time = time;
+		this.type = type;
+		this.index = index;
+	}
+}
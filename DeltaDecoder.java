@@ -0,0 +1,92 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Rebuilds a table from the keyframes and deltas written by a DeltaEncoder.
+ *
+ * A keyframe carries the rack's seed, so the decoder can lay out the exact same table the server has (walls, pockets,
+ * ball sizes and types) with GameState(long), and from then on it just moves the balls around on it. Positions end up rounded to
+ * 1/GameProtocol.POSITION_SCALE, but otherwise the table's the same as the server's, and can be drawn as usual
+ * (game.table.drawObjects(), or game.draw() for the whole thing).
+ *
+ * Sunken balls fade out the same way they do in a real game, going by how many frames have gone by since they were sunk.
+ */
+class DeltaDecoder {
+	public GameState game; // the table as of the last message (null until the first keyframe comes in)
+	public long frame = -1;
+	public int flags;
+	public boolean[] awake = new boolean[0]; // which balls were awake as of the last message
+	private short[] xPos = new short[0], yPos = new short[0];
+
+	/**
+	 * Reads the next message out of a buffer. All of it needs to be there already (see GameProtocol.messageSize()).
+	 *
+	 * @param in the buffer being read from, ready for reading, with a keyframe or delta at its position
+	 * @throws IOException if it isn't a keyframe or delta, or it's a delta and there hasn't been a keyframe yet
+	 */
+	public void read(ByteBuffer in) throws IOException {
+		byte type = in.get(); long frame = in.getInt() & 0xffffffffL; int flags = in.get();
+		int group0 = in.get(); int group1 = in.get(); int n = in.get() & 0xff;
+		if (type == GameProtocol.MSG_KEYFRAME){this.readKeyframe(in, n, frame);}
+		else if (type == GameProtocol.MSG_DELTA){
+			if (this.game == null){throw new IOException("Got a delta before any keyframe.");}
+			this.fade(frame);
+			BallStore s = this.game.table.getBallStore();
+			for (int k = 0; k < n; k++){
+				int i = in.get() & 0xff; int bits = in.get();
+				if (i >= this.xPos.length){throw new IOException("Ball " + i + " isn't on the table.");}
+				if ((bits & GameProtocol.DELTA_MOVED) != 0){
+					if ((bits & GameProtocol.DELTA_SMALL) != 0){this.xPos[i] += in.get(); this.yPos[i] += in.get();}
+					else {this.xPos[i] = in.getShort(); this.yPos[i] = in.getShort();}
+					s.xPos[i] = this.xPos[i]/GameProtocol.POSITION_SCALE; s.yPos[i] = this.yPos[i]/GameProtocol.POSITION_SCALE;
+				}
+				boolean sunk = (bits & GameProtocol.DELTA_SUNK) != 0;
+				if (!sunk || !s.sunk[i]){s.sunkTime[i] = 0;} // (balls that just went in start fading out from here)
+				s.sunk[i] = sunk;
+				this.awake[i] = (bits & GameProtocol.DELTA_AWAKE) != 0;
+			}
+		}
+		else {throw new IOException("Not a keyframe or delta: " + type + ".");}
+
+		this.frame = frame; this.flags = flags;
+		this.game.foul = (flags & GameProtocol.FLAG_FOUL) != 0; this.game.turn = ((flags & GameProtocol.FLAG_TURN) != 0) ? 1 : 0;
+		this.game.groups[0] = group0; this.game.groups[1] = group1;
+	}
+
+	private void readKeyframe(ByteBuffer in, int n, long frame) throws IOException {
+		long seed = in.getLong();
+		GameState previous = this.game;
+		if (this.game == null || this.game.seed != seed || this.game.table.getBallCount() != n){
+			this.game = new GameState(seed);
+			if (this.game.table.getBallCount() != n){throw new IOException("Expected " + this.game.table.getBallCount() + " balls for rack " + seed + ", got " + n + ".");}
+			this.xPos = new short[n]; this.yPos = new short[n]; this.awake = new boolean[n];
+			previous = null;
+		}
+		else {this.fade(frame);}
+
+		BallStore s = this.game.table.getBallStore();
+		for (int i = 0; i < n; i++){
+			this.xPos[i] = in.getShort(); this.yPos[i] = in.getShort();
+			s.xPos[i] = this.xPos[i]/GameProtocol.POSITION_SCALE; s.yPos[i] = this.yPos[i]/GameProtocol.POSITION_SCALE;
+			s.xVel[i] = 0; s.yVel[i] = 0;
+		}
+		boolean[] wasSunk = (previous == null) ? null : s.sunk.clone(); // (keyframes are rare enough that this doesn't matter)
+		GameProtocol.readBits(in, s.sunk, n); GameProtocol.readBits(in, this.awake, n);
+		for (int i = 0; i < n; i++){
+			// balls that were already sunk before we started watching are long gone; ones that just went in start fading out,
+			// and ones we'd already seen go in keep fading out where they were
+			if (s.sunk[i] && wasSunk == null){s.sunkTime[i] = Ball.SINK_TIME;}
+			else if (!s.sunk[i] || !wasSunk[i]){s.sunkTime[i] = 0;}
+		}
+	}
+
+	// moves the fade on sunken balls forward to some frame
+	private void fade(long frame){
+		if (this.frame < 0 || frame <= this.frame){return;}
+		double time = (frame - this.frame)*SimulationEngine.FRAME_TIME;
+		BallStore s = this.game.table.getBallStore();
+		for (int i = 0; i < s.size; i++){
+			if (s.sunk[i] && s.sunkTime[i] < Ball.SINK_TIME){s.sunkTime[i] += time;}
+		}
+	}
+}
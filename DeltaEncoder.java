@@ -0,0 +1,132 @@
+import java.nio.ByteBuffer;
+
+/**
+ * Turns a stream of table states into GameProtocol keyframes and deltas, so that what gets sent (and the work of building it)
+ * scales with how many balls are moving rather than how many are on the table. See DeltaDecoder for the other end.
+ *
+ * The encoder remembers what it last sent for every ball (rounded the same way the receiver sees it), and each delta only
+ * holds the balls that differ from that. Rather than comparing every ball every time, it only looks at the balls that are awake
+ * now or were awake last time: a ball that's been asleep the whole time can't have changed, and anything that does change
+ * a sleeping ball wakes it up, which BallStore.wakes counts. Only when that count has moved does it fall back to checking every ball.
+ *
+ * Each connection (or anything else with its own receiver) needs its own encoder. Every message that's written has to actually
+ * reach the receiver, since the next delta builds on it; to skip frames, just don't call write() for them.
+ */
+class DeltaEncoder {
+	private long seed;
+	private int n = -1; // the number of balls as of the last keyframe (-1 if there hasn't been one yet)
+	private short[] xPos = new short[0], yPos = new short[0];
+	private boolean[] sunk = new boolean[0], awake = new boolean[0];
+	private int[] tracked = new int[0]; private int trackedCount; // the balls that were awake as of the last message
+	private int[] seen = new int[0]; private int stamp;           // seen[i] == stamp once ball i's been looked at this time around
+	private long wakes;
+	private int status = -1; // the flags and groups in the last message's header
+	private int sinceKeyframe;
+
+	public long keyframes, deltas, skipped, ballsSent; // running totals, for stats
+
+	/**
+	 * Makes the next message a keyframe. Should be called whenever the receiver's lost track (or a new one shows up).
+	 */
+	public void reset(){
+		this.n = -1;
+	}
+
+	/**
+	 * Writes whatever's changed since the last message into a buffer, which needs GameProtocol.maxMessageSize() bytes of room.
+	 * Doesn't allocate anything, other than the first time it sees a table with a different number of balls.
+	 *
+	 * @param   out the buffer being written into
+	 * @param frame which frame the game is on
+	 * @param  game the game being sent
+	 * @param  rest whether the game is at rest (see SimulationEngine.isAtRest())
+	 * @return      true if a message was written, false if nothing's changed (in which case nothing was written)
+	 */
+	public boolean write(ByteBuffer out, long frame, GameState game, boolean rest){
+		BallStore s = game.table.getBallStore();
+		if (this.n != Math.min(s.size, GameProtocol.MAX_BALLS) || this.seed != game.seed || this.sinceKeyframe >= GameProtocol.KEYFRAME_INTERVAL){
+			this.writeKeyframe(out, frame, game, rest);
+			return true;
+		}
+
+		int start = out.position();
+		GameProtocol.writeHeader(out, GameProtocol.MSG_DELTA, frame, game, rest); out.put((byte)0); // (the count gets filled in at the end)
+		int count = 0;
+		if (s.wakes != this.wakes){
+			for (int i = 0; i < this.n; i++){count += this.writeBall(out, s, i);} // some sleeping ball might've changed, so check them all
+		}
+		else {
+			this.stamp++;
+			for (int k = 0; k < this.trackedCount; k++){
+				int i = this.tracked[k];
+				this.seen[i] = this.stamp; count += this.writeBall(out, s, i);
+			}
+			for (int k = 0; k < s.awakeCount; k++){
+				int i = s.awake[k];
+				if (this.seen[i] != this.stamp){count += this.writeBall(out, s, i);}
+			}
+		}
+		this.track(s);
+
+		int status = out.get(start + 5) & 0xff | (out.get(start + 6) & 0xff) << 8 | (out.get(start + 7) & 0xff) << 16;
+		if (count == 0 && status == this.status){
+			out.position(start); // the only thing that changed was the frame number
+			this.skipped++;
+			return false;
+		}
+		out.put(start + GameProtocol.HEADER_SIZE, (byte)count);
+		this.status = status; this.sinceKeyframe++;
+		this.deltas++; this.ballsSent += count;
+		return true;
+	}
+
+	// writes out ball i if it's changed since it was last sent, and remembers it as sent
+	private int writeBall(ByteBuffer out, BallStore s, int i){
+		if (i >= this.n){return 0;} // (past MAX_BALLS)
+		short x = GameProtocol.quantize(s.xPos[i]); short y = GameProtocol.quantize(s.yPos[i]);
+		boolean sunk = s.sunk[i]; boolean awake = s.awakeSlot[i] != -1;
+		boolean moved = x != this.xPos[i] || y != this.yPos[i];
+		if (!moved && sunk == this.sunk[i] && awake == this.awake[i]){return 0;}
+
+		int dx = x - this.xPos[i]; int dy = y - this.yPos[i];
+		boolean small = dx >= Byte.MIN_VALUE && dx <= Byte.MAX_VALUE && dy >= Byte.MIN_VALUE && dy <= Byte.MAX_VALUE;
+		int bits = (moved ? GameProtocol.DELTA_MOVED : 0) | (moved && small ? GameProtocol.DELTA_SMALL : 0)
+			| (sunk ? GameProtocol.DELTA_SUNK : 0) | (awake ? GameProtocol.DELTA_AWAKE : 0);
+		out.put((byte)i).put((byte)bits);
+		if (moved && small){out.put((byte)dx).put((byte)dy);}
+		else if (moved){out.putShort(x).putShort(y);}
+
+		this.xPos[i] = x; this.yPos[i] = y; this.sunk[i] = sunk; this.awake[i] = awake;
+		return 1;
+	}
+
+	private void writeKeyframe(ByteBuffer out, long frame, GameState game, boolean rest){
+		BallStore s = game.table.getBallStore(); int n = Math.min(s.size, GameProtocol.MAX_BALLS);
+		if (this.xPos.length != n){
+			this.xPos = new short[n]; this.yPos = new short[n]; this.sunk = new boolean[n]; this.awake = new boolean[n];
+			this.tracked = new int[n]; this.seen = new int[n];
+		}
+		this.n = n; this.seed = game.seed;
+
+		int start = out.position();
+		GameProtocol.writeHeader(out, GameProtocol.MSG_KEYFRAME, frame, game, rest);
+		out.put((byte)n).putLong(game.seed);
+		for (int i = 0; i < n; i++){
+			this.xPos[i] = GameProtocol.quantize(s.xPos[i]); this.yPos[i] = GameProtocol.quantize(s.yPos[i]);
+			this.sunk[i] = s.sunk[i]; this.awake[i] = s.awakeSlot[i] != -1;
+			out.putShort(this.xPos[i]).putShort(this.yPos[i]);
+		}
+		GameProtocol.writeBits(out, this.sunk, n); GameProtocol.writeBits(out, this.awake, n);
+		this.track(s);
+
+		this.status = out.get(start + 5) & 0xff | (out.get(start + 6) & 0xff) << 8 | (out.get(start + 7) & 0xff) << 16;
+		this.sinceKeyframe = 0;
+		this.keyframes++;
+	}
+
+	// remembers which balls are awake now, since those are the ones that need looking at next time
+	private void track(BallStore s){
+		System.arraycopy(s.awake, 0, this.tracked, 0, s.awakeCount); this.trackedCount = s.awakeCount;
+		this.wakes = s.wakes;
+	}
+}
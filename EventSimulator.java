@@ -0,0 +1,413 @@
+import java.util.*;
+
+/**
+ * Moves the balls on a TableState forward in time by jumping directly from one collision to the next.
+ * Since balls slow down at a constant rate, where they'll be at any point in time has a closed form (see Kinematics),
+ * so the exact time of the next ball-ball, ball-wall and ball-pocket event can be solved for ahead of time.
+ * Those events are kept in a priority queue and handled in order, which avoids both the fixed substeps and
+ * the rewinding that CollisionHandler has to do whenever things end up overlapping.
+ *
+ * Predicted events stay valid across calls to moveTime() as long as nothing else touches the balls in between.
+ * If something does (a shot, the cue ball getting placed, etc.) every event is thrown out and predicted again.
+ *
+ * Events are recycled once they've been handled or gone stale, and the solvers work in a Kinematics.Workspace,
+ * so once the queue's grown to size, simulating doesn't allocate anything.
+ */
+class EventSimulator {
+	private static final int EVENT_BALL = 0;         // ball a collides with ball b
+	private static final int EVENT_WALL = 1;         // ball a bounces off of wall b
+	private static final int EVENT_POCKET = 2;       // ball a sinks into pocket b
+	private static final int EVENT_POCKET_EDGE = 3;  // ball a (already sunk) bounces off the edge of pocket b
+	private static final int MAX_EVENTS_PER_CALL = 10000; // guards against balls getting wedged and colliding endlessly
+	private static final double MAX_LAG = 1;              // how far behind the table's clock, in seconds, the balls can fall after hitting MAX_EVENTS_PER_CALL
+	private static final int MIN_COMPACT = 256;           // how big the queue gets before stale events are cleared out of it
+	private static final double MIN_EDGE_BOUNCE = 0.1;    // the least a ball bouncing off of a pocket's edge heads back in, as a fraction of its speed
+
+	/**
+	 * A collision that's predicted to happen at some point in time.
+	 * The collision counts of both balls are recorded when the event is predicted;
+	 * if either ball has collided with something else since then, the event is stale and gets skipped.
+	 * Events get reused once they're out of the queue (see event() and recycle()).
+	 */
+	private static class Event implements Comparable<Event> {
+		double time;
+		int type, a, b;
+		int countA, countB;
+		double normalX, normalY; // which way to bounce for wall events
+
+		void set(double time, int type, int a, int b, int countA, int countB, double normalX, double normalY){
+			this.time = time; this.type = type; this.a = a; this.b = b;
+			this.countA = countA; this.countB = countB;
+			this.normalX = normalX; this.normalY = normalY;
+		}
+
+		@Override
+		public int compareTo(Event other){
+			return Double.compare(this.time, other.time);
+		}
+	}
+
+	private final TableState table;
+	private final PriorityQueue<Event> queue;
+	private double now;
+	private double owed;   // time the balls still have to be moved through, because the last call hit MAX_EVENTS_PER_CALL
+	private long events;
+	private boolean stale; // set by invalidate()
+	private Event[] free = new Event[64]; private int freeCount; // events that can be reused
+	private Event[] live = new Event[0]; private int compactAt = MIN_COMPACT; // for compact()
+
+	private int[] counts;     // how many collisions each ball has been involved in
+	private int[] pocketOf;   // the pocket each sunken ball is in (-1 if it isn't sunk)
+	private double[] lastX, lastY, lastXVel, lastYVel; private boolean[] lastSunk; // where we left the balls after the last call
+
+	// scratch space for predictions
+	private final double[] trajA = new double[6], trajB = new double[6];
+	private final double[] pieceA = new double[6], pieceB = new double[6];
+	private final double[] poly = new double[5];
+	private final double[] normal = new double[2];
+	private final Kinematics.Workspace work = new Kinematics.Workspace();
+
+	public EventSimulator(TableState table){
+		this.table = table;
+		this.queue = new PriorityQueue<Event>();
+		this.counts = new int[0]; this.pocketOf = new int[0];
+		this.now = 0;
+	}
+
+	/**
+	 * Gets how many events have been handled so far.
+	 *
+	 * @return the number of collisions, bounces and sinkings processed since this simulator was created
+	 */
+	public long getEventCount(){
+		return this.events;
+	}
+
+	/**
+	 * Throws out every predicted event, so they all get predicted again the next time moveTime() is called.
+	 * Used by TableState.restore(), so a restored table plays out exactly like a fresh copy of it would.
+	 */
+	public void invalidate(){
+		this.stale = true; this.owed = 0;
+	}
+
+	/**
+	 * Moves all the Balls forward a certain amount of time, handling every event that happens along the way.
+	 * If there are more than MAX_EVENTS_PER_CALL events along the way, the balls are left at the last one handled
+	 * and the rest of the time gets made up on the next call, so they never get moved past an event that hasn't been handled.
+	 * (If they fall more than MAX_LAG behind, something's wedged for good, and the time they're owed gets dropped instead.)
+	 *
+	 * @param time the amount of time, in seconds, that all the balls are moved forward
+	 */
+	public void moveTime(double time){
+		if (this.stale || this.changedSinceLastCall()){this.predictAll();}
+
+		// (events get stamped with the table's clock rather than ours; the balls are owed seconds behind it)
+		double base = this.table.time - this.owed; double start = this.now;
+		double end = this.now + this.owed + time; this.owed = 0;
+		int handled = 0;
+		while (!this.queue.isEmpty() && this.queue.peek().time <= end){
+			if (handled == MAX_EVENTS_PER_CALL){this.owed = end - this.now; break;}
+			Event e = this.queue.poll();
+			if (this.isStale(e)){this.recycle(e); continue;}
+
+			this.advance(e.time - this.now); this.now = e.time;
+			this.resolve(e, base + (e.time - start));
+			handled++; this.events++; this.table.collisionsResolved++;
+
+			this.counts[e.a]++;
+			if (e.type == EVENT_BALL){this.counts[e.b]++;}
+			int a = e.a; int b = e.b; boolean pair = (e.type == EVENT_BALL);
+			this.recycle(e);
+			this.predict(a);
+			if (pair){this.predict(b);}
+		}
+
+		if (this.owed > MAX_LAG){this.owed = 0; this.stale = true;} // (wedged; the balls lose that time, and everything gets predicted again from where they are)
+		else if (this.owed == 0){this.advance(end - this.now); this.now = end;}
+		if (this.queue.size() >= this.compactAt){this.compact();}
+		this.remember();
+	}
+
+	// an event's stale if either of its balls has collided with something since it was predicted
+	private boolean isStale(Event e){
+		return this.counts[e.a] != e.countA || (e.type == EVENT_BALL && this.counts[e.b] != e.countB);
+	}
+
+	// gets an event to fill in, reusing an old one if there is one
+	private Event event(){
+		return (this.freeCount > 0) ? this.free[--this.freeCount] : new Event();
+	}
+
+	// hands an event that's out of the queue back to be reused
+	private void recycle(Event e){
+		if (this.freeCount == this.free.length){this.free = Arrays.copyOf(this.free, this.freeCount*2);}
+		this.free[this.freeCount++] = e;
+	}
+
+	/**
+	 * Clears stale events out of the queue. They'd get skipped once their time came up anyway, but balls that collide a lot
+	 * leave a lot of them behind, which makes every add() and poll() slower in the meantime.
+	 */
+	private void compact(){
+		int n = 0;
+		if (this.live.length < this.queue.size()){this.live = new Event[this.queue.size()*2];}
+		while (!this.queue.isEmpty()){
+			Event e = this.queue.poll();
+			if (this.isStale(e)){this.recycle(e);}
+			else {this.live[n++] = e;}
+		}
+		for (int k = 0; k < n; k++){this.queue.add(this.live[k]); this.live[k] = null;}
+		this.compactAt = Math.max(MIN_COMPACT, 2*n);
+	}
+
+	/**
+	 * Moves every ball forward some amount of time along its current trajectory.
+	 */
+	private void advance(double time){
+		if (time <= 0){return;}
+		double friction = this.table.getFriction();
+		BallStore s = this.table.getBallStore();
+		for (int k = 0; k < s.awakeCount; k++){ // sleeping balls aren't going anywhere
+			s.moveTime(s.awake[k], time, friction);
+		}
+	}
+
+	/**
+	 * Changes the velocities (and maybe the sunken states) of the balls involved in an event,
+	 * and writes it into the table's CollisionEvents (bounces off of a pocket's edge are left out, since nothing cares about those).
+	 */
+	private void resolve(Event e, double time){
+		BallStore s = this.table.getBallStore();
+		CollisionEvents events = this.table.getEvents();
+		switch (e.type){
+			case EVENT_BALL:
+				CollisionHandler.resolveBallCollision(s, e.a, s, e.b, TableState.RESTITUTION);
+				events.add(CollisionEvents.TYPE_BALL, time, e.a, e.b);
+				break;
+			case EVENT_WALL:
+				CollisionHandler.reflect(s, e.a, e.normalX, e.normalY, TableState.RESTITUTION);
+				events.add(CollisionEvents.TYPE_WALL, time, e.a, e.b);
+				break;
+			case EVENT_POCKET_EDGE:
+				CollisionHandler.reflect(s, e.a, e.normalX, e.normalY, TableState.RESTITUTION);
+				this.turnInwards(s, e.a, e.normalX, e.normalY);
+				break;
+			case EVENT_POCKET:
+				s.sunk[e.a] = true; this.pocketOf[e.a] = e.b;
+				events.add(CollisionEvents.TYPE_POCKET, time, e.a, e.b);
+				break;
+		}
+	}
+
+	/**
+	 * Makes sure a ball that just bounced off of its pocket's edge heads back into the pocket at a decent angle.
+	 * Each bounce takes some speed away along the normal but none along the edge, so a ball going around the inside of a pocket
+	 * ends up closer and closer to sliding along its edge, with the bounces piling up at practically the same moment until it slips out.
+	 * (CollisionHandler doesn't have this problem; the ball just gets pushed back in once every substep.)
+	 *
+	 * @param       s the store the ball is in
+	 * @param       i the index of the ball
+	 * @param normalX the x component of the edge's unit normal (pointing into the pocket)
+	 * @param normalY the y component of the edge's unit normal (pointing into the pocket)
+	 */
+	private void turnInwards(BallStore s, int i, double normalX, double normalY){
+		double speed = s.getVelocity(i);
+		double velNormal = normalX*s.xVel[i] + normalY*s.yVel[i];
+		if (velNormal >= speed*MIN_EDGE_BOUNCE){return;}
+
+		// keep the speed and which way it's going around the edge, and just steepen the angle
+		double velTangent = -normalY*s.xVel[i] + normalX*s.yVel[i];
+		velNormal = speed*MIN_EDGE_BOUNCE;
+		velTangent = Math.copySign(Math.sqrt(speed*speed - velNormal*velNormal), velTangent);
+		s.xVel[i] = normalX*velNormal - normalY*velTangent; s.yVel[i] = normalY*velNormal + normalX*velTangent;
+	}
+
+	/**
+	 * Checks whether any ball was moved, pushed or placed by something other than this simulator since the last call.
+	 * Also makes sure our per-ball arrays have room for every ball.
+	 */
+	private boolean changedSinceLastCall(){
+		BallStore s = this.table.getBallStore();
+		int n = s.size;
+		if (this.counts.length != n){
+			this.counts = new int[n]; this.pocketOf = new int[n];
+			this.lastX = new double[n]; this.lastY = new double[n];
+			this.lastXVel = new double[n]; this.lastYVel = new double[n];
+			this.lastSunk = new boolean[n];
+			return true;
+		}
+
+		for (int i = 0; i < n; i++){
+			if (s.xPos[i] != this.lastX[i] || s.yPos[i] != this.lastY[i] || s.xVel[i] != this.lastXVel[i]
+					|| s.yVel[i] != this.lastYVel[i] || s.sunk[i] != this.lastSunk[i]){
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Records where every ball was left so changedSinceLastCall() can tell if anything else moved them.
+	 */
+	private void remember(){
+		BallStore s = this.table.getBallStore();
+		System.arraycopy(s.xPos, 0, this.lastX, 0, this.counts.length); System.arraycopy(s.yPos, 0, this.lastY, 0, this.counts.length);
+		System.arraycopy(s.xVel, 0, this.lastXVel, 0, this.counts.length); System.arraycopy(s.yVel, 0, this.lastYVel, 0, this.counts.length);
+		System.arraycopy(s.sunk, 0, this.lastSunk, 0, this.counts.length);
+	}
+
+	/**
+	 * Throws out every predicted event and predicts all of them again from scratch.
+	 */
+	private void predictAll(){
+		// every event gets thrown out, so the clock can start over too
+		// (that way predictions only depend on where the balls are, and restoring a snapshot plays out the same as copying the table)
+		while (!this.queue.isEmpty()){this.recycle(this.queue.poll());}
+		this.now = 0; this.stale = false; this.compactAt = MIN_COMPACT;
+		BallStore s = this.table.getBallStore();
+		int n = s.size;
+
+		for (int i = 0; i < n; i++){
+			// balls that were placed inside a pocket sink right away, just like they would in the fixed step simulation
+			if (!s.sunk[i]){
+				for (int p = 0; p < this.table.getPocketCount(); p++){
+					if (this.table.getPocket(p).ballInPocket(s.xPos[i], s.yPos[i], s.radius[i])){s.sunk[i] = true; break;}
+				}
+			}
+
+			// figure out which pocket each sunken ball is in (the closest one)
+			this.pocketOf[i] = -1;
+			if (s.sunk[i]){
+				double closest = Double.POSITIVE_INFINITY;
+				for (int p = 0; p < this.table.getPocketCount(); p++){
+					double distance = this.table.getPocket(p).distanceFromPocket(s.xPos[i], s.yPos[i]);
+					if (distance < closest){closest = distance; this.pocketOf[i] = p;}
+				}
+			}
+		}
+
+		for (int i = 0; i < n; i++){
+			this.predict(i);
+		}
+	}
+
+	/**
+	 * Predicts every event that ball i could be involved in next and adds them to the queue.
+	 */
+	private void predict(int i){
+		BallStore s = this.table.getBallStore();
+		double friction = this.table.getFriction();
+		boolean sunk = s.sunk[i]; double radius = s.radius[i];
+
+		// a ball sinks as soon as it's a little ways into its pocket, which is usually further out than it's allowed to roll once it's in there,
+		// and pointEscape() only sees it leaving from inside; so it gets pushed back in first (like the tangent wall in CollisionHandler does)
+		if (sunk && this.pocketOf[i] >= 0){
+			Pocket pocket = this.table.getPocket(this.pocketOf[i]);
+			double limit = Math.max(pocket.radius - radius, pocket.radius*0.01);
+			double dx = s.xPos[i] - pocket.xPos; double dy = s.yPos[i] - pocket.yPos;
+			double distance = Math.sqrt(dx*dx + dy*dy);
+			if (distance > limit){
+				s.xPos[i] = pocket.xPos + dx*limit/distance; s.yPos[i] = pocket.yPos + dy*limit/distance;
+			}
+		}
+
+		Kinematics.trajectory(s.xPos[i], s.yPos[i], s.xVel[i], s.yVel[i], friction, this.trajA);
+		double stopA = Kinematics.stopTime(s.getVelocity(i), friction);
+
+		// other balls (sunken balls can't collide with anything but the pocket they're in)
+		if (!sunk){
+			for (int j = 0; j < s.size; j++){
+				if (j == i || s.sunk[j]){continue;}
+				if (stopA == 0 && s.xVel[j] == 0 && s.yVel[j] == 0){continue;} // neither ball is going anywhere
+
+				double t = this.ballCollisionTime(s, i, j, stopA); this.table.narrowPhaseTests++;
+				if (!Double.isNaN(t)){
+					this.add(this.now + t, EVENT_BALL, i, j, this.counts[i], this.counts[j], 0, 0);
+				}
+			}
+		}
+
+		// nothing else can happen to a ball that isn't moving
+		if (stopA == 0){return;}
+
+		for (int w = 0; w < this.table.getWallCount(); w++){
+			Wall wall = this.table.getWall(w);
+			if (sunk == wall.sunk || wall.always){
+				double t = Kinematics.wallCrossing(this.trajA, wall, radius, this.horizon(stopA), this.normal, this.work); this.table.narrowPhaseTests++;
+				if (!Double.isNaN(t)){
+					this.add(this.now + t, EVENT_WALL, i, w, this.counts[i], 0, this.normal[0], this.normal[1]);
+				}
+			}
+		}
+
+		for (int p = 0; p < this.table.getPocketCount(); p++){
+			Pocket pocket = this.table.getPocket(p);
+			if (!sunk && radius <= pocket.radius){
+				// same threshold as Pocket.ballInPocket()
+				double t = Kinematics.pointCrossing(this.trajA, pocket.xPos, pocket.yPos, pocket.radius + radius*(1 - 2*0.6), this.horizon(stopA), this.work); this.table.narrowPhaseTests++;
+				if (!Double.isNaN(t)){
+					this.add(this.now + t, EVENT_POCKET, i, p, this.counts[i], 0, 0, 0);
+				}
+			}
+			else if (sunk && this.pocketOf[i] == p){
+				// the ball's center can go as far as (pocket radius - ball radius) before it bumps into the edge
+				double limit = Math.max(pocket.radius - radius, pocket.radius*0.01);
+				double t = Kinematics.pointEscape(this.trajA, pocket.xPos, pocket.yPos, limit, this.horizon(stopA), this.work); this.table.narrowPhaseTests++;
+				if (!Double.isNaN(t)){
+					double dx = pocket.xPos - Kinematics.xAt(this.trajA, t); double dy = pocket.yPos - Kinematics.yAt(this.trajA, t);
+					double distance = Math.sqrt(dx*dx + dy*dy);
+					if (distance > 0){
+						this.add(this.now + t, EVENT_POCKET_EDGE, i, p, this.counts[i], 0, dx/distance, dy/distance);
+					}
+				}
+			}
+		}
+	}
+
+	// queues up an event
+	private void add(double time, int type, int a, int b, int countA, int countB, double normalX, double normalY){
+		Event e = this.event();
+		e.set(time, type, a, b, countA, countB, normalX, normalY);
+		this.queue.add(e);
+	}
+
+	/**
+	 * Solves for when two balls will touch. Both balls' paths are split up at the points where each of them stops,
+	 * since their positions are only polynomial in between those points.
+	 *
+	 * @return the time until the collision, or NaN if they never collide
+	 */
+	private double ballCollisionTime(BallStore s, int i, int j, double stopA){
+		double friction = this.table.getFriction();
+		Kinematics.trajectory(s.xPos[j], s.yPos[j], s.xVel[j], s.yVel[j], friction, this.trajB);
+		double stopB = Kinematics.stopTime(s.getVelocity(j), friction);
+		double r = s.radius[i] + s.radius[j];
+
+		double first = Math.min(stopA, stopB); double last = Math.max(stopA, stopB);
+		if (Double.isInfinite(last)){last = first + 60;} // without friction, balls would move forever; only look a minute ahead
+
+		// piece 1: both balls are moving (or at least haven't stopped yet)
+		Kinematics.separation(this.trajA, this.trajB, r, this.poly);
+		double t = Kinematics.firstCrossing(this.poly, 4, 0, Double.isInfinite(first) ? last : first, this.work);
+		if (!Double.isNaN(t) || Double.isInfinite(first)){return t;}
+
+		// piece 2: one of the balls has stopped, the other one's still moving
+		if (stopA <= stopB){
+			Kinematics.stopped(this.trajA, stopA, this.pieceA);
+			Kinematics.separation(this.pieceA, this.trajB, r, this.poly);
+		}
+		else {
+			Kinematics.stopped(this.trajB, stopB, this.pieceB);
+			Kinematics.separation(this.trajA, this.pieceB, r, this.poly);
+		}
+		return Kinematics.firstCrossing(this.poly, 4, first, last, this.work);
+	}
+
+	/**
+	 * Gets how far ahead to look for events for a ball that stops after stopA seconds.
+	 */
+	private double horizon(double stopA){
+		return Double.isInfinite(stopA) ? 60 : stopA;
+	}
+}
@@ -0,0 +1,116 @@
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Hands finished frames from the simulation thread over to a renderer without either of them ever waiting on the other.
+ *
+ * This is a triple buffer: there are three frames, one being written by the simulation (the back frame), one being drawn
+ * by the renderer (the front frame), and one in the middle holding whichever frame was finished most recently.
+ * Publishing a frame swaps the back frame with the middle one, and the renderer swaps the middle frame with the front one
+ * whenever it wants something newer, both with a single atomic operation. The simulation can publish as often as it likes and
+ * the renderer can read as often (or as rarely) as it likes; a slow paint just means some frames never get looked at.
+ *
+ * Frames are GameSnapshots, so they're rewound into a GameState for drawing (see Frame.restore()). Each one also keeps where
+ * every ball was on the frame before, so the renderer can smoothly interpolate between the last two frames, no matter
+ * how its refresh rate lines up with the simulation's.
+ *
+ * There should only ever be one thread publishing (see SimulationEngine) and one thread reading.
+ */
+class FrameBuffer {
+	private static final int FRESH = 4; // set on middle when the frame in it hasn't been picked up by the reader yet
+
+	/**
+	 * One finished frame of the game.
+	 */
+	public static class Frame {
+		public final GameSnapshot snapshot;
+		public final double[] lastXPos, lastYPos; // where each ball was on the frame before this one
+		public long frame;                        // which frame this is (see SimulationEngine.getFrames())
+		public long time;                         // when this frame was published, from System.nanoTime()
+
+		Frame(GameState game){
+			this.snapshot = new GameSnapshot(game);
+			int n = game.table.getBallCount();
+			this.lastXPos = new double[n]; this.lastYPos = new double[n];
+		}
+
+		/**
+		 * Puts a game into the state it was in on this frame, except that every ball is moved some of the way back
+		 * to where it was on the frame before.
+		 *
+		 * @param   game the game being rewound. should be a copy of FrameBuffer.template
+		 * @param factor how far along the balls should be between the last frame (0) and this one (1)
+		 */
+		public void restore(GameState game, double factor){
+			game.restore(this.snapshot);
+			BallStore s = game.table.getBallStore();
+			for (int i = 0; i < s.size; i++){
+				s.xPos[i] = this.lastXPos[i] + (s.xPos[i] - this.lastXPos[i])*factor;
+				s.yPos[i] = this.lastYPos[i] + (s.yPos[i] - this.lastYPos[i])*factor;
+			}
+		}
+	}
+
+	public final GameState template; // a copy of the game as it was when the buffer was made, for readers to make their own copies from
+
+	private final Frame[] frames;
+	private final AtomicInteger middle; // the index of the middle frame, plus FRESH if it's newer than the front one
+	private int back;                   // only ever touched by the publishing thread
+	private int front;                  // only ever touched by the reading thread
+	private final double[] xPos, yPos;  // where every ball was on the last published frame (publishing thread only)
+
+	/**
+	 * Creates a buffer for a game, with every frame starting out as the game is right now.
+	 *
+	 * @param  game the game the frames will come from
+	 * @param frame which frame the game is on right now
+	 */
+	public FrameBuffer(GameState game, long frame){
+		this.template = new GameState(game);
+		this.frames = new Frame[3];
+		for (int i = 0; i < 3; i++){this.frames[i] = new Frame(game);}
+		this.back = 0; this.middle = new AtomicInteger(1); this.front = 2;
+
+		int n = game.table.getBallCount();
+		this.xPos = new double[n]; this.yPos = new double[n];
+		BallStore s = game.table.getBallStore();
+		System.arraycopy(s.xPos, 0, this.xPos, 0, n); System.arraycopy(s.yPos, 0, this.yPos, 0, n);
+		long now = System.nanoTime();
+		for (Frame f : this.frames){
+			System.arraycopy(this.xPos, 0, f.lastXPos, 0, n); System.arraycopy(this.yPos, 0, f.lastYPos, 0, n);
+			f.frame = frame; f.time = now;
+		}
+	}
+
+	/**
+	 * Saves the game as it is right now as the newest frame. Doesn't allocate anything.
+	 * Should only be called from the one thread that simulates the game.
+	 *
+	 * @param  game the game being published. should be the same game (or a copy of it) the buffer was made for
+	 * @param frame which frame this is
+	 */
+	public void publish(GameState game, long frame){
+		Frame f = this.frames[this.back];
+		game.save(f.snapshot);
+		System.arraycopy(this.xPos, 0, f.lastXPos, 0, this.xPos.length); System.arraycopy(this.yPos, 0, f.lastYPos, 0, this.yPos.length);
+		f.frame = frame; f.time = System.nanoTime();
+
+		BallStore s = game.table.getBallStore();
+		System.arraycopy(s.xPos, 0, this.xPos, 0, this.xPos.length); System.arraycopy(s.yPos, 0, this.yPos, 0, this.yPos.length);
+
+		// hand the frame off; whatever was in the middle (which the reader never picked up, or already let go of) becomes the next back frame
+		this.back = this.middle.getAndSet(this.back | FRESH) & ~FRESH;
+	}
+
+	/**
+	 * Gets the newest frame that's been published. The frame won't change until the next call to latest().
+	 * Should only be called from the one thread that reads from the buffer.
+	 *
+	 * @return the newest frame
+	 */
+	public Frame latest(){
+		if ((this.middle.get() & FRESH) != 0){
+			this.front = this.middle.getAndSet(this.front) & ~FRESH;
+		}
+		return this.frames[this.front];
+	}
+}
@@ -0,0 +1,220 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.SplittableRandom;
+
+/**
+ * The client side of GameProtocol: decodes the frames a GameServer sends into a TableView,
+ * and builds the commands that get sent back.
+ *
+ * Running it is a load generator: it opens a bunch of connections to a server over loopback (or a Unix domain socket),
+ * starts a game on each one, and has a bot on every connection shoot whenever its table comes to rest,
+ * printing out how many frames and bytes came back every second.
+ */
+public class GameClient {
+	/**
+	 * What a client knows about a table, as of the last frame it got. Takes full frames, or keyframes and deltas (see GameProtocol).
+	 */
+	public static class TableView {
+		public int frame = -1;
+		public int flags;
+		public final int[] groups = new int[2];
+		public int balls;
+		public double[] xPos = new double[0], yPos = new double[0];
+		public boolean[] sunk = new boolean[0];
+		private final DeltaDecoder decoder = new DeltaDecoder();
+
+		public boolean isAtRest(){return (this.flags & GameProtocol.FLAG_AT_REST) != 0;}
+		public boolean isFoul(){return (this.flags & GameProtocol.FLAG_FOUL) != 0;}
+		public int getTurn(){return (this.flags & GameProtocol.FLAG_TURN) != 0 ? 1 : 0;}
+		public boolean isOver(){return this.groups[0] == 3 || this.groups[1] == 3;}
+
+		/**
+		 * Reads the next message out of a buffer, if all of it's there. Nothing's consumed if it isn't.
+		 *
+		 * @param in the buffer being read from, ready for reading
+		 * @return   true if a whole frame was read, false if the rest of it hasn't arrived yet
+		 */
+		public boolean read(ByteBuffer in) throws IOException {
+			if (GameProtocol.messageSize(in) < 0){return false;}
+			int n;
+			if (in.get(in.position()) != GameProtocol.MSG_FRAME){
+				this.decoder.read(in);
+				BallStore s = this.decoder.game.table.getBallStore(); n = s.size;
+				this.resize(n);
+				System.arraycopy(s.xPos, 0, this.xPos, 0, n); System.arraycopy(s.yPos, 0, this.yPos, 0, n); System.arraycopy(s.sunk, 0, this.sunk, 0, n);
+				this.frame = (int)this.decoder.frame; this.flags = this.decoder.flags;
+				this.groups[0] = this.decoder.game.groups[0]; this.groups[1] = this.decoder.game.groups[1];
+				return true;
+			}
+
+			in.get(); this.frame = in.getInt(); this.flags = in.get();
+			this.groups[0] = in.get(); this.groups[1] = in.get(); n = in.get() & 0xff;
+			this.resize(n);
+			for (int i = 0; i < n; i++){
+				this.xPos[i] = in.getShort()/GameProtocol.POSITION_SCALE; this.yPos[i] = in.getShort()/GameProtocol.POSITION_SCALE;
+			}
+			GameProtocol.readBits(in, this.sunk, n);
+			return true;
+		}
+
+		private void resize(int n){
+			if (this.xPos.length != n){this.xPos = new double[n]; this.yPos = new double[n]; this.sunk = new boolean[n];}
+			this.balls = n;
+		}
+	}
+
+	public static void newGame(ByteBuffer out, long seed, int mode){out.put(GameProtocol.CMD_NEW_GAME).putLong(seed).put((byte)mode);}
+	public static void shoot(ByteBuffer out, double xVel, double yVel){out.put(GameProtocol.CMD_SHOOT).putDouble(xVel).putDouble(yVel);}
+	public static void place(ByteBuffer out, double xPos, double yPos){out.put(GameProtocol.CMD_PLACE).putDouble(xPos).putDouble(yPos);}
+	public static void rate(ByteBuffer out, int fps){out.put(GameProtocol.CMD_RATE).putInt(fps);}
+	public static void encoding(ByteBuffer out, int encoding){out.put(GameProtocol.CMD_ENCODING).put((byte)encoding);}
+
+	// one of the load generator's connections, with a bot that plays whenever the table comes to rest
+	private static class Bot {
+		final SocketChannel channel;
+		final ByteBuffer in = ByteBuffer.allocate(4096), out = ByteBuffer.allocate(64);
+		final TableView view = new TableView();
+		final SplittableRandom random;
+		long waitUntil; // set after sending a shot or placement, so we don't send another before the table's had a chance to react
+		boolean connected;
+
+		Bot(SocketChannel channel, long seed){
+			this.channel = channel; this.random = new SplittableRandom(seed);
+		}
+	}
+
+	private static SocketChannel open(SocketAddress address) throws IOException {
+		SocketChannel channel = (address instanceof UnixDomainSocketAddress) ? SocketChannel.open(StandardProtocolFamily.UNIX) : SocketChannel.open();
+		channel.configureBlocking(false);
+		return channel;
+	}
+
+	// sends whatever's sitting in a bot's out buffer
+	private static void flush(Bot bot) throws IOException {
+		bot.out.flip(); bot.channel.write(bot.out); bot.out.compact();
+	}
+
+	// works out what the bot does next: nothing while the balls are moving, otherwise shoot, place or start over
+	private static int play(Bot bot, int mode, long now){
+		TableView v = bot.view;
+		if (!v.isAtRest() || now < bot.waitUntil || bot.out.position() != 0){return 0;}
+		if (v.isOver()){newGame(bot.out, bot.random.nextLong(), mode);}
+		else if (v.isFoul()){place(bot.out, bot.random.nextDouble(10, 214), bot.random.nextDouble(10, 102));} // (the server turns down spots that aren't free)
+		else {
+			double angle = bot.random.nextDouble(2*Math.PI); double speed = bot.random.nextDouble(200, BallController.MAX_SHOT_SPEED);
+			shoot(bot.out, speed*Math.cos(angle), speed*Math.sin(angle));
+		}
+		bot.waitUntil = now + 250000000L;
+		return 1;
+	}
+
+	/**
+	 * Runs the load generator. Takes --clients n (1000 by default), --seconds n (10 by default), --rate n (frames per second
+	 * each client asks for; 60 by default), --event-driven, --full (to ask for full frames rather than deltas),
+	 * and where to connect: --port n on loopback (4361 by default) or --unix path.
+	 * With --local it starts its own GameServer in the same process first, so the whole thing can be tested on its own.
+	 * Exits with a non-zero status if not every client got frames back.
+	 */
+	public static void main(String[] args) throws Exception {
+		System.setProperty("java.awt.headless", "true");
+		int clients = 1000; int seconds = 10; int rate = 60; int mode = TableState.MODE_FIXED_STEP; boolean local = false; int encoding = GameProtocol.ENCODING_DELTA;
+		SocketAddress address = new InetSocketAddress("127.0.0.1", GameServer.DEFAULT_PORT);
+		for (int i = 0; i < args.length; i++){
+			if (args[i].equals("--clients")){clients = Integer.parseInt(args[++i]);}
+			else if (args[i].equals("--seconds")){seconds = Integer.parseInt(args[++i]);}
+			else if (args[i].equals("--rate")){rate = Integer.parseInt(args[++i]);}
+			else if (args[i].equals("--event-driven")){mode = TableState.MODE_EVENT_DRIVEN;}
+			else if (args[i].equals("--port")){address = new InetSocketAddress("127.0.0.1", Integer.parseInt(args[++i]));}
+			else if (args[i].equals("--unix")){address = UnixDomainSocketAddress.of(args[++i]);}
+			else if (args[i].equals("--local")){local = true;}
+			else if (args[i].equals("--full")){encoding = GameProtocol.ENCODING_FULL;}
+		}
+
+		GameServer server = null; TableScheduler scheduler = null;
+		if (local){
+			if (address instanceof InetSocketAddress){address = new InetSocketAddress("127.0.0.1", 0);}
+			scheduler = new TableScheduler(Runtime.getRuntime().availableProcessors()); scheduler.start();
+			server = new GameServer(address, scheduler); server.start();
+			address = server.getLocalAddress(); // (the actual port, for TCP)
+		}
+		System.out.println("Connecting " + clients + " clients to " + address);
+
+		Selector selector = Selector.open();
+		ArrayList<Bot> bots = new ArrayList<Bot>();
+		for (int i = 0; i < clients; i++){
+			SocketChannel channel = open(address);
+			Bot bot = new Bot(channel, i);
+			encoding(bot.out, encoding); newGame(bot.out, i, mode); rate(bot.out, rate);
+			if (channel.connect(address)){bot.connected = true; channel.register(selector, SelectionKey.OP_READ, bot); flush(bot);}
+			else {channel.register(selector, SelectionKey.OP_CONNECT, bot);}
+			bots.add(bot);
+		}
+
+		long start = System.nanoTime(); long end = start + seconds*1000000000L; long report = start + 1000000000L;
+		long frames = 0, bytes = 0, commands = 0, lastFrames = 0, lastBytes = 0, lastCommands = 0; int failed = 0;
+		while (System.nanoTime() < end){
+			selector.select(10);
+			long now = System.nanoTime();
+			Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+			while (keys.hasNext()){
+				SelectionKey key = keys.next(); keys.remove();
+				Bot bot = (Bot)key.attachment();
+				try {
+					if (key.isConnectable()){
+						bot.channel.finishConnect(); bot.connected = true;
+						key.interestOps(SelectionKey.OP_READ);
+						flush(bot);
+					}
+					else if (key.isReadable()){
+						int read = bot.channel.read(bot.in);
+						if (read < 0){throw new IOException("Server closed the connection.");}
+						bytes += read;
+						bot.in.flip();
+						while (bot.view.read(bot.in)){frames++;}
+						bot.in.compact();
+					}
+				}
+				catch (IOException e) {
+					key.cancel(); bot.channel.close(); failed++;
+				}
+			}
+
+			// give every bot that's waiting on its turn a chance to play (rejected shots and placements don't get a new frame back)
+			for (Bot bot : bots){
+				if (!bot.connected || !bot.channel.isOpen()){continue;}
+				if (play(bot, mode, now) > 0){commands++;}
+				if (bot.out.position() != 0){
+					try {flush(bot);}
+					catch (IOException e) {bot.channel.close(); failed++;}
+				}
+			}
+
+			if (now >= report){
+				report += 1000000000L;
+				int connected = 0;
+				for (Bot bot : bots){if (bot.connected && bot.channel.isOpen()){connected++;}}
+				System.out.printf("%5d connected  %7d frames/s  %8.1f KB/s  %5d commands/s%s%n", connected,
+					frames - lastFrames, (bytes - lastBytes)/1024.0, commands - lastCommands,
+					(scheduler != null) ? String.format("  (server: %d lagging, %d frames skipped)", scheduler.getLagging().size(), server.getFramesSkipped()) : "");
+				lastFrames = frames; lastBytes = bytes; lastCommands = commands;
+			}
+		}
+
+		int silent = 0;
+		for (Bot bot : bots){
+			if (bot.view.frame < 0){silent++;}
+			bot.channel.close();
+		}
+		selector.close();
+		System.out.println(frames + " frames (" + bytes/1024 + "KB) over " + seconds + "s; " + failed + " connections failed, " + silent + " never got a frame");
+		if (server != null){server.stop(); scheduler.stop();}
+		if (silent > 0 || failed > 0){System.exit(1);}
+	}
+}
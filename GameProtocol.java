@@ -0,0 +1,196 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * The binary protocol GameServer and GameClient talk over. Everything's big-endian (ByteBuffer's default).
+ *
+ * Clients send commands, each of which is one type byte followed by a fixed-size payload (see payloadSize()):
+ *     CMD_NEW_GAME  long seed, byte simulation mode   starts a new game (TableState.MODE_FIXED_STEP or MODE_EVENT_DRIVEN)
+ *     CMD_SHOOT     double xVel, double yVel          fires the cue ball, same as BallController.shootBall()
+ *     CMD_PLACE     double xPos, double yPos          places the cue ball after a foul, same as BallController.placeBall()
+ *     CMD_RATE      int frames per second             how often the server sends frames (1 to 60; 60 by default)
+ *     CMD_ENCODING  byte encoding                     ENCODING_DELTA (the default) or ENCODING_FULL; see below
+ *
+ * The server sends back a stream of messages, each one the state of the table at some point. They all start with the same header:
+ *     byte  the message type
+ *     int   the frame number (see SimulationEngine.getFrames())
+ *     byte  flags (FLAG_AT_REST, FLAG_FOUL, plus the player whose turn it is in FLAG_TURN)
+ *     byte  player 1's group, byte player 2's group (see GameState.groups; -1 for none yet, 3 for the winner)
+ *
+ * With ENCODING_FULL, every message is a MSG_FRAME holding the whole table:
+ *     byte  n, the number of balls
+ *     n times: short x, short y, in units of 1/POSITION_SCALE
+ *     (n + 7)/8 bytes of sunk flags, one bit per ball, lowest bit first
+ * With 16 balls that comes out to 75 bytes a frame.
+ *
+ * With ENCODING_DELTA, the stream starts with a MSG_KEYFRAME, and then only says what changed (see DeltaEncoder and DeltaDecoder):
+ *     MSG_KEYFRAME  byte n, long the rack's seed (see GameState(long)), n times short x, short y, then the sunk flags and the awake flags
+ *                   laid out the same way as MSG_FRAME's sunk flags
+ *     MSG_DELTA     byte m, then m changed balls, each one a byte index, a byte of DELTA_ bits, and
+ *                   if DELTA_MOVED: byte dx, byte dy from the ball's last position if DELTA_SMALL, or short x, short y otherwise
+ * A ball shows up in a delta if its position (after rounding to 1/POSITION_SCALE), its sunk flag or its awake flag changed.
+ * Nothing gets sent at all for frames where nothing changed. Another keyframe goes out every KEYFRAME_INTERVAL messages,
+ * and whenever a new game starts.
+ */
+public class GameProtocol {
+	public static final byte CMD_NEW_GAME = 1;
+	public static final byte CMD_SHOOT = 2;
+	public static final byte CMD_PLACE = 3;
+	public static final byte CMD_RATE = 4;
+	public static final byte CMD_ENCODING = 5;
+
+	public static final byte MSG_FRAME = 16;
+	public static final byte MSG_KEYFRAME = 17;
+	public static final byte MSG_DELTA = 18;
+
+	public static final int ENCODING_FULL = 0;
+	public static final int ENCODING_DELTA = 1;
+
+	public static final int FLAG_AT_REST = 1; // nothing's moving, so the player whose turn it is can shoot (or place, on a foul)
+	public static final int FLAG_FOUL = 2;    // the cue ball has to be placed before the next shot
+	public static final int FLAG_TURN = 4;    // set if it's player 2's turn
+
+	public static final int DELTA_MOVED = 1; // a position follows
+	public static final int DELTA_SMALL = 2; // the position is a byte offset from the last one rather than two shorts
+	public static final int DELTA_SUNK = 4;  // the ball is sunk
+	public static final int DELTA_AWAKE = 8; // the ball is awake (moving, or fading out in a pocket)
+
+	public static final int HEADER_SIZE = 8;
+	public static final int KEYFRAME_INTERVAL = 120;
+
+	public static final double POSITION_SCALE = 64; // positions are sent as fixed point; 1/64 of a unit is way finer than a pixel
+	public static final int MAX_BALLS = 255;
+
+	/**
+	 * Gets how many bytes follow the type byte of a command.
+	 *
+	 * @param cmd the command's type byte
+	 * @return    the size of its payload, or -1 if it isn't a command
+	 */
+	public static int payloadSize(byte cmd){
+		switch (cmd){
+			case CMD_NEW_GAME: return 9;
+			case CMD_SHOOT: case CMD_PLACE: return 16;
+			case CMD_RATE: return 4;
+			case CMD_ENCODING: return 1;
+			default: return -1;
+		}
+	}
+
+	/**
+	 * Gets how big a frame message is.
+	 *
+	 * @param balls the number of balls on the table
+	 * @return      the size of the message in bytes, type byte included
+	 */
+	public static int frameSize(int balls){
+		return 9 + 4*balls + (balls + 7)/8;
+	}
+
+	/**
+	 * Gets how big a keyframe message is.
+	 *
+	 * @param balls the number of balls on the table
+	 * @return      the size of the message in bytes, type byte included
+	 */
+	public static int keyframeSize(int balls){
+		return HEADER_SIZE + 9 + 4*balls + 2*((balls + 7)/8);
+	}
+
+	/**
+	 * Gets the most room any message about a table could need, which is what a buffer of outgoing messages needs to be able to hold.
+	 *
+	 * @param balls the number of balls on the table
+	 * @return      the size of the biggest possible message in bytes
+	 */
+	public static int maxMessageSize(int balls){
+		return Math.max(keyframeSize(balls), HEADER_SIZE + 1 + 6*balls); // (the biggest delta is every ball with a full position)
+	}
+
+	/**
+	 * Gets the size of the message at the start of a buffer, if all of it has arrived yet.
+	 * Deltas don't say how big they are up front, so their entries get looked through (without being read).
+	 *
+	 * @param in the buffer, ready for reading, with a message starting at its position
+	 * @return   the size of the message in bytes, or -1 if not all of it is in the buffer yet
+	 * @throws IOException if the buffer doesn't start with a message
+	 */
+	public static int messageSize(ByteBuffer in) throws IOException {
+		int start = in.position(); int end = in.limit();
+		if (end - start < HEADER_SIZE + 1){return -1;}
+		int type = in.get(start); int n = in.get(start + HEADER_SIZE) & 0xff;
+		int size;
+		switch (type){
+			case MSG_FRAME: size = frameSize(n); break;
+			case MSG_KEYFRAME: size = keyframeSize(n); break;
+			case MSG_DELTA: {
+				int p = start + HEADER_SIZE + 1;
+				for (int k = 0; k < n; k++){
+					if (p + 2 > end){return -1;}
+					int bits = in.get(p + 1);
+					p += 2 + (((bits & DELTA_MOVED) == 0) ? 0 : ((bits & DELTA_SMALL) != 0) ? 2 : 4);
+				}
+				size = p - start;
+				break;
+			}
+			default: throw new IOException("Unknown message " + type + ".");
+		}
+		return (end - start < size) ? -1 : size;
+	}
+
+	/**
+	 * Writes the header every message starts with.
+	 *
+	 * @param   out the buffer being written into
+	 * @param  type the message type (MSG_FRAME, MSG_KEYFRAME or MSG_DELTA)
+	 * @param frame which frame the game is on
+	 * @param  game the game being sent
+	 * @param  rest whether the game is at rest (see SimulationEngine.isAtRest())
+	 */
+	public static void writeHeader(ByteBuffer out, byte type, long frame, GameState game, boolean rest){
+		out.put(type).putInt((int)frame);
+		out.put((byte)((rest ? FLAG_AT_REST : 0) | (game.foul ? FLAG_FOUL : 0) | (game.turn == 1 ? FLAG_TURN : 0)));
+		out.put((byte)game.groups[0]).put((byte)game.groups[1]);
+	}
+
+	/**
+	 * Writes a frame message for a game into a buffer, which needs frameSize() bytes of room. Doesn't allocate anything.
+	 *
+	 * @param   out the buffer being written into
+	 * @param frame which frame the game is on
+	 * @param  game the game being sent
+	 * @param  rest whether the game is at rest (see SimulationEngine.isAtRest())
+	 */
+	public static void writeFrame(ByteBuffer out, long frame, GameState game, boolean rest){
+		BallStore s = game.table.getBallStore(); int n = Math.min(s.size, MAX_BALLS);
+		writeHeader(out, MSG_FRAME, frame, game, rest); out.put((byte)n);
+		for (int i = 0; i < n; i++){
+			out.putShort(quantize(s.xPos[i])).putShort(quantize(s.yPos[i]));
+		}
+		writeBits(out, s.sunk, n);
+	}
+
+	// writes out n flags, 8 to a byte, lowest bit first
+	static void writeBits(ByteBuffer out, boolean[] flags, int n){
+		for (int i = 0; i < n; i += 8){
+			int bits = 0;
+			for (int j = i; j < Math.min(i + 8, n); j++){
+				if (flags[j]){bits |= 1 << (j - i);}
+			}
+			out.put((byte)bits);
+		}
+	}
+
+	// reads n flags written by writeBits()
+	static void readBits(ByteBuffer in, boolean[] flags, int n){
+		for (int i = 0; i < n; i += 8){
+			int bits = in.get();
+			for (int j = i; j < Math.min(i + 8, n); j++){flags[j] = (bits & (1 << (j - i))) != 0;}
+		}
+	}
+
+	// clamps a position into what fits in a short, since sunken balls can end up slightly off the table
+	static short quantize(double position){
+		return (short)Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, Math.round(position*POSITION_SCALE)));
+	}
+}
@@ -0,0 +1,313 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Serves headless games over a TCP or Unix domain socket, one game per connection (see GameProtocol for what goes over the wire).
+ *
+ * Everything network related happens on one thread, using a Selector, so one process can serve thousands of connections.
+ * The games themselves run on a TableScheduler, and the network thread reads them through their FrameBuffers,
+ * so sending frames never holds up the simulation (and a slow simulation never holds up the network). Shots and placements
+ * get handed to the table's own task the same way (see TableScheduler.Table.submit()), and are checked against the game there.
+ *
+ * By default only what's changed since the last frame gets sent (see DeltaEncoder), so a table with one ball rolling
+ * costs a lot less than a break shot does, and a table at rest costs nothing at all.
+ *
+ * Frames are sent at whatever rate each client asked for. If a client can't keep up (its last frame hasn't been written out yet),
+ * it just misses frames rather than having them pile up in memory. Tables at rest only get sent once, since nothing's changing.
+ */
+public class GameServer implements Runnable {
+	public static final int DEFAULT_PORT = 4361;
+
+	// one client, and the game it's playing
+	private static class Connection {
+		final SocketChannel channel;
+		final ByteBuffer in, out;
+		SimulationEngine engine; TableScheduler.Table table;
+		FrameBuffer frames; GameState view; // the latest frame gets restored into view before it's sent
+		long period = (long)(SimulationEngine.FRAME_TIME * 1e9); long nextSend;
+		long lastFrame = -1; boolean lastRest;
+		DeltaEncoder delta = new DeltaEncoder(); // null if the client asked for full frames
+
+		Connection(SocketChannel channel){
+			this.channel = channel;
+			this.in = ByteBuffer.allocate(64);
+			this.out = ByteBuffer.allocate(GameProtocol.maxMessageSize(GameProtocol.MAX_BALLS)); this.out.flip(); // (starts out with nothing to write)
+		}
+	}
+
+	private final SocketAddress address;
+	private final TableScheduler scheduler;
+	private ServerSocketChannel server;
+	private Selector selector;
+	private final ArrayList<Connection> connections = new ArrayList<Connection>(); // network thread only
+	private Thread thread;
+	private volatile boolean running;
+	private volatile long framesSent, framesSkipped, bytesSent; // network thread only writes these
+	private final AtomicLong commandsRejected = new AtomicLong(); // the scheduler's threads reject commands too
+
+	/**
+	 * Creates a server that'll listen on some address once it's started.
+	 *
+	 * @param   address where to listen; an InetSocketAddress for TCP, or a UnixDomainSocketAddress for a Unix domain socket
+	 * @param scheduler what to run the games on
+	 */
+	public GameServer(SocketAddress address, TableScheduler scheduler){
+		this.address = address; this.scheduler = scheduler;
+	}
+
+	/**
+	 * Binds the socket and starts serving on a separate thread.
+	 */
+	public synchronized void start() throws IOException {
+		if (this.running){return;}
+		if (this.address instanceof UnixDomainSocketAddress){
+			Files.deleteIfExists(((UnixDomainSocketAddress)this.address).getPath()); // left over from a server that didn't shut down cleanly
+			this.server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+		}
+		else {
+			this.server = ServerSocketChannel.open();
+		}
+		this.server.bind(this.address, 1024);
+		this.server.configureBlocking(false);
+		this.selector = Selector.open();
+		this.server.register(this.selector, SelectionKey.OP_ACCEPT);
+
+		this.running = true;
+		this.thread = new Thread(this, "GameServer"); this.thread.setDaemon(true);
+		this.thread.start();
+	}
+
+	/**
+	 * Stops serving, closes every connection and removes their games from the scheduler.
+	 */
+	public void stop(){
+		Thread t;
+		synchronized (this){
+			if (!this.running){return;}
+			this.running = false;
+			t = this.thread; this.thread = null;
+		}
+		this.selector.wakeup();
+		try {t.join();}
+		catch (InterruptedException e) {Thread.currentThread().interrupt();}
+	}
+
+	/**
+	 * Gets the address the server is actually listening on (useful when it was started on port 0).
+	 *
+	 * @return the bound address
+	 */
+	public SocketAddress getLocalAddress() throws IOException {
+		return this.server.getLocalAddress();
+	}
+
+	public long getFramesSent(){return this.framesSent;}
+	public long getFramesSkipped(){return this.framesSkipped;}
+	public long getBytesSent(){return this.bytesSent;}
+	public long getCommandsRejected(){return this.commandsRejected.get();}
+
+	@Override
+	public void run(){
+		try {
+			while (this.running){
+				this.selector.select(this.timeout());
+
+				Iterator<SelectionKey> keys = this.selector.selectedKeys().iterator();
+				while (keys.hasNext()){
+					SelectionKey key = keys.next(); keys.remove();
+					if (!key.isValid()){continue;}
+					if (key.isAcceptable()){this.accept();}
+					else {
+						Connection c = (Connection)key.attachment();
+						try {
+							if (key.isReadable()){this.read(c);}
+							if (key.isValid() && key.isWritable()){this.flush(c);}
+						}
+						catch (IOException e) {this.close(c);} // the client went away, or sent us something we don't understand
+					}
+				}
+
+				this.sendFrames();
+			}
+		}
+		catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		finally {
+			for (Connection c : new ArrayList<Connection>(this.connections)){this.close(c);}
+			try {this.selector.close(); this.server.close();}
+			catch (IOException e) {}
+			if (this.address instanceof UnixDomainSocketAddress){
+				try {Files.deleteIfExists(((UnixDomainSocketAddress)this.address).getPath());}
+				catch (IOException e) {}
+			}
+		}
+	}
+
+	// how long to wait in select() before the next frame is due to go out to someone, in milliseconds (0 means forever)
+	private long timeout(){
+		long next = Long.MAX_VALUE;
+		for (Connection c : this.connections){
+			if (c.engine != null){next = Math.min(next, c.nextSend);}
+		}
+		if (next == Long.MAX_VALUE){return 0;}
+		return Math.max(1, (next - System.nanoTime() + 999999)/1000000);
+	}
+
+	private void accept() throws IOException {
+		SocketChannel channel;
+		while ((channel = this.server.accept()) != null){
+			channel.configureBlocking(false);
+			if (channel.getLocalAddress() instanceof InetSocketAddress){channel.socket().setTcpNoDelay(true);} // frames are small, and late frames are useless
+			Connection c = new Connection(channel);
+			channel.register(this.selector, SelectionKey.OP_READ, c);
+			this.connections.add(c);
+		}
+	}
+
+	private void close(Connection c){
+		if (c.table != null){this.scheduler.remove(c.table);}
+		this.connections.remove(c);
+		try {c.channel.close();}
+		catch (IOException e) {}
+	}
+
+	// reads whatever commands have come in and applies every complete one
+	private void read(Connection c) throws IOException {
+		if (c.channel.read(c.in) < 0){throw new IOException("Connection closed.");}
+		c.in.flip();
+		while (c.in.hasRemaining()){
+			byte cmd = c.in.get(c.in.position());
+			int size = GameProtocol.payloadSize(cmd);
+			if (size < 0){throw new IOException("Unknown command " + cmd + ".");}
+			if (c.in.remaining() < 1 + size){break;} // the rest hasn't arrived yet
+			c.in.get();
+			this.apply(c, cmd);
+		}
+		c.in.compact();
+	}
+
+	// applies one command; anything that isn't allowed right now (shooting while balls are moving, placing on top of another ball, etc.) is ignored
+	private void apply(Connection c, byte cmd){
+		ByteBuffer in = c.in;
+		switch (cmd){
+			case GameProtocol.CMD_NEW_GAME: {
+				long seed = in.getLong(); int mode = in.get();
+				if (c.table != null){this.scheduler.remove(c.table);}
+				GameState game = new GameState(seed);
+				game.table.simulationMode = (mode == TableState.MODE_EVENT_DRIVEN) ? TableState.MODE_EVENT_DRIVEN : TableState.MODE_FIXED_STEP;
+				c.engine = new SimulationEngine(game); c.frames = c.engine.getFrameBuffer(); c.view = new GameState(c.frames.template);
+				c.table = this.scheduler.add(c.engine);
+				c.lastFrame = -1; c.nextSend = System.nanoTime();
+				if (c.delta != null){c.delta.reset();}
+				break;
+			}
+			case GameProtocol.CMD_SHOOT: {
+				double xVel = in.getDouble(); double yVel = in.getDouble();
+				if (c.engine == null || !Double.isFinite(xVel) || !Double.isFinite(yVel)){this.commandsRejected.incrementAndGet(); break;}
+				// no harder than anyone could shoot with the mouse (see BallController.getShotSpeed())
+				double speed = Math.sqrt(xVel*xVel + yVel*yVel);
+				if (speed > BallController.MAX_SHOT_SPEED){xVel *= BallController.MAX_SHOT_SPEED/speed; yVel *= BallController.MAX_SHOT_SPEED/speed;}
+				SimulationEngine engine = c.engine; double xShot = xVel; double yShot = yVel;
+				c.table.submit(() -> {
+					GameState game = engine.getGame();
+					if (engine.isAtRest() && !game.foul && game.groups[0] != 3 && game.groups[1] != 3){engine.shoot(xShot, yShot);}
+					else {this.commandsRejected.incrementAndGet();}
+				});
+				break;
+			}
+			case GameProtocol.CMD_PLACE: {
+				double x = in.getDouble(); double y = in.getDouble();
+				if (c.engine == null){this.commandsRejected.incrementAndGet(); break;}
+				SimulationEngine engine = c.engine;
+				c.table.submit(() -> {
+					GameState game = engine.getGame();
+					if (engine.isAtRest() && game.foul && game.table.canPlace(x, y)){engine.place(x, y);}
+					else {this.commandsRejected.incrementAndGet();}
+				});
+				break;
+			}
+			case GameProtocol.CMD_RATE: {
+				int rate = Math.max(1, Math.min(60, in.getInt()));
+				c.period = 1000000000L/rate;
+				break;
+			}
+			case GameProtocol.CMD_ENCODING: {
+				int encoding = in.get();
+				if (encoding == GameProtocol.ENCODING_FULL){c.delta = null;}
+				else if (c.delta == null){c.delta = new DeltaEncoder();} // (starts off with a keyframe)
+				break;
+			}
+		}
+	}
+
+	// sends a frame to everyone who's due for one
+	private void sendFrames() throws IOException {
+		long now = System.nanoTime();
+		for (int i = 0; i < this.connections.size(); i++){
+			Connection c = this.connections.get(i);
+			if (c.engine == null || now < c.nextSend){continue;}
+			c.nextSend = Math.max(c.nextSend + c.period, now - c.period); // don't try to make up for lost time with a burst of frames
+
+			FrameBuffer.Frame frame = c.frames.latest();
+			boolean rest = frame.snapshot.isAtRest(); // (rather than asking the engine, which would mean waiting on its lock)
+			if (frame.frame == c.lastFrame && rest == c.lastRest){continue;} // nothing new to send
+			if (c.out.hasRemaining()){this.framesSkipped++; continue;}      // still writing the last one out; this client can't keep up
+
+			frame.restore(c.view, 1);
+			c.out.clear();
+			if (c.delta != null){c.delta.write(c.out, frame.frame, c.view, rest);} // (which writes nothing if nothing's changed)
+			else {GameProtocol.writeFrame(c.out, frame.frame, c.view, rest);}
+			c.out.flip();
+			c.lastFrame = frame.frame; c.lastRest = rest;
+			if (!c.out.hasRemaining()){continue;}
+			this.framesSent++; this.bytesSent += c.out.remaining();
+			try {
+				this.flush(c);
+			}
+			catch (IOException e) {
+				this.close(c); i--;
+			}
+		}
+	}
+
+	// writes out as much of the pending frame as the socket will take, and waits for it to drain if it won't take all of it
+	private void flush(Connection c) throws IOException {
+		c.channel.write(c.out);
+		SelectionKey key = c.channel.keyFor(this.selector);
+		key.interestOps(c.out.hasRemaining() ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+	}
+
+	/**
+	 * Starts a server and keeps it running until the process is killed, printing out some stats every few seconds.
+	 * Takes --port n (4361 by default) or --unix path to listen on a Unix domain socket instead, and --threads n for the TableScheduler.
+	 */
+	public static void main(String[] args) throws Exception {
+		System.setProperty("java.awt.headless", "true");
+		SocketAddress address = new InetSocketAddress("127.0.0.1", DEFAULT_PORT);
+		int threads = Runtime.getRuntime().availableProcessors();
+		for (int i = 0; i < args.length; i++){
+			if (args[i].equals("--port")){address = new InetSocketAddress("127.0.0.1", Integer.parseInt(args[++i]));}
+			else if (args[i].equals("--unix")){address = UnixDomainSocketAddress.of(args[++i]);}
+			else if (args[i].equals("--threads")){threads = Integer.parseInt(args[++i]);}
+		}
+
+		TableScheduler scheduler = new TableScheduler(threads); scheduler.start();
+		GameServer server = new GameServer(address, scheduler); server.start();
+		System.out.println("Listening on " + server.getLocalAddress());
+		while (true){
+			Thread.sleep(5000);
+			System.out.println(scheduler.getTableCount() + " games, " + server.getFramesSent() + " frames sent (" + server.getFramesSkipped() + " skipped), "
+				+ server.getBytesSent()/1024 + "KB, " + server.getCommandsRejected() + " commands rejected, " + scheduler.getLagging().size() + " lagging");
+		}
+	}
+}
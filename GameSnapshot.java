@@ -0,0 +1,33 @@
+/**
+ * A copy of everything about a GameState that changes as the game is played, as saved by GameState.save().
+ * Used for things that need to try something out and then rewind, like ShotEstimator.
+ * Can be restored into the game it came from or into any copy of that game (see GameState(GameState)).
+ */
+class GameSnapshot {
+	public final TableSnapshot table;
+	public boolean lastMoving; public final int[] lastSunkByType;
+	public int turn;
+	public final int[] groups;
+	public boolean foul; public int firstContact;
+
+	/**
+	 * Creates a snapshot of a game as it is right now.
+	 *
+	 * @param game the game being saved
+	 */
+	public GameSnapshot(GameState game){
+		this.table = new TableSnapshot(game.table);
+		this.lastSunkByType = new int[4];
+		this.groups = new int[2];
+		game.save(this);
+	}
+
+	/**
+	 * Gets whether the game was at rest when this snapshot was saved (see SimulationEngine.isAtRest()).
+	 *
+	 * @return true if nothing was moving and the end of the last shot had been dealt with
+	 */
+	public boolean isAtRest(){
+		return !this.table.moving && !this.lastMoving && this.table.awakeCount == 0;
+	}
+}
@@ -1,4 +1,6 @@
 import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.*;
 
 /**
  * Represents the state of a pool game being played.
@@ -6,20 +8,40 @@ import java.awt.*;
  */
 class GameState {
 	public final int w, h;
+	public final long seed; // the seed the rack was generated from; the same seed always gives the same rack
 	public int padding_left, padding_right, padding_top, padding_bottom;
 	public TableState table; 
-	public boolean lastMoving; public int[] lastMovingByType; public int[] lastSunkByType;
+	public boolean lastMoving; public int[] lastSunkByType;
+	private long nextEvent; // the next of the table's CollisionEvents that moveTime() hasn't looked at yet
 
 	public int turn;
 	public int[] groups;
 	public boolean foul; public int firstContact;
 
+	private Labels labels;         // the player labels, drawn ahead of time (created by draw())
+	private TableLayer tableLayer; // the frame, felt, pockets and walls, drawn ahead of time (created by draw())
+
+	/**
+	 * Creates a new game with a randomly generated rack.
+	 */
 	public GameState(){
+		this(new Random().nextLong());
+	}
+
+	/**
+	 * Creates a new game with a rack generated from some seed.
+	 * Along with the shots and placements made during the game (see ReplayLog), this is enough to play the whole game back exactly.
+	 * 
+	 * @param seed The seed for the random number generator used to lay out the rack.
+	 */
+	public GameState(long seed){
+		this.seed = seed;
+		Random random = new Random(seed);
 		this.w = 224; this.h = 112;
 		this.padding_top = 50; this.padding_bottom = 30;
 		this.padding_left = 30; this.padding_right = 30;
 		table = new TableState(this.w, this.h);
-		lastMoving = table.moving; lastMovingByType = table.movingByType.clone(); lastSunkByType = table.sunkByType.clone();
+		lastMoving = table.moving; lastSunkByType = table.sunkByType.clone();
 
 		// set up player state info
 		turn = 0; groups = new int[]{-1, -1}; foul = false; firstContact = -1;
@@ -47,12 +69,12 @@ class GameState {
 					else {
 						// if we havent placed a corner ball yet, pick a random type
 						// but keep track of what type we just placed down for the other corner later
-						type = Math.random() < 0.5 ? Ball.TYPE_BLUE : Ball.TYPE_RED;
+						type = random.nextDouble() < 0.5 ? Ball.TYPE_BLUE : Ball.TYPE_RED;
 						redCorner = (type == Ball.TYPE_RED); blueCorner = (type == Ball.TYPE_BLUE);
 					}
 				}
 				else { // place red/blue balls randomly everywhere else
-					if (Math.random() < (double)(reds)/(reds+blues)){type = Ball.TYPE_RED; reds--;} // pick a red ball based on how many reds and blues are left
+					if (random.nextDouble() < (double)(reds)/(reds+blues)){type = Ball.TYPE_RED; reds--;} // pick a red ball based on how many reds and blues are left
 					else {type = Ball.TYPE_BLUE; blues--;} // pick a blue ball if we dont pick a red ball
 				}
 
@@ -87,6 +109,51 @@ class GameState {
 		table.addPocket(new Pocket(pr, mid_w, 0)); // top-middle pocket
 	}
 
+	/**
+	 * Creates a copy of another game, table and all, that can be played out independently of it.
+	 * See TableState(TableState) for what gets shared between the two.
+	 * 
+	 * @param other The game being copied.
+	 */
+	public GameState(GameState other){
+		this.w = other.w; this.h = other.h; this.seed = other.seed;
+		this.padding_top = other.padding_top; this.padding_bottom = other.padding_bottom;
+		this.padding_left = other.padding_left; this.padding_right = other.padding_right;
+		table = new TableState(other.table);
+		lastMoving = other.lastMoving; lastSunkByType = other.lastSunkByType.clone();
+
+		turn = other.turn; groups = other.groups.clone(); foul = other.foul; firstContact = other.firstContact;
+	}
+
+	/**
+	 * Copies the state of the game (the table, whose turn it is, fouls and so on) into a snapshot.
+	 * Doesn't allocate anything, so it's fine to call as often as needed.
+	 * 
+	 * @param snapshot The snapshot being written into. Should have been created from this game or a copy of it.
+	 */
+	public void save(GameSnapshot snapshot){
+		table.save(snapshot.table);
+		snapshot.lastMoving = lastMoving;
+		System.arraycopy(lastSunkByType, 0, snapshot.lastSunkByType, 0, 4);
+		snapshot.turn = turn; snapshot.groups[0] = groups[0]; snapshot.groups[1] = groups[1];
+		snapshot.foul = foul; snapshot.firstContact = firstContact;
+	}
+
+	/**
+	 * Puts the game back the way it was when a snapshot was saved.
+	 * Doesn't allocate anything, so it's fine to call as often as needed.
+	 * 
+	 * @param snapshot The snapshot being restored. Should have been saved from this game or a copy of it.
+	 */
+	public void restore(GameSnapshot snapshot){
+		table.restore(snapshot.table);
+		lastMoving = snapshot.lastMoving;
+		System.arraycopy(snapshot.lastSunkByType, 0, lastSunkByType, 0, 4);
+		turn = snapshot.turn; groups[0] = snapshot.groups[0]; groups[1] = snapshot.groups[1];
+		foul = snapshot.foul; firstContact = snapshot.firstContact;
+		nextEvent = table.getEvents().getWritten(); // anything in there now happened before the rewind
+	}
+
 	// TODO: should we delegate these responsibilities to other functions?
 	/**
 	 * Moves the game forward a certain amount of time.
@@ -109,17 +176,18 @@ class GameState {
 			}
 		}
 
-		// if the cueball was/is moving, we need to keep track of what type of ball it hit first
-		if (lastMovingByType[Ball.TYPE_CUEBALL] != 0 || this.table.movingByType[Ball.TYPE_CUEBALL] != 0){
-			if (firstContact == -1){
-				// if a type of ball wasn't moving before and it is now, the cueball most likely came into contact with it first
-				if (lastMovingByType[Ball.TYPE_RED] == 0 && this.table.movingByType[Ball.TYPE_RED] != 0){firstContact = Ball.TYPE_RED;}
-				else if (lastMovingByType[Ball.TYPE_BLUE] == 0 && this.table.movingByType[Ball.TYPE_BLUE] != 0){firstContact = Ball.TYPE_BLUE;}
-				else if (lastMovingByType[Ball.TYPE_8BALL] == 0 && this.table.movingByType[Ball.TYPE_8BALL] != 0){firstContact = Ball.TYPE_8BALL;}
-
-				if (groups[turn] == -1 && firstContact != -1){firstContact = 0;} // (if we dont have a group assigned to us, the type should be irrelevant. just as long as we hit something)
+		// we need to keep track of what type of ball the cueball hit first, which the table tells us about directly (see CollisionEvents)
+		CollisionEvents events = this.table.getEvents(); long end = events.getWritten();
+		if (firstContact == -1){
+			int cue = this.table.getCueBall().getIndex();
+			for (long e = Math.max(nextEvent, events.getOldest()); e < end && firstContact == -1; e++){
+				if (events.getType(e) != CollisionEvents.TYPE_BALL){continue;}
+				int other = (events.getA(e) == cue) ? events.getB(e) : (events.getB(e) == cue) ? events.getA(e) : -1;
+				if (other != -1){firstContact = this.table.getBall(other).type;}
 			}
+			if (groups[turn] == -1 && firstContact != -1){firstContact = 0;} // (if we dont have a group assigned to us, the type should be irrelevant. just as long as we hit something)
 		}
+		nextEvent = end;
 
 		// our move is over whenever all the balls stop moving
 		if (!table.moving && lastMoving){
@@ -163,30 +231,77 @@ class GameState {
 			else { // otherwise just change turns normally
 				turn = (turn+1)%2;
 			}
-		 	lastSunkByType = table.sunkByType.clone(); firstContact = -1;
+		 	System.arraycopy(table.sunkByType, 0, lastSunkByType, 0, 4); firstContact = -1;
 		}
 
-		lastMoving = this.table.moving; lastMovingByType = this.table.movingByType.clone();
+		lastMoving = this.table.moving;
+	}
+
+	// which of the colors in Labels.PLAYER_COLORS a player's label is in right now, as a single index (group*2 + whether it's their turn)
+	private int getPlayerColorIndex(int player){
+		// adjust color based on what group of balls they're hitting (3 is the color/type for the winner; TODO: enum for player group?)
+		int group = (this.groups[player] == -1) ? 0 : this.groups[player];
+		// change color based on if they're allowed to place/hit the ball at the moment
+		return group*2 + ((this.turn==player && !this.table.moving) ? 1 : 0);
 	}
 
 	/**
-	 * Determines the color that the player text in the UI should be drawn in, based on
-	 * their assigned ball group and whether they can hit/place the cueball right now.
-	 * 
-	 * @param player The player's number (either 0 or 1).
-	 * @return       The color that that player's text should be drawn in.
+	 * The player labels ("P1" and "P2") in the UI. Java2D allocates a little when drawing translucent text,
+	 * so each label is only drawn once per color and font size and copied over from then on.
+	 * Only draw() ever creates one, so a GameState that's never drawn doesn't load any of AWT.
 	 */
-	private Color getPlayerColor(int player){
-		Color pColor;
-		switch (this.groups[player]){ // adjust color based on what group of balls they're hitting
-			case Ball.TYPE_RED: pColor = new Color(200, 7, 23); break;
-			case Ball.TYPE_BLUE: pColor = new Color(10, 7, 200); break;
-			case 3: pColor = new Color(230, 210, 0); break; // color/type for winner (TODO: enum for player group?)
-			default: pColor = Color.black; break;
+	private static class Labels {
+		// the colors a label can be in, indexed by group (0 for no group yet) and then by whether it's that player's turn
+		static final Color[][] PLAYER_COLORS = {
+			{ new Color(0, 0, 0, (int)(0.4*255)), Color.black },
+			{ new Color(200, 7, 23, (int)(0.4*255)), new Color(200, 7, 23) },
+			{ new Color(10, 7, 200, (int)(0.4*255)), new Color(10, 7, 200) },
+			{ new Color(230, 210, 0, (int)(0.4*255)), new Color(230, 210, 0) }
+		};
+
+		Font font; // the UI font, kept around until the canvas gets scaled to a different font size
+		BufferedImage[][] images; // indexed by player and then by getPlayerColorIndex()
+		int ascent; // how far down from the top of each image the text's baseline is
+
+		/**
+		 * Draws both players' labels, in whatever color they should be in right now.
+		 * 
+		 * @param    game the game whose players are being labeled
+		 * @param       g the Graphics object being drawn onto (its rendering hints are used for the labels too)
+		 * @param   scale the scale the game is being drawn at (see GameState.getScale())
+		 * @param xOffset the x offset the game is being drawn at (see GameState.getXOffset())
+		 * @param yOffset the y offset the game is being drawn at (see GameState.getYOffset())
+		 */
+		void draw(GameState game, Graphics g, double scale, double xOffset, double yOffset){
+			// TODO: this is all ad-hoc and really disgusting at the moment; maybe rewrite this so it can take in some arbitrary font size somehow
+			int fontSize = (int)(20*scale);
+			if (this.font == null || this.font.getSize() != fontSize){
+				this.font = new Font("Arial", Font.BOLD, fontSize);
+				this.images = new BufferedImage[2][PLAYER_COLORS.length*2];
+			}
+			Graphics2D g2d = (Graphics2D)g;
+			g.drawImage(this.get(game, g2d, 0), (int)(-19*scale + xOffset), (int)(-25*scale + yOffset) - this.ascent, null);
+			g.drawImage(this.get(game, g2d, 1), (int)((game.w-5)*scale+xOffset), (int)(-25*scale + yOffset) - this.ascent, null);
+		}
+
+		// gets the image of a player's label in the color it should be in right now, drawing it first if it hasn't been yet
+		private BufferedImage get(GameState game, Graphics2D g, int player){
+			int color = game.getPlayerColorIndex(player);
+			if (this.images[player][color] == null){
+				String text = (player == 0) ? "P1" : "P2";
+				FontMetrics metrics = g.getFontMetrics(this.font);
+				this.ascent = metrics.getAscent();
+				int lw = Math.max(metrics.stringWidth(text) + 2, 1); int lh = Math.max(metrics.getAscent() + metrics.getDescent(), 1);
+
+				BufferedImage label = g.getDeviceConfiguration().createCompatibleImage(lw, lh, Transparency.TRANSLUCENT);
+				Graphics2D lg = label.createGraphics();
+				lg.setRenderingHints(g.getRenderingHints());
+				lg.setFont(this.font); lg.setColor(PLAYER_COLORS[color/2][color%2]); lg.drawString(text, 0, this.ascent);
+				lg.dispose();
+				this.images[player][color] = label;
+			}
+			return this.images[player][color];
 		}
-		// change color based on if they're allowed to place/hit the ball at the moment
-		pColor = (this.turn==player && !this.table.moving) ? pColor : new Color(pColor.getRed(), pColor.getGreen(), pColor.getBlue(), (int)(0.4*255)); 
-		return pColor;
 	}
 
 	/**
@@ -202,15 +317,78 @@ class GameState {
 		double scale = getScale(w, h); double xOffset = getXOffset(w, h); double yOffset = getYOffset(w, h);
 
 		// place player turn indicators on screen
-		// TODO: this is all ad-hoc and really disgusting at the moment; maybe rewrite this so it can take in some arbitrary font size somehow
-		Font UIFont = new Font("Arial", Font.BOLD, (int)(20*scale)); g.setFont(UIFont); 
-		g.setColor(getPlayerColor(0)); g.drawString("P1", (int)(-19*scale + xOffset), (int)(-25*scale + yOffset));
-		g.setColor(getPlayerColor(1)); g.drawString("P2", (int)((this.w-5)*scale+xOffset), (int)(-25*scale + yOffset));
+		if (this.labels == null){this.labels = new Labels();}
+		this.labels.draw(this, g, scale, xOffset, yOffset);
+
+		// nothing on the table besides the balls ever moves, so that all gets drawn once and copied over every frame
+		if (this.tableLayer == null){this.tableLayer = new TableLayer();}
+		this.tableLayer.draw(this, g, w, h);
+		table.drawBalls(g, scale, xOffset, yOffset);
+	}
+
+	/**
+	 * An image of everything on the table that doesn't move (the wooden frame, the felt, the pockets and the walls)
+	 * as it'd be drawn onto a canvas of some width and height. The image only covers the table itself
+	 * (the bounding box of its walls, which the wooden frame fills in completely), and goes at (x, y) on the canvas.
+	 * It's kept around and reused until it's drawn onto a canvas of a different size.
+	 * Only draw() ever creates one, so a GameState that's never drawn doesn't load any of AWT.
+	 */
+	private static class TableLayer {
+		static final Color FRAME_COLOR = new Color(155, 126, 70);
+		static final Color FELT_COLOR = new Color(1, 162, 76);
+
+		BufferedImage image;
+		int x, y; // where on the canvas the image goes
+		int w, h; // the size of the canvas the image was drawn for
+
+		/**
+		 * Copies the table onto a canvas, drawing it again first if the canvas has changed size since last time.
+		 * 
+		 * @param game the game whose table is being drawn
+		 * @param    g the Graphics object being drawn onto (its rendering hints are used for the image too)
+		 * @param    w the width of the canvas being drawn onto
+		 * @param    h the height of the canvas being drawn onto
+		 */
+		void draw(GameState game, Graphics g, int w, int h){
+			if (this.image == null || this.w != w || this.h != h){this.redraw(game, g, w, h);}
+			g.drawImage(this.image, this.x, this.y, null);
+		}
 
-		table.fillPolygon(g, scale, xOffset, yOffset, new Color(155, 126, 70), new int[]{0, 1, 2, 3, 4, 5, 0, 6, 7, 8, 9, 10}); // wooden frame
-		table.fillPolygon(g, scale, xOffset, yOffset, new Color(1, 162, 76), new int[]{0, 1, 2, 3, 4, 5});                   // felt playing field
+		private void redraw(GameState game, Graphics g, int w, int h){
+			TableState table = game.table;
+			double scale = game.getScale(w, h); double xOffset = game.getXOffset(w, h); double yOffset = game.getYOffset(w, h);
 
-		table.drawObjects(g, scale, xOffset, yOffset);
+			// work out the box the walls fit in, the same way fillPolygon() rounds them to pixels
+			int x0 = Integer.MAX_VALUE; int y0 = Integer.MAX_VALUE; int x1 = Integer.MIN_VALUE; int y1 = Integer.MIN_VALUE;
+			for (int i = 0; i < table.getWallCount(); i++){
+				Wall wall = table.getWall(i);
+				int xa = (int)(wall.x1*scale + xOffset); int xb = (int)(wall.x2*scale + xOffset);
+				int ya = (int)(wall.y1*scale + yOffset); int yb = (int)(wall.y2*scale + yOffset);
+				x0 = Math.min(x0, Math.min(xa, xb)); x1 = Math.max(x1, Math.max(xa, xb));
+				y0 = Math.min(y0, Math.min(ya, yb)); y1 = Math.max(y1, Math.max(ya, yb));
+			}
+			if (x0 > x1){x0 = 0; y0 = 0; x1 = 0; y1 = 0;} // no walls at all
+			int lw = Math.max(x1 - x0 + 1, 1); int lh = Math.max(y1 - y0 + 1, 1);
+
+			// the frame covers the whole box, so the image can be opaque. that makes copying it over a plain copy rather than a blend,
+			// and a compatible image can even be kept in video memory by Java2D
+			if (g instanceof Graphics2D){
+				this.image = ((Graphics2D)g).getDeviceConfiguration().createCompatibleImage(lw, lh, Transparency.OPAQUE);
+			}
+			else {
+				this.image = new BufferedImage(lw, lh, BufferedImage.TYPE_INT_RGB);
+			}
+			this.x = x0; this.y = y0;
+			this.w = w; this.h = h;
+
+			Graphics2D layer = this.image.createGraphics();
+			if (g instanceof Graphics2D){layer.setRenderingHints(((Graphics2D)g).getRenderingHints());}
+			xOffset -= x0; yOffset -= y0;
+			table.fillPolygon(layer, scale, xOffset, yOffset, FRAME_COLOR, new int[]{0, 1, 2, 3, 4, 5, 0, 6, 7, 8, 9, 10}); // wooden frame
+			table.fillPolygon(layer, scale, xOffset, yOffset, FELT_COLOR, new int[]{0, 1, 2, 3, 4, 5});                   // felt playing field
+			table.drawStatic(layer, scale, xOffset, yOffset);
+			layer.dispose();
+		}
 	}
 
 	/**
@@ -230,6 +408,29 @@ class GameState {
 		table.drawShotPreview(g, scale, xOffset, yOffset, xVel, yVel);
 	}
 
+	/**
+	 * Draws a preview of a shot that's already been worked out by a ShotPreview, without doing any of the work of casting it here:
+	 * the velocity vector and first contact like drawShotPreview() above, and then the cue ball's path in white and the path of
+	 * the ball it hits in yellow.
+	 * This method does not draw any of the objects on the table and should be called after GameState.draw().
+	 * 
+	 * @param      g the Graphics object being drawn onto
+	 * @param      w the width of the canvas being drawn onto
+	 * @param      h the height of the canvas being drawn onto
+	 * @param   xVel the velocity along the x-axis the cue ball will be moving at
+	 * @param   yVel the velocity along the y-axis the cue ball will be moving at
+	 * @param result the last preview the ShotPreview finished (see ShotPreview.latest()), or null if there isn't one yet
+	 */
+	public void drawShotPreview(Graphics g, int w, int h, double xVel, double yVel, ShotPreview.Result result){
+		double scale = this.getScale(w, h); double xOffset = this.getXOffset(w, h); double yOffset = this.getYOffset(w, h);
+		table.drawShotPreview(g, scale, xOffset, yOffset, xVel, yVel, (result != null) ? result.hit : null);
+		if (result == null){return;}
+
+		// then the rest of the paths, with the ball that gets hit first (if any) on top
+		table.drawShotPath(g, scale, xOffset, yOffset, result.cue, Color.white);
+		if (result.object != null){table.drawShotPath(g, scale, xOffset, yOffset, result.object, Color.yellow);}
+	}
+
 	/**
 	 * Draws a preview of where the cue ball would be located, given the user clicks at the coordinate (xPos, yPos) on the canvas.
 	 * Will also return whether the cue ball can be placed in that location or not based on TableState.nextCollisionPoint().
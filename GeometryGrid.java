@@ -0,0 +1,154 @@
+import java.util.*;
+
+/**
+ * A uniform grid over the static parts of a table (its walls and pockets), used as a broad phase for wall and pocket collisions.
+ * Each cell lists every wall and pocket that a ball with its center somewhere in that cell could possibly be touching,
+ * so a ball only has to be checked against those instead of against everything on the table.
+ *
+ * Walls and pockets never move, so the grid is built once up front and never changes afterwards.
+ * The lists for each cell are packed back to back into a single int array (cellStart[c] to cellStart[c+1]),
+ * and walls/pockets show up in each list in the same order they were added to the table.
+ */
+class GeometryGrid {
+	private final double xMin, yMin;
+	private final double cellSize;
+	private final int cols, rows;
+
+	private final int[] wallStart, wallItems;     // the walls in cell c are wallItems[wallStart[c]] to wallItems[wallStart[c+1]-1]
+	private final int[] pocketStart, pocketItems; // same for pockets
+
+	/**
+	 * Builds a grid over some walls and pockets.
+	 *
+	 * @param     walls the walls on the table
+	 * @param   pockets the pockets on the table
+	 * @param maxRadius the radius of the largest ball that'll be checked against the grid
+	 * @param  cellSize how wide and tall each cell is
+	 */
+	public GeometryGrid(ArrayList<Wall> walls, ArrayList<Pocket> pockets, double maxRadius, double cellSize){
+		// work out the region that a ball could be in and still touch something
+		// a wall can only touch balls within its bounding box grown by the ball's radius (see Wall.isBallColliding())
+		double[] wallBox = new double[walls.size()*4];
+		for (int i = 0; i < walls.size(); i++){
+			Wall w = walls.get(i);
+			wallBox[i*4] = w.xMin - maxRadius; wallBox[i*4 + 1] = w.yMin - maxRadius;
+			wallBox[i*4 + 2] = w.xMax + maxRadius; wallBox[i*4 + 3] = w.yMax + maxRadius;
+		}
+
+		// sunken balls bounce off a wall tangent to the pocket's edge (see CollisionHandler.handlePocketCollisions())
+		// that wall's endpoints are at most sqrt(2)*radius away from the center on either axis, so that plus the ball's radius covers it
+		// (and it covers the pocket itself, which only needs the pocket's radius)
+		double[] pocketBox = new double[pockets.size()*4];
+		for (int i = 0; i < pockets.size(); i++){
+			Pocket p = pockets.get(i);
+			double reach = Math.sqrt(2)*p.radius + maxRadius;
+			pocketBox[i*4] = p.xPos - reach; pocketBox[i*4 + 1] = p.yPos - reach;
+			pocketBox[i*4 + 2] = p.xPos + reach; pocketBox[i*4 + 3] = p.yPos + reach;
+		}
+
+		double x0 = Double.POSITIVE_INFINITY; double y0 = Double.POSITIVE_INFINITY;
+		double x1 = Double.NEGATIVE_INFINITY; double y1 = Double.NEGATIVE_INFINITY;
+		double[][] boxes = { wallBox, pocketBox };
+		for (double[] box : boxes){
+			for (int i = 0; i < box.length; i += 4){
+				x0 = Math.min(x0, box[i]); y0 = Math.min(y0, box[i + 1]);
+				x1 = Math.max(x1, box[i + 2]); y1 = Math.max(y1, box[i + 3]);
+			}
+		}
+		if (x0 > x1){x0 = 0; y0 = 0; x1 = 0; y1 = 0;} // nothing on the table at all
+
+		this.xMin = x0; this.yMin = y0;
+		this.cellSize = cellSize;
+		this.cols = Math.max(1, (int)Math.ceil((x1 - x0) / cellSize));
+		this.rows = Math.max(1, (int)Math.ceil((y1 - y0) / cellSize));
+
+		this.wallStart = new int[this.cols*this.rows + 1];
+		this.wallItems = this.fill(wallBox, this.wallStart);
+		this.pocketStart = new int[this.cols*this.rows + 1];
+		this.pocketItems = this.fill(pocketBox, this.pocketStart);
+	}
+
+	/**
+	 * Buckets a list of boxes into every cell they overlap.
+	 * Goes over the boxes twice: once to count how many land in each cell, then again to actually write them out.
+	 *
+	 * @param boxes the boxes, 4 values (xMin, yMin, xMax, yMax) each
+	 * @param start gets filled in with where each cell's list starts in the returned array
+	 * @return      the lists for every cell, back to back
+	 */
+	private int[] fill(double[] boxes, int[] start){
+		int cells = this.cols*this.rows;
+		for (int pass = 0; pass < 2; pass++){
+			int[] count = new int[cells];
+			int[] items = (pass == 0) ? null : new int[start[cells]];
+
+			for (int i = 0; i < boxes.length/4; i++){
+				int c0 = this.colAt(boxes[i*4]); int r0 = this.rowAt(boxes[i*4 + 1]);
+				int c1 = this.colAt(boxes[i*4 + 2]); int r1 = this.rowAt(boxes[i*4 + 3]);
+				for (int r = r0; r <= r1; r++){
+					for (int c = c0; c <= c1; c++){
+						int cell = r*this.cols + c;
+						if (items != null){items[start[cell] + count[cell]] = i;}
+						count[cell]++;
+					}
+				}
+			}
+
+			if (items != null){return items;}
+			for (int c = 0; c < cells; c++){start[c + 1] = start[c] + count[c];}
+		}
+		return null; // unreachable
+	}
+
+	private int colAt(double x){
+		return Math.max(0, Math.min(this.cols - 1, (int)Math.floor((x - this.xMin) / this.cellSize)));
+	}
+
+	private int rowAt(double y){
+		return Math.max(0, Math.min(this.rows - 1, (int)Math.floor((y - this.yMin) / this.cellSize)));
+	}
+
+	/**
+	 * Gets the cell a point lies in.
+	 * Points outside the grid aren't near anything, so they don't get a cell.
+	 *
+	 * @param x the x coordinate of the point
+	 * @param y the y coordinate of the point
+	 * @return  the index of the cell, or -1 if the point is outside the grid
+	 */
+	public int cellAt(double x, double y){
+		double col = Math.floor((x - this.xMin) / this.cellSize);
+		double row = Math.floor((y - this.yMin) / this.cellSize);
+		if (!(col >= 0 && col < this.cols && row >= 0 && row < this.rows)){return -1;}
+		return (int)row*this.cols + (int)col;
+	}
+
+	/**
+	 * Finds every wall that a ball centered in some cell could be touching.
+	 *
+	 * @param cell the cell from cellAt()
+	 * @param  out the array the walls' indices are written into. should be large enough to hold every wall on the table
+	 * @return     how many walls were written into out
+	 */
+	public int queryWalls(int cell, int[] out){
+		return GeometryGrid.copy(cell, this.wallStart, this.wallItems, out);
+	}
+
+	/**
+	 * Finds every pocket that a ball centered in some cell could be sinking into or bouncing around in.
+	 *
+	 * @param cell the cell from cellAt()
+	 * @param  out the array the pockets' indices are written into. should be large enough to hold every pocket on the table
+	 * @return     how many pockets were written into out
+	 */
+	public int queryPockets(int cell, int[] out){
+		return GeometryGrid.copy(cell, this.pocketStart, this.pocketItems, out);
+	}
+
+	private static int copy(int cell, int[] start, int[] items, int[] out){
+		if (cell == -1){return 0;}
+		int n = start[cell + 1] - start[cell];
+		System.arraycopy(items, start[cell], out, 0, n);
+		return n;
+	}
+}
@@ -0,0 +1,415 @@
+/**
+ * Closed form helpers for balls sliding under constant friction, as modeled in Ball.moveTime().
+ * A ball moving at speed v travels distance = t*v - (f*t^2)/2 in a straight line until it stops at t = v/f,
+ * so until then its position along each axis is a quadratic polynomial in t.
+ * That lets us solve for exactly when a ball will touch something instead of stepping time forward and checking.
+ *
+ * Polynomials are stored as arrays of coefficients from lowest to highest degree (p[0] + p[1]*t + p[2]*t^2 + ...).
+ */
+class Kinematics {
+	private static final int BISECTIONS = 64;
+
+	/**
+	 * Scratch space for the solvers below, so that solving for a collision doesn't allocate anything.
+	 * Not thread safe; every thread (in practice, every EventSimulator) needs its own.
+	 */
+	public static class Workspace {
+		final double[] shifted = new double[6], poly = new double[5], line = new double[3];
+		final double[][] critical = new double[5][], derivative = new double[5][]; // indexed by the degree of the polynomial being solved
+
+		public Workspace(){
+			for (int d = 0; d < 5; d++){this.critical[d] = new double[d + 1]; this.derivative[d] = new double[Math.max(d, 1)];}
+		}
+	}
+
+	/**
+	 * Determines how long it'll take a ball to come to a stop.
+	 *
+	 * @param velocity the speed of the ball
+	 * @param friction the rate at which velocity decreases over time (velocity decreases by 1*friction every second)
+	 * @return         the amount of time in seconds before the ball stops, or infinity if it never does
+	 */
+	public static double stopTime(double velocity, double friction){
+		if (velocity == 0){return 0;}
+		return (friction > 0) ? velocity/friction : Double.POSITIVE_INFINITY;
+	}
+
+	/**
+	 * Writes the coefficients of a ball's position over time into out, as {x0, x1, x2, y0, y1, y2}
+	 * where x(t) = x0 + x1*t + x2*t^2 and likewise for y. Only valid up until the ball stops (see stopTime()).
+	 *
+	 * @param     xPos the x coordinate of the ball right now
+	 * @param     yPos the y coordinate of the ball right now
+	 * @param     xVel the velocity of the ball along the x axis right now
+	 * @param     yVel the velocity of the ball along the y axis right now
+	 * @param friction the rate at which velocity decreases over time (velocity decreases by 1*friction every second)
+	 * @param      out the array the 6 coefficients get written into
+	 */
+	public static void trajectory(double xPos, double yPos, double xVel, double yVel, double friction, double[] out){
+		double velocity = Math.sqrt(xVel*xVel + yVel*yVel);
+		out[0] = xPos; out[3] = yPos;
+		if (velocity == 0){
+			out[1] = 0; out[2] = 0; out[4] = 0; out[5] = 0;
+		}
+		else {
+			// friction points directly against the direction of travel
+			out[1] = xVel; out[2] = -friction*(xVel/velocity)/2;
+			out[4] = yVel; out[5] = -friction*(yVel/velocity)/2;
+		}
+	}
+
+	/**
+	 * Writes the coefficients of a ball's position after it's stopped into out, using the same layout as trajectory().
+	 * This is just the position it stopped at (a polynomial of degree 0).
+	 *
+	 * @param  traj the coefficients from trajectory()
+	 * @param tStop the time the ball stops at
+	 * @param   out the array the 6 coefficients get written into
+	 */
+	public static void stopped(double[] traj, double tStop, double[] out){
+		double x = traj[0] + traj[1]*tStop + traj[2]*tStop*tStop;
+		double y = traj[3] + traj[4]*tStop + traj[5]*tStop*tStop;
+		out[0] = x; out[1] = 0; out[2] = 0;
+		out[3] = y; out[4] = 0; out[5] = 0;
+	}
+
+	/**
+	 * Gets the x coordinate of a ball along a trajectory at some point in time.
+	 *
+	 * @param traj the coefficients from trajectory()
+	 * @param    t the time to evaluate the trajectory at
+	 * @return     the x coordinate at time t
+	 */
+	public static double xAt(double[] traj, double t){
+		return traj[0] + traj[1]*t + traj[2]*t*t;
+	}
+
+	/**
+	 * Gets the y coordinate of a ball along a trajectory at some point in time.
+	 *
+	 * @param traj the coefficients from trajectory()
+	 * @param    t the time to evaluate the trajectory at
+	 * @return     the y coordinate at time t
+	 */
+	public static double yAt(double[] traj, double t){
+		return traj[3] + traj[4]*t + traj[5]*t*t;
+	}
+
+	/**
+	 * Solves for when a ball following some trajectory first comes within some distance of a fixed point.
+	 *
+	 * @param     traj the coefficients from trajectory()
+	 * @param        x the x coordinate of the point
+	 * @param        y the y coordinate of the point
+	 * @param distance how close the ball's center has to get to the point
+	 * @param  horizon how far ahead in time to look
+	 * @param     work scratch space
+	 * @return         the time it happens at, or NaN if it doesn't happen within the horizon
+	 */
+	public static double pointCrossing(double[] traj, double x, double y, double distance, double horizon, Workspace work){
+		double[] poly = work.poly;
+		separation(shift(traj, x, y, work.shifted), null, distance, poly);
+		return firstCrossing(poly, 4, 0, horizon, work);
+	}
+
+	/**
+	 * Solves for when a ball following some trajectory first gets further than some distance away from a fixed point.
+	 * The opposite of pointCrossing(); useful for keeping sunken balls inside of their pockets.
+	 *
+	 * @param     traj the coefficients from trajectory()
+	 * @param        x the x coordinate of the point
+	 * @param        y the y coordinate of the point
+	 * @param distance how far the ball's center has to get from the point
+	 * @param  horizon how far ahead in time to look
+	 * @param     work scratch space
+	 * @return         the time it happens at, or NaN if it doesn't happen within the horizon
+	 */
+	public static double pointEscape(double[] traj, double x, double y, double distance, double horizon, Workspace work){
+		double[] poly = work.poly;
+		separation(shift(traj, x, y, work.shifted), null, distance, poly);
+		for (int k = 0; k < 5; k++){poly[k] = -poly[k];} // flip it around; we want to know when it gets further away, not closer
+		return firstCrossing(poly, 4, 0, horizon, work);
+	}
+
+	// moves a trajectory so that (x, y) is the origin
+	private static double[] shift(double[] traj, double x, double y, double[] out){
+		out[0] = traj[0] - x; out[1] = traj[1]; out[2] = traj[2];
+		out[3] = traj[3] - y; out[4] = traj[4]; out[5] = traj[5];
+		return out;
+	}
+
+	/**
+	 * Solves for when a ball following some trajectory first touches a wall, either along its face or on one of its endpoints.
+	 * Walls are treated as line segments with rounded ends; the ball touches one when its center is within its radius of the segment.
+	 *
+	 * @param    traj the coefficients from trajectory()
+	 * @param    wall the wall being checked against
+	 * @param  radius the radius of the ball
+	 * @param horizon how far ahead in time to look
+	 * @param  normal if there's a hit, the unit normal of the surface that was hit (pointing towards the ball) gets written in here
+	 * @param    work scratch space
+	 * @return        the time it happens at, or NaN if it doesn't happen within the horizon
+	 */
+	public static double wallCrossing(double[] traj, Wall wall, double radius, double horizon, double[] normal, Workspace work){
+		double tangentX = wall.tangentX; double tangentY = wall.tangentY;
+		double normalX = wall.normalX; double normalY = wall.normalY;
+
+		// the signed distance from the wall's line to the ball's center is a quadratic in t
+		double side = normalX*(traj[0] - wall.x1) + normalY*(traj[3] - wall.y1) >= 0 ? 1 : -1;
+		double[] poly = work.line;
+		poly[0] = side*(normalX*(traj[0] - wall.x1) + normalY*(traj[3] - wall.y1)) - radius;
+		poly[1] = side*(normalX*traj[1] + normalY*traj[4]);
+		poly[2] = side*(normalX*traj[2] + normalY*traj[5]);
+
+		double best = Double.NaN;
+		double t = firstCrossing(poly, 2, 0, horizon, work);
+		if (!Double.isNaN(t)){
+			// only counts if the ball hits somewhere between the two endpoints
+			double along = tangentX*(xAt(traj, t) - wall.x1) + tangentY*(yAt(traj, t) - wall.y1);
+			if (along >= 0 && along <= wall.length){
+				best = t; normal[0] = side*normalX; normal[1] = side*normalY;
+			}
+		}
+
+		// the endpoints
+		for (int k = 0; k < 2; k++){
+			double ex = (k == 0) ? wall.x1 : wall.x2; double ey = (k == 0) ? wall.y1 : wall.y2;
+			t = pointCrossing(traj, ex, ey, radius, Double.isNaN(best) ? horizon : best, work);
+			if (!Double.isNaN(t) && (Double.isNaN(best) || t < best)){
+				double dx = xAt(traj, t) - ex; double dy = yAt(traj, t) - ey;
+				double distance = Math.sqrt(dx*dx + dy*dy);
+				if (distance > 0){best = t; normal[0] = dx/distance; normal[1] = dy/distance;}
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Determines how long it takes a ball to travel some distance, given its starting speed.
+	 * Same as Ball.distanceToTime(), but without needing a Ball.
+	 *
+	 * @param velocity the starting speed of the ball
+	 * @param friction the rate at which velocity decreases over time (velocity decreases by 1*friction every second)
+	 * @param distance how far the ball travels
+	 * @return         the amount of time in seconds it takes
+	 */
+	public static double travelTime(double velocity, double friction, double distance){
+		if (friction == 0){return distance/velocity;}
+		double sqrt_term = velocity*velocity - 2*distance*friction;
+		return (sqrt_term >= 0) ? (velocity - Math.sqrt(sqrt_term)) / friction : velocity/friction;
+	}
+
+	/**
+	 * Casts a circle along a straight line and finds how far it travels before touching a fixed point.
+	 * Since a ball never changes direction until it hits something, this is enough to find its first contact without
+	 * worrying about friction at all; use travelTime() to convert the distance into a time afterwards.
+	 *
+	 * @param       x the x coordinate the cast starts at
+	 * @param       y the y coordinate the cast starts at
+	 * @param      ux the x component of the unit direction of the cast
+	 * @param      uy the y component of the unit direction of the cast
+	 * @param      cx the x coordinate of the point
+	 * @param      cy the y coordinate of the point
+	 * @param  radius how close the cast has to get to the point
+	 * @param maxDist how far the cast goes
+	 * @return        the distance along the cast where it first touches the point, or NaN if it never does
+	 */
+	public static double rayCircle(double x, double y, double ux, double uy, double cx, double cy, double radius, double maxDist){
+		double dx = x - cx; double dy = y - cy;
+		double b = dx*ux + dy*uy;
+		double c = dx*dx + dy*dy - radius*radius;
+		if (c <= 0){return (b < 0) ? 0 : Double.NaN;} // already touching; only counts if it's heading further in
+
+		double discriminant = b*b - c;
+		if (discriminant < 0){return Double.NaN;} // misses entirely
+		double s = -b - Math.sqrt(discriminant);
+		return (s >= 0 && s <= maxDist) ? s : Double.NaN;
+	}
+
+	/**
+	 * Casts a circle along a straight line and finds how far it travels before touching a wall, either along its face or on one of its endpoints.
+	 * The straight line counterpart to wallCrossing().
+	 *
+	 * @param       x the x coordinate the cast starts at
+	 * @param       y the y coordinate the cast starts at
+	 * @param      ux the x component of the unit direction of the cast
+	 * @param      uy the y component of the unit direction of the cast
+	 * @param    wall the wall being checked against
+	 * @param  radius the radius of the circle being cast
+	 * @param maxDist how far the cast goes
+	 * @return        the distance along the cast where it first touches the wall, or NaN if it never does
+	 */
+	public static double raySegment(double x, double y, double ux, double uy, Wall wall, double radius, double maxDist){
+		double tangentX = wall.tangentX; double tangentY = wall.tangentY;
+		double normalX = wall.normalX; double normalY = wall.normalY;
+
+		// how far we are from the wall's line, and how quickly we close that distance
+		double offset = normalX*(x - wall.x1) + normalY*(y - wall.y1);
+		double side = offset >= 0 ? 1 : -1;
+		double gap = side*offset - radius; double rate = -side*(normalX*ux + normalY*uy);
+
+		double best = Double.NaN;
+		if (rate > 0){
+			double s = Math.max(gap, 0) / rate;
+			double along = tangentX*(x + ux*s - wall.x1) + tangentY*(y + uy*s - wall.y1);
+			if (s <= maxDist && along >= 0 && along <= wall.length){best = s;}
+		}
+
+		// the endpoints
+		double limit = Double.isNaN(best) ? maxDist : best;
+		double s = rayCircle(x, y, ux, uy, wall.x1, wall.y1, radius, limit);
+		if (!Double.isNaN(s)){best = s; limit = s;}
+		s = rayCircle(x, y, ux, uy, wall.x2, wall.y2, radius, limit);
+		if (!Double.isNaN(s)){best = s;}
+		return best;
+	}
+
+	/**
+	 * Builds the polynomial |a(t) - b(t)|^2 - r^2 for two trajectories a and b.
+	 * This is <= 0 whenever the two points are within r of each other.
+	 * Passing null for b treats it as the origin, so this also works against a fixed point by shifting a beforehand.
+	 *
+	 * @param   a the first trajectory, as written by trajectory()
+	 * @param   b the second trajectory, or null
+	 * @param   r the distance being checked against
+	 * @param out the array the 5 coefficients get written into
+	 */
+	public static void separation(double[] a, double[] b, double r, double[] out){
+		double dx0 = a[0], dx1 = a[1], dx2 = a[2];
+		double dy0 = a[3], dy1 = a[4], dy2 = a[5];
+		if (b != null){
+			dx0 -= b[0]; dx1 -= b[1]; dx2 -= b[2];
+			dy0 -= b[3]; dy1 -= b[4]; dy2 -= b[5];
+		}
+
+		out[0] = dx0*dx0 + dy0*dy0 - r*r;
+		out[1] = 2*(dx0*dx1 + dy0*dy1);
+		out[2] = dx1*dx1 + dy1*dy1 + 2*(dx0*dx2 + dy0*dy2);
+		out[3] = 2*(dx1*dx2 + dy1*dy2);
+		out[4] = dx2*dx2 + dy2*dy2;
+	}
+
+	/**
+	 * Evaluates a polynomial at some t.
+	 *
+	 * @param p      the coefficients of the polynomial
+	 * @param degree the degree of the polynomial
+	 * @param t      where to evaluate it
+	 * @return       p(t)
+	 */
+	public static double evaluate(double[] p, int degree, double t){
+		double result = 0;
+		for (int i = degree; i >= 0; i--){
+			result = result*t + p[i];
+		}
+		return result;
+	}
+
+	/**
+	 * Evaluates the derivative of a polynomial at some t.
+	 *
+	 * @param p      the coefficients of the polynomial
+	 * @param degree the degree of the polynomial
+	 * @param t      where to evaluate the derivative
+	 * @return       p'(t)
+	 */
+	public static double derivative(double[] p, int degree, double t){
+		double result = 0;
+		for (int i = degree; i >= 1; i--){
+			result = result*t + i*p[i];
+		}
+		return result;
+	}
+
+	/**
+	 * Finds the first time in [lo, hi] where a polynomial crosses from above 0 to 0 or below, i.e. the moment two things start touching.
+	 * If the polynomial is already at or below 0 at lo and still decreasing (things are overlapping and getting closer), lo is returned.
+	 * Grazing contacts (where the polynomial just touches 0 without crossing it) aren't counted.
+	 *
+	 * @param p      the coefficients of the polynomial (degree 4 at most)
+	 * @param degree the degree of the polynomial
+	 * @param lo     the start of the interval being searched
+	 * @param hi     the end of the interval being searched
+	 * @param work   scratch space
+	 * @return       the time of the first crossing, or NaN if there isn't one
+	 */
+	public static double firstCrossing(double[] p, int degree, double lo, double hi, Workspace work){
+		if (!(hi >= lo)){return Double.NaN;}
+
+		double fa = evaluate(p, degree, lo);
+		if (fa <= 0 && derivative(p, degree, lo) < 0){return lo;}
+
+		// split [lo, hi] up at the roots of the derivative so the polynomial is monotonic on each piece,
+		// then the first piece that goes from positive to non-positive has our crossing in it
+		double[] critical = work.critical[degree];
+		int n = 0;
+		if (degree >= 2){
+			double[] dp = work.derivative[degree];
+			for (int i = 1; i <= degree; i++){dp[i-1] = i*p[i];}
+			n = roots(dp, degree-1, lo, hi, critical, work);
+		}
+
+		double a = lo;
+		for (int i = 0; i <= n; i++){
+			double b = (i < n) ? critical[i] : hi;
+			double fb = evaluate(p, degree, b);
+			if (fa > 0 && fb <= 0){return bisect(p, degree, a, b);}
+			a = b; fa = fb;
+		}
+		return Double.NaN;
+	}
+
+	/**
+	 * Finds every root of a polynomial within [lo, hi] and writes them into out in ascending order.
+	 * Works by recursively finding the roots of the derivative first, which splits the interval into monotonic pieces.
+	 *
+	 * @return the number of roots written into out
+	 */
+	private static int roots(double[] p, int degree, double lo, double hi, double[] out, Workspace work){
+		// trim off leading zero coefficients so we don't divide by zero below
+		while (degree > 0 && p[degree] == 0){degree--;}
+		if (degree == 0){return 0;}
+		if (degree == 1){
+			double t = -p[0]/p[1];
+			if (t >= lo && t <= hi){out[0] = t; return 1;}
+			return 0;
+		}
+
+		double[] critical = work.critical[degree];
+		double[] dp = work.derivative[degree];
+		for (int i = 1; i <= degree; i++){dp[i-1] = i*p[i];}
+		int n = roots(dp, degree-1, lo, hi, critical, work);
+
+		int count = 0;
+		double a = lo; double fa = evaluate(p, degree, lo);
+		for (int i = 0; i <= n; i++){
+			double b = (i < n) ? critical[i] : hi;
+			double fb = evaluate(p, degree, b);
+			if (fa == 0){
+				if (count == 0 || out[count-1] != a){out[count++] = a;}
+			}
+			else if ((fa < 0) != (fb < 0) && fb != 0){
+				out[count++] = bisect(p, degree, a, b);
+			}
+			a = b; fa = fb;
+		}
+		if (fa == 0 && (count == 0 || out[count-1] != a)){out[count++] = a;}
+		return count;
+	}
+
+	/**
+	 * Narrows down the root of a polynomial that's monotonic on [a, b] and changes sign across it.
+	 * Returns the end of the final interval that's at or past the root, so things are guaranteed to be touching at the result.
+	 */
+	private static double bisect(double[] p, int degree, double a, double b){
+		double fa = evaluate(p, degree, a);
+		for (int i = 0; i < BISECTIONS && a < b; i++){
+			double m = (a + b)/2;
+			if (m <= a || m >= b){break;}
+			double fm = evaluate(p, degree, m);
+			if ((fm < 0) == (fa < 0) && fm != 0){a = m; fa = fm;}
+			else {b = m;}
+		}
+		return b;
+	}
+}
@@ -0,0 +1,174 @@
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.List;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Keeps track of where frame time goes: how long each simulated frame took (see SimulationEngine.step()),
+ * how long each frame took to draw, and how long frames stayed on screen, along with how much work the physics did along the way.
+ *
+ * Latencies are kept over a rolling window of the last WINDOW samples, so the percentiles follow what the table's doing right now
+ * rather than averaging over the whole session. Comparing how much of its budget the simulation and the renderer each use
+ * (see getSimLoad() and getRenderLoad()) tells you which one's holding things up.
+ *
+ * Everything can be read from any thread. Every SimulationEngine has one of these (see SimulationEngine.getMetrics()),
+ * and register() puts it up on the platform MBean server so it can be watched live with jconsole or any other JMX client.
+ */
+public class PerformanceMetrics implements PerformanceMetricsMBean {
+	public static final int WINDOW = 600; // samples kept for each latency; 10 seconds worth of frames at 60fps
+
+	/**
+	 * The last WINDOW samples of some latency, in nanoseconds. Recording a sample and reading a percentile don't allocate anything.
+	 */
+	public static class Window {
+		private final long[] samples = new long[WINDOW];
+		private final long[] sorted = new long[WINDOW]; // scratch space for percentile()
+		private int count, next;
+
+		/**
+		 * Adds a sample, pushing out the oldest one if the window's full.
+		 *
+		 * @param nanos the latency being recorded, in nanoseconds
+		 */
+		public synchronized void record(long nanos){
+			this.samples[this.next] = nanos;
+			this.next = (this.next + 1) % WINDOW;
+			this.count = Math.min(this.count + 1, WINDOW);
+		}
+
+		/**
+		 * Gets the latency some fraction of the samples in the window are at or under.
+		 *
+		 * @param p the fraction of samples, from 0 to 1 (e.g. 0.99 for p99, or 1 for the max)
+		 * @return  the latency in nanoseconds, or 0 if nothing's been recorded yet
+		 */
+		public synchronized long percentile(double p){
+			if (this.count == 0){return 0;}
+			System.arraycopy(this.samples, 0, this.sorted, 0, this.count);
+			Arrays.sort(this.sorted, 0, this.count);
+			int i = (int)Math.ceil(p*this.count) - 1;
+			return this.sorted[Math.max(0, Math.min(this.count - 1, i))];
+		}
+
+		public synchronized void clear(){
+			this.count = 0; this.next = 0;
+		}
+
+		/**
+		 * Gets the latency some fraction of the samples in several windows are at or under, as if they'd all been recorded into one.
+		 * Lets each thread record into a window of its own (so they never wait on each other) and still report on all of them together.
+		 *
+		 * @param       p the fraction of samples, from 0 to 1 (e.g. 0.99 for p99, or 1 for the max)
+		 * @param windows the windows to merge
+		 * @return        the latency in nanoseconds, or 0 if nothing's been recorded yet
+		 */
+		public static long percentile(double p, List<Window> windows){
+			long[] merged = new long[windows.size()*WINDOW]; int count = 0;
+			for (Window window : windows){
+				synchronized (window){
+					System.arraycopy(window.samples, 0, merged, count, window.count);
+					count += window.count;
+				}
+			}
+			if (count == 0){return 0;}
+			Arrays.sort(merged, 0, count);
+			int i = (int)Math.ceil(p*count) - 1;
+			return merged[Math.max(0, Math.min(count - 1, i))];
+		}
+	}
+
+	public final Window frame = new Window();  // time between frames shown on screen
+	public final Window sim = new Window();    // time spent simulating one frame
+	public final Window render = new Window(); // time spent drawing one frame
+
+	private long frames, substeps, narrowPhaseTests, collisionsResolved, castIterations;
+
+	/**
+	 * Records one simulated frame, and moves the work counters the table's been keeping over into the totals here (zeroing them on the table).
+	 * Should be called by whichever thread is simulating the table.
+	 *
+	 * @param nanos how long the frame took to simulate, in nanoseconds
+	 * @param table the table that was simulated
+	 */
+	public void recordStep(long nanos, TableState table){
+		this.sim.record(nanos);
+		synchronized (this){
+			this.frames++;
+			this.substeps += table.substeps; this.narrowPhaseTests += table.narrowPhaseTests;
+			this.collisionsResolved += table.collisionsResolved; this.castIterations += table.castIterations;
+		}
+		table.substeps = 0; table.narrowPhaseTests = 0; table.collisionsResolved = 0; table.castIterations = 0;
+	}
+
+	/**
+	 * Adds on the castBall() work some table did outside of the simulation (e.g. the shot preview, on a renderer's own copy of the game),
+	 * and zeroes it on the table.
+	 *
+	 * @param table the table castBall() was called on
+	 */
+	public void recordCasts(TableState table){
+		synchronized (this){this.castIterations += table.castIterations;}
+		table.castIterations = 0;
+	}
+
+	/**
+	 * Registers these metrics with the platform MBean server, replacing anything that was already registered under the same name.
+	 *
+	 * @param name what to call them, for telling tables apart (ends up as poolgame:type=PerformanceMetrics,name=...)
+	 */
+	public void register(String name) throws JMException {
+		ObjectName objectName = new ObjectName("poolgame:type=PerformanceMetrics,name=" + ObjectName.quote(name));
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		if (server.isRegistered(objectName)){server.unregisterMBean(objectName);}
+		server.registerMBean(this, objectName);
+	}
+
+	private static double micros(long nanos){
+		return nanos/1e3;
+	}
+
+	@Override public double getFrameP50Micros(){return micros(this.frame.percentile(0.50));}
+	@Override public double getFrameP99Micros(){return micros(this.frame.percentile(0.99));}
+	@Override public double getFrameMaxMicros(){return micros(this.frame.percentile(1));}
+
+	@Override public double getSimP50Micros(){return micros(this.sim.percentile(0.50));}
+	@Override public double getSimP99Micros(){return micros(this.sim.percentile(0.99));}
+	@Override public double getSimMaxMicros(){return micros(this.sim.percentile(1));}
+
+	@Override public double getRenderP50Micros(){return micros(this.render.percentile(0.50));}
+	@Override public double getRenderP99Micros(){return micros(this.render.percentile(0.99));}
+	@Override public double getRenderMaxMicros(){return micros(this.render.percentile(1));}
+
+	@Override
+	public double getSimLoad(){
+		return this.sim.percentile(0.99) / (SimulationEngine.FRAME_TIME * 1e9);
+	}
+
+	@Override
+	public double getRenderLoad(){
+		// nothing's being shown (headless, or the window's not up yet), so there's no budget to compare against
+		long budget = this.frame.percentile(0.50);
+		return (budget > 0) ? (double)this.render.percentile(0.99) / budget : 0;
+	}
+
+	@Override
+	public String getBottleneck(){
+		return (this.getSimLoad() >= this.getRenderLoad()) ? "simulation" : "rendering";
+	}
+
+	@Override public synchronized long getFrames(){return this.frames;}
+	@Override public synchronized long getSubsteps(){return this.substeps;}
+	@Override public synchronized long getNarrowPhaseTests(){return this.narrowPhaseTests;}
+	@Override public synchronized long getCollisionsResolved(){return this.collisionsResolved;}
+	@Override public synchronized long getCastIterations(){return this.castIterations;}
+
+	@Override
+	public void reset(){
+		this.frame.clear(); this.sim.clear(); this.render.clear();
+		synchronized (this){
+			this.frames = 0; this.substeps = 0; this.narrowPhaseTests = 0; this.collisionsResolved = 0; this.castIterations = 0;
+		}
+	}
+}
@@ -0,0 +1,29 @@
+/**
+ * What PerformanceMetrics exposes over JMX (e.g. to jconsole, under poolgame:type=PerformanceMetrics).
+ * Every latency is over the last PerformanceMetrics.WINDOW samples, in microseconds.
+ */
+public interface PerformanceMetricsMBean {
+	double getFrameP50Micros();  // time between frames being shown on screen
+	double getFrameP99Micros();
+	double getFrameMaxMicros();
+
+	double getSimP50Micros();    // time spent in SimulationEngine.step()
+	double getSimP99Micros();
+	double getSimMaxMicros();
+
+	double getRenderP50Micros(); // time spent in GameState.draw() and the previews drawn over it
+	double getRenderP99Micros();
+	double getRenderMaxMicros();
+
+	double getSimLoad();         // p99 sim time as a fraction of SimulationEngine.FRAME_TIME
+	double getRenderLoad();      // p99 render time as a fraction of the p50 frame time
+	String getBottleneck();      // "simulation" or "rendering", whichever load is higher
+
+	long getFrames();            // frames simulated
+	long getSubsteps();          // calls to TableState.moveTime()
+	long getNarrowPhaseTests();  // ball/ball, ball/wall and ball/pocket checks
+	long getCollisionsResolved();
+	long getCastIterations();    // balls, walls and pockets looked at by TableState.castBall()
+
+	void reset();
+}
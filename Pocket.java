@@ -38,14 +38,27 @@ public class Pocket {
 	 * @return  true if the ball's position is inside the pocket
 	 */
 	public boolean ballInPocket(Ball b){
-		if (b.radius > this.radius) { // if the ball's too big, it can't fit in the pocket
+		return this.ballInPocket(b.getXPos(), b.getYPos(), b.radius);
+	}
+
+	/**
+	 * Determines whether a ball at some position with some radius resides within the pocket.
+	 * Same as ballInPocket(Ball), but doesn't need a Ball object.
+	 * 
+	 * @param   xPos the x coordinate of the ball's center
+	 * @param   yPos the y coordinate of the ball's center
+	 * @param radius the radius of the ball
+	 * @return       true if the ball's position is inside the pocket
+	 */
+	public boolean ballInPocket(double xPos, double yPos, double radius){
+		if (radius > this.radius) { // if the ball's too big, it can't fit in the pocket
 			return false;
 		}
 		else {
-			double distance = this.distanceFromPocket(b.xPos, b.yPos);
+			double distance = this.distanceFromPocket(xPos, yPos);
 			distance -= this.radius;
 
-			if (distance < b.radius * (1 - 2*0.6)){
+			if (distance < radius * (1 - 2*0.6)){
 				return true;
 			}
 			return false;
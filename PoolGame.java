@@ -1,5 +1,9 @@
 import java.awt.*;
 import java.awt.event.*;
+import java.awt.image.BufferStrategy;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
+import javax.management.JMException;
 
 public class PoolGame extends Frame {
 	public static void main(String[] args) {new PoolGame();}
@@ -17,62 +21,55 @@ public class PoolGame extends Frame {
 
 class PoolCanvas extends Canvas implements Runnable{
 	int w, h;
-	long lastFrame;
-	GameState game; 
+	SimulationEngine engine;
+	FrameBuffer frames; // where the engine publishes finished frames; replaced whenever the game gets reset
+	GameState game;     // this thread's own copy of the game, rewound to the latest frame every time we draw
 	BallController cueBallController;
 	double scale, xOffset, yOffset;
+	final double[] shotVelocity = new double[2]; // where BallController.getShotSpeed() writes the shot being lined up, so aiming doesn't allocate
+	long refreshNanos; // how long each frame stays on the display for
+	final ConcurrentLinkedQueue<InputEvent> input = new ConcurrentLinkedQueue<>(); // mouse and key events waiting for the render thread
+	PerformanceMetrics metrics;
+	ShotPreview preview; // works out the shot preview on its own thread, so dragging the mouse around never holds up a frame (-Dpoolgame.preview.budget=<us a frame>)
+	boolean showHud; // toggled with F3, or on from the start with -Dpoolgame.hud=true
+	String[] hudLines = new String[0]; long hudUpdated; // the overlay's text only gets rebuilt every HUD_INTERVAL, so it's readable (and cheap)
+	static final long HUD_INTERVAL = 500000000L;
+	static final Color HUD_BACKGROUND = new Color(0, 0, 0), HUD_TEXT = new Color(255, 255, 255);
+	static final Font HUD_FONT = new Font(Font.MONOSPACED, Font.PLAIN, 12);
 
 	PoolCanvas() {
-		lastFrame = System.currentTimeMillis();
-		game = new GameState();
-		cueBallController = new BallController(game.table.getCueBall());
-
-		Thread u = new Thread(this); u.start();
+		// physics runs on the engine's own thread, and hands finished frames over to this one through a FrameBuffer
+		this(new SimulationEngine(new GameState()));
+		try {
+			metrics.register("PoolGame");
+		}
+		catch (JMException e) {} // the metrics are still there for the overlay, just not over JMX
+		engine.start(); preview.start();
+		setIgnoreRepaint(true); // everything's drawn by run(), so there's no need for AWT to paint us too
+		Thread u = new Thread(this, "PoolCanvas"); u.setDaemon(true); u.start();
 
+		// game and cueBallController belong to the render thread, so the listeners just queue events up for it (see handleInput())
 		addMouseListener(new MouseAdapter() {
-			public void mousePressed(MouseEvent e) {
-				if (e.getButton() == MouseEvent.BUTTON1 && !game.table.moving) { // Left button
-					cueBallController.pressMouse(e.getX(), e.getY());
-					cueBallController.holdMouse(e.getX(), e.getY());
-
-					// place the ball down if we can and we're in placing mode
-					if (cueBallController.mode == BallController.MODE_PLACING && cueBallController.canPlace){
-						cueBallController.placeBall(scale, xOffset, yOffset);
-						cueBallController.resetMouse();
-						cueBallController.mode = BallController.MODE_NONE; game.foul = false;
-					}
-					else {
-						// if the ball's sunk, we're placing it to get it out of the pocket. otherwise, we're gonna shoot it
-						cueBallController.mode = game.foul ? BallController.MODE_PLACING : BallController.MODE_SHOOTING;
-					}
-				}
-				else if (e.getButton() == MouseEvent.BUTTON3) { // Right button
-					// reset the GameState on right mouse button click
-					game = new GameState();
-					cueBallController = new BallController(game.table.getCueBall());
-				}
-			}
-			public void mouseReleased(MouseEvent e){
-				if (e.getButton() == MouseEvent.BUTTON1) { // Left button
-					cueBallController.releaseMouse(e.getX(), e.getY());
-					if (cueBallController.mode == BallController.MODE_SHOOTING){
-						cueBallController.shootBall(scale);
-						cueBallController.resetMouse();
-						cueBallController.mode = BallController.MODE_NONE;
-					}
-				}
-			}
+			public void mousePressed(MouseEvent e) {input.add(e);}
+			public void mouseReleased(MouseEvent e) {input.add(e);}
 		});
-
 		addMouseMotionListener(new MouseMotionAdapter() {
-			public void mouseMoved(MouseEvent e) {
-				cueBallController.moveMouse(e.getX(), e.getY());
-			}
-
-			public void mouseDragged(MouseEvent e) {
-				cueBallController.holdMouse(e.getX(), e.getY());
-			}
+			public void mouseMoved(MouseEvent e) {input.add(e);}
+			public void mouseDragged(MouseEvent e) {input.add(e);}
 		});
+		addKeyListener(new KeyAdapter() {
+			public void keyPressed(KeyEvent e) {input.add(e);}
+		});
+	}
+
+	// sets the canvas up around an engine without starting anything (the engine, the preview's worker or this canvas's own thread)
+	// and without any listeners, so paint() can be driven by hand off screen (see RenderAllocations in the benchmarks)
+	PoolCanvas(SimulationEngine engine) {
+		this.engine = engine; frames = engine.getFrameBuffer();
+		game = new GameState(frames.template);
+		cueBallController = new BallController(game.table.getCueBall());
+		metrics = engine.getMetrics(); showHud = Boolean.getBoolean("poolgame.hud");
+		preview = new ShotPreview(metrics); preview.budget = Long.getLong("poolgame.preview.budget", ShotPreview.BUDGET/1000)*1000;
 	}
 
 	/**
@@ -85,64 +82,193 @@ class PoolCanvas extends Canvas implements Runnable{
 		yOffset = game.getYOffset(w, h);
 	}
 
-	// this refreshes the canvas at a given interval
-	// code taken from http://www.learntosolveit.com/java/AnimatedCanvas.html
+	/**
+	 * Applies every mouse and key event that's come in since the last frame.
+	 * Whether the balls are moving, whether there's been a foul, etc. all come from the latest frame,
+	 * which is never more than a frame behind the engine; shots and placements themselves go straight to the engine.
+	 */
+	private void handleInput() {
+		InputEvent e;
+		while ((e = input.poll()) != null){
+			if (e instanceof KeyEvent){
+				if (((KeyEvent)e).getKeyCode() == KeyEvent.VK_F3){showHud = !showHud; hudUpdated = 0;}
+				continue;
+			}
+			MouseEvent m = (MouseEvent)e;
+			switch (m.getID()){
+				case MouseEvent.MOUSE_PRESSED: mousePressed(m); break;
+				case MouseEvent.MOUSE_RELEASED: mouseReleased(m); break;
+				case MouseEvent.MOUSE_MOVED: cueBallController.moveMouse(m.getX(), m.getY()); break;
+				case MouseEvent.MOUSE_DRAGGED: cueBallController.holdMouse(m.getX(), m.getY()); break;
+			}
+		}
+	}
+
+	private void mousePressed(MouseEvent e) {
+		if (e.getButton() == MouseEvent.BUTTON1 && !game.table.moving) { // Left button
+			cueBallController.pressMouse(e.getX(), e.getY());
+			cueBallController.holdMouse(e.getX(), e.getY());
+
+			// place the ball down if we can and we're in placing mode
+			if (cueBallController.mode == BallController.MODE_PLACING && cueBallController.canPlace){
+				// goes through the engine so the placement ends up in the replay log (this also clears the foul)
+				engine.place((cueBallController.xPressed - xOffset)/scale, (cueBallController.yPressed - yOffset)/scale);
+				cueBallController.resetMouse();
+				cueBallController.mode = BallController.MODE_NONE;
+			}
+			else {
+				// if the ball's sunk, we're placing it to get it out of the pocket. otherwise, we're gonna shoot it
+				cueBallController.mode = game.foul ? BallController.MODE_PLACING : BallController.MODE_SHOOTING;
+			}
+		}
+		else if (e.getButton() == MouseEvent.BUTTON3) { // Right button
+			// reset the GameState on right mouse button click; the new game gets picked up once its frame buffer shows up in render()
+			engine.setGame(new GameState());
+		}
+	}
+
+	private void mouseReleased(MouseEvent e) {
+		if (e.getButton() == MouseEvent.BUTTON1) { // Left button
+			cueBallController.releaseMouse(e.getX(), e.getY());
+			if (cueBallController.mode == BallController.MODE_SHOOTING){
+				// same as cueBallController.shootBall(), except it goes through the engine so the shot ends up in the replay log
+				cueBallController.getShotSpeed(scale, cueBallController.xPressed, cueBallController.yPressed, cueBallController.xReleased, cueBallController.yReleased, shotVelocity);
+				engine.shoot(shotVelocity[0], shotVelocity[1]);
+				preview.cancel();
+				cueBallController.resetMouse();
+				cueBallController.mode = BallController.MODE_NONE;
+			}
+		}
+	}
+
+	// active rendering: rather than asking AWT to repaint() on a timer and drawing into a brand new image every time,
+	// this thread draws straight into the canvas's BufferStrategy once per display refresh
+	// the strategy keeps its back buffers around between frames, and only remakes them when the canvas gets resized or they get lost
+	// this thread runs on its own clock rather than the engine's, so the two never wait on each other (see FrameBuffer)
 	@Override
 	public void run() {
+		long next = System.nanoTime(); long last = 0;
 		while (true){
-			try {
-				Thread.sleep(16); // 16ms for ~60 fps
-			} 
-			catch (InterruptedException e) {}
-			repaint();
+			if (isDisplayable()){ // the strategy can only be made once we're actually on screen
+				if (refreshNanos == 0){refreshNanos = getRefreshNanos();}
+				long now = System.nanoTime();
+				if (last != 0){metrics.frame.record(now - last);}
+				last = now;
+				try {
+					render();
+				}
+				catch (IllegalStateException e) {} // the canvas came off screen partway through; just try again next frame
+			}
+
+			// sleep until the next refresh is due, unless we're already late for it
+			next += (refreshNanos > 0) ? refreshNanos : (long)(SimulationEngine.FRAME_TIME * 1e9);
+			long now = System.nanoTime();
+			if (next > now){LockSupport.parkNanos(next - now);}
+			else {next = now;}
 		}
 	}
 
-	// the flickering was really starting to irritate me, so i implemented a double buffer following the first code snippet here:
-	//     http://underpop.online.fr/j/java/help/getting-rid-of-flicker-and-tearing-d-graphics-and-animation-java.html.gz
-	// this shouldn't be too much of a detriment on performance, i hope
-	public void update(Graphics g){
-		w = getSize().width; h = getSize().height; calibrateScaling();
-		Image buffer = createImage(w, h);
-		Graphics bufferG = buffer.getGraphics();
+	// how long a frame stays up on whichever display we're on, going with the engine's frame rate if the display won't say
+	private long getRefreshNanos() {
+		GraphicsConfiguration config = getGraphicsConfiguration();
+		int rate = (config != null) ? config.getDevice().getDisplayMode().getRefreshRate() : DisplayMode.REFRESH_RATE_UNKNOWN;
+		return (rate != DisplayMode.REFRESH_RATE_UNKNOWN) ? 1000000000L/rate : (long)(SimulationEngine.FRAME_TIME * 1e9);
+	}
 
-		if (bufferG != null){
-			paint(bufferG); // paint onto the buffer first
-			bufferG.dispose(); // get rid of the graphics object to avoid memory issues 
-			g.drawImage(buffer, 0, 0, null); // then copy the buffer onto our canvas
+	private void render() {
+		// the game was reset, so start over from a copy of the new one
+		FrameBuffer latest = engine.getFrameBuffer();
+		if (latest != frames){
+			frames = latest; game = new GameState(frames.template);
+			cueBallController = new BallController(game.table.getCueBall());
 		}
-		else{
-			paint(g); // if the buffer doesn't exist for whatever reason, just paint on the canvas directly
+
+		// the frame in the buffer is already finished, so draw the balls somewhere between it and the one before,
+		// depending on how long it's been since it came out; this keeps them moving smoothly even when the display and the engine run at different rates
+		FrameBuffer.Frame frame = frames.latest();
+		double factor = (System.nanoTime() - frame.time) / (SimulationEngine.FRAME_TIME * 1e9);
+		frame.restore(game, Math.max(0, Math.min(1, factor)));
+
+		w = getSize().width; h = getSize().height; calibrateScaling();
+		handleInput();
+
+		BufferStrategy strategy = getBufferStrategy();
+		if (strategy == null){
+			createBufferStrategy(2);
+			strategy = getBufferStrategy();
 		}
+
+		// the back buffer can get lost (e.g. by the OS reclaiming video memory) at any point, so keep redrawing until a frame makes it
+		do {
+			do {
+				Graphics g = strategy.getDrawGraphics();
+				try {
+					g.setColor(getBackground()); g.fillRect(0, 0, getWidth(), getHeight());
+					paint(g);
+				}
+				finally {
+					g.dispose();
+				}
+			} while (strategy.contentsRestored());
+			strategy.show();
+		} while (strategy.contentsLost());
+		Toolkit.getDefaultToolkit().sync(); // some window systems buffer up drawing; this makes sure the frame shows up now
 	}
 
+	// only ever called from render(), on this canvas's own thread, so nothing here needs to hold the engine's lock
 	public void paint(Graphics g) {
-		w = getSize().width; h = getSize().height; calibrateScaling();
-
 		// turn the Graphics object into a Graphics2D object, then apply anti-aliasing to it
 		Graphics2D g2d = (Graphics2D)g;
-		RenderingHints rh = new RenderingHints(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
-		g2d.setRenderingHints(rh);
-
-		// figure out how long its been between now and the last frame
-		long currentFrame = System.currentTimeMillis();
-		double t = (double)(currentFrame - lastFrame)/1000.0;
-		lastFrame = System.currentTimeMillis();
+		// (setting the one hint directly, rather than through a RenderingHints map, doesn't allocate anything)
+		g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
 
-		// move the balls, then draw them
-		for (int i = 0; i < 10; i++){
-			game.moveTime(t/10.0);
-		}
+		// the balls are moved by the engine, so all that's left here is to draw them
+		long start = System.nanoTime();
 		game.draw(g2d, w, h);
 
 		if (cueBallController.mode == BallController.MODE_SHOOTING){
 			// gets velocity of ball assuming you released the mouse right now
-			double[] vel = cueBallController.getShotSpeed(scale, cueBallController.xPressed, cueBallController.yPressed, cueBallController.xHeld, cueBallController.yHeld);
-			double xVel = vel[0]; double yVel = vel[1];
-			game.drawShotPreview(g2d, w, h, xVel, yVel);
+			cueBallController.getShotSpeed(scale, cueBallController.xPressed, cueBallController.yPressed, cueBallController.xHeld, cueBallController.yHeld, shotVelocity);
+			double xVel = shotVelocity[0]; double yVel = shotVelocity[1];
+			// the velocity vector's drawn for where the mouse is now, and the collision point for the last shot the worker got through
+			preview.request(frames.template, game, xVel, yVel);
+			game.drawShotPreview(g2d, w, h, xVel, yVel, preview.latest());
 		}
 		else if (cueBallController.mode == BallController.MODE_PLACING){
 			cueBallController.canPlace = game.drawPlacePreview(g2d, w, h, cueBallController.xMoved, cueBallController.yMoved);
 		}
+		metrics.render.record(System.nanoTime() - start); metrics.recordCasts(game.table);
+
+		if (showHud){drawHud(g2d);}
+	}
+
+	/**
+	 * Draws the performance overlay in the top left corner: frame, simulation and render times over the last few seconds,
+	 * and which of the simulation and the renderer is closer to running out of time (see PerformanceMetrics).
+	 */
+	private void drawHud(Graphics2D g) {
+		long now = System.nanoTime();
+		if (now - hudUpdated >= HUD_INTERVAL){
+			hudUpdated = now;
+			hudLines = new String[]{
+				String.format("frame  p50 %6.2fms  p99 %6.2fms  max %6.2fms", metrics.getFrameP50Micros()/1e3, metrics.getFrameP99Micros()/1e3, metrics.getFrameMaxMicros()/1e3),
+				String.format("sim    p50 %6.2fms  p99 %6.2fms  max %6.2fms", metrics.getSimP50Micros()/1e3, metrics.getSimP99Micros()/1e3, metrics.getSimMaxMicros()/1e3),
+				String.format("render p50 %6.2fms  p99 %6.2fms  max %6.2fms", metrics.getRenderP50Micros()/1e3, metrics.getRenderP99Micros()/1e3, metrics.getRenderMaxMicros()/1e3),
+				String.format("load   sim %3.0f%%  render %3.0f%%  (%s bound)", metrics.getSimLoad()*100, metrics.getRenderLoad()*100, metrics.getBottleneck()),
+				String.format("totals %d substeps, %d tests, %d collisions, %d casts", metrics.getSubsteps(), metrics.getNarrowPhaseTests(), metrics.getCollisionsResolved(), metrics.getCastIterations()),
+				String.format("preview p50 %5.2fms  p99 %5.2fms  %d done, %d skipped, %d cached, %d partial", preview.times.percentile(0.5)/1e6, preview.times.percentile(0.99)/1e6, preview.getComputed(), preview.getSkipped(), preview.getCached(), preview.getPartial()),
+			};
+		}
+
+		Font font = g.getFont(); g.setFont(HUD_FONT);
+		FontMetrics fm = g.getFontMetrics();
+		int width = 0;
+		for (String line : hudLines){width = Math.max(width, fm.stringWidth(line));}
+		g.setColor(HUD_BACKGROUND); g.fillRect(4, 4, width + 12, hudLines.length*fm.getHeight() + 8);
+		g.setColor(HUD_TEXT);
+		for (int i = 0; i < hudLines.length; i++){
+			g.drawString(hudLines[i], 10, 8 + fm.getAscent() + i*fm.getHeight());
+		}
+		g.setFont(font);
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,217 @@
+import java.io.*;
+import java.util.*;
+
+/**
+ * A record of everything a player did during a game, which is enough to play the whole game back exactly.
+ * The simulation doesn't depend on the wall clock or on any randomness other than the rack's seed,
+ * so a GameState created from the same seed that gets the same shots and placements on the same frames ends up bit-for-bit identical.
+ *
+ * SimulationEngine keeps one of these for the game it's running (see SimulationEngine.getLog()).
+ * Logs can be written out to and read back from a simple line-based text format, one entry per line:
+ *     seed <seed>
+ *     mode <TableState.simulationMode>
+ *     substeps <accuracy> <max substeps>     (see SimulationEngine.setStepping())
+ *     shot <frame> <xVel> <yVel>
+ *     place <frame> <xPos> <yPos>
+ *     end <frame> [<hash>]
+ */
+public class ReplayLog {
+	public static final int INPUT_SHOT = 0;  // the cue ball was fired at (x, y) velocity
+	public static final int INPUT_PLACE = 1; // the cue ball was placed at (x, y)
+
+	/**
+	 * Something the player did, and the frame they did it on (i.e. how many frames had been simulated beforehand).
+	 */
+	public static class Input {
+		public final long frame;
+		public final int type;
+		public final double x, y;
+
+		public Input(long frame, int type, double x, double y){
+			this.frame = frame; this.type = type;
+			this.x = x; this.y = y;
+		}
+	}
+
+	public final long seed;
+	public final int simulationMode;
+	public final double stepAccuracy; public final int maxSubsteps;
+	private final ArrayList<Input> inputs;
+	private long frames;      // how many frames the recorded game ran for
+	private String hash;      // the hash of the game on its last frame, if it was recorded (see hash())
+
+	/**
+	 * Creates an empty log for a game.
+	 *
+	 * @param           seed the seed the game's rack was generated from (see GameState(long))
+	 * @param simulationMode the simulation mode the game's table used (see TableState.MODE_FIXED_STEP)
+	 */
+	public ReplayLog(long seed, int simulationMode){
+		this(seed, simulationMode, SimulationEngine.STEP_ACCURACY, SimulationEngine.MAX_SUBSTEPS);
+	}
+
+	/**
+	 * Creates an empty log for a game that was simulated with something other than the default stepping settings.
+	 *
+	 * @param           seed the seed the game's rack was generated from (see GameState(long))
+	 * @param simulationMode the simulation mode the game's table used (see TableState.MODE_FIXED_STEP)
+	 * @param   stepAccuracy how finely the game's frames were split up (see SimulationEngine.setStepping())
+	 * @param    maxSubsteps the most substeps any frame was split into
+	 */
+	public ReplayLog(long seed, int simulationMode, double stepAccuracy, int maxSubsteps){
+		this.seed = seed; this.simulationMode = simulationMode;
+		this.stepAccuracy = stepAccuracy; this.maxSubsteps = maxSubsteps;
+		this.inputs = new ArrayList<Input>();
+		this.frames = 0;
+	}
+
+	/**
+	 * Adds an input onto the end of the log. Inputs have to be added in the order they happened.
+	 *
+	 * @param input the input being added
+	 */
+	public void add(Input input){
+		if (!this.inputs.isEmpty() && input.frame < this.inputs.get(this.inputs.size()-1).frame){
+			throw new IllegalArgumentException("Input on frame " + input.frame + " came after an input on a later frame.");
+		}
+		this.inputs.add(input);
+		this.frames = Math.max(this.frames, input.frame);
+	}
+
+	public int getInputCount(){return this.inputs.size();}
+	public Input getInput(int i){return this.inputs.get(i);}
+	public long getFrames(){return this.frames;}
+	public String getHash(){return this.hash;}
+
+	/**
+	 * Marks how far the recorded game went, and what it looked like at that point.
+	 *
+	 * @param frames the number of frames the game ran for
+	 * @param   hash the hash of the game on its last frame (see hash()), or null if it isn't known
+	 */
+	public void end(long frames, String hash){
+		this.frames = frames; this.hash = hash;
+	}
+
+	/**
+	 * Plays the logged game back as fast as possible, without a display.
+	 *
+	 * @return the engine the game was played back on, stopped on the same frame the recorded game ended on
+	 */
+	public SimulationEngine replay(){
+		GameState game = new GameState(this.seed);
+		game.table.simulationMode = this.simulationMode;
+		SimulationEngine engine = new SimulationEngine(game);
+		engine.setStepping(this.stepAccuracy, this.maxSubsteps);
+
+		for (int i = 0; i < this.inputs.size(); i++){
+			Input input = this.inputs.get(i);
+			while (engine.getFrames() < input.frame){engine.step();}
+			if (input.type == INPUT_SHOT){engine.shoot(input.x, input.y);}
+			else {engine.place(input.x, input.y);}
+		}
+		while (engine.getFrames() < this.frames){engine.step();}
+		return engine;
+	}
+
+	/**
+	 * Boils the state of a game (every ball's position, velocity and sunk state, along with turn, groups and fouls)
+	 * down into a short string. Two games with the same hash are, for all intents and purposes, identical.
+	 *
+	 * @param game the game being hashed
+	 * @return     the hash as a hexadecimal string
+	 */
+	public static String hash(GameState game){
+		long h = 1125899906842597L;
+		for (int i = 0; i < game.table.getBallCount(); i++){
+			Ball ball = game.table.getBall(i);
+			h = 31*h + Double.doubleToLongBits(ball.getXPos()); h = 31*h + Double.doubleToLongBits(ball.getYPos());
+			h = 31*h + Double.doubleToLongBits(ball.getXVel()); h = 31*h + Double.doubleToLongBits(ball.getYVel());
+			h = 31*h + (ball.isSunk() ? 1 : 0);
+		}
+		h = 31*h + game.turn; h = 31*h + game.groups[0]; h = 31*h + game.groups[1];
+		h = 31*h + (game.foul ? 1 : 0);
+		return Long.toHexString(h);
+	}
+
+	/**
+	 * Writes the log out in the text format described above.
+	 *
+	 * @param out where the log is written to
+	 */
+	public void write(Writer out) throws IOException {
+		PrintWriter writer = new PrintWriter(out);
+		writer.println("seed " + this.seed);
+		writer.println("mode " + this.simulationMode);
+		writer.println("substeps " + this.stepAccuracy + " " + this.maxSubsteps);
+		for (int i = 0; i < this.inputs.size(); i++){
+			Input input = this.inputs.get(i);
+			// Double.toString() always gives back the exact same double when it's parsed again, so nothing is lost here
+			writer.println((input.type == INPUT_SHOT ? "shot " : "place ") + input.frame + " " + input.x + " " + input.y);
+		}
+		writer.println("end " + this.frames + (this.hash != null ? " " + this.hash : ""));
+		writer.flush();
+	}
+
+	/**
+	 * Reads a log back in from the text format described above.
+	 *
+	 * @param in where the log is read from
+	 * @return   the log that was read
+	 */
+	public static ReplayLog read(Reader in) throws IOException {
+		BufferedReader reader = new BufferedReader(in);
+		long seed = 0; int mode = TableState.MODE_FIXED_STEP;
+		double accuracy = SimulationEngine.STEP_ACCURACY; int maxSubsteps = SimulationEngine.MAX_SUBSTEPS;
+		ReplayLog log = null;
+
+		String line;
+		while ((line = reader.readLine()) != null){
+			String[] parts = line.trim().split("\\s+");
+			if (parts[0].isEmpty()){continue;}
+
+			switch (parts[0]){
+				case "seed": seed = Long.parseLong(parts[1]); break;
+				case "mode": mode = Integer.parseInt(parts[1]); break;
+				case "substeps": accuracy = Double.parseDouble(parts[1]); maxSubsteps = Integer.parseInt(parts[2]); break;
+				case "shot": case "place":
+					if (log == null){log = new ReplayLog(seed, mode, accuracy, maxSubsteps);}
+					int type = parts[0].equals("shot") ? INPUT_SHOT : INPUT_PLACE;
+					log.add(new Input(Long.parseLong(parts[1]), type, Double.parseDouble(parts[2]), Double.parseDouble(parts[3])));
+					break;
+				case "end":
+					if (log == null){log = new ReplayLog(seed, mode, accuracy, maxSubsteps);}
+					log.end(Long.parseLong(parts[1]), parts.length > 2 ? parts[2] : null);
+					break;
+				default:
+					throw new IOException("Unknown replay log entry: " + line);
+			}
+		}
+		return (log != null) ? log : new ReplayLog(seed, mode, accuracy, maxSubsteps);
+	}
+
+	/**
+	 * Replays every log passed in as an argument, and checks that each one ends up the same way it did when it was recorded.
+	 * Exits with a non-zero status if any of them don't.
+	 */
+	public static void main(String[] args) throws IOException {
+		System.setProperty("java.awt.headless", "true");
+		int mismatches = 0;
+
+		for (String file : args){
+			ReplayLog log;
+			try (Reader in = new FileReader(file)){log = ReplayLog.read(in);}
+
+			long start = System.nanoTime();
+			SimulationEngine engine = log.replay();
+			long elapsed = System.nanoTime() - start;
+
+			String hash = ReplayLog.hash(engine.getGame());
+			boolean matches = (log.getHash() == null || log.getHash().equals(hash));
+			if (!matches){mismatches++;}
+			System.out.println(file + ": " + engine.getFrames() + " frames in " + elapsed/1e6 + "ms, hash " + hash + (matches ? "" : " (expected " + log.getHash() + ")"));
+		}
+
+		if (mismatches > 0){System.exit(1);}
+	}
+}
@@ -0,0 +1,165 @@
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Remembers how shots turned out, so that playing the same shot from the same spot again is a lookup instead of a whole simulation.
+ * ShotSearch and ShotEstimator check it before every rollout, which pays off whenever the same table gets looked at more than once
+ * (searching the same position again, re-estimating the same shot, previews of a shot that's being lined up, etc.).
+ *
+ * Shots are looked up by a 64 bit key made out of two parts:
+ *   - a hash of the game (see hash()): every ball's position rounded to positionTolerance, which balls are sunk,
+ *     and the bits of GameState that decide how a shot gets scored (whose turn it is, the groups, the foul, the simulation mode)
+ *   - the cue ball's velocity, rounded to velocityTolerance
+ * So two tables that are within positionTolerance of each other count as the same table, and whichever one got simulated
+ * first decides how the shot turns out for both. Keep the tolerances well under the noise ShotEstimator and ShotSearch
+ * add to their shots, or the noisy rollouts will all come back as the same one.
+ *
+ * Only the last capacity shots are kept; the least recently used one gets thrown out to make room.
+ * Every method is synchronized, so one cache can be shared between all the threads doing rollouts.
+ */
+public class ShotCache {
+	public final int capacity;
+	public final double positionTolerance; // how far apart, in table units, two positions can be and still count as the same
+	public final double velocityTolerance; // same thing for the cue ball's velocity
+
+	private final LinkedHashMap<Long, GameSnapshot> entries;
+	private long hits, misses, evictions;
+
+	/**
+	 * Creates a cache that holds up to 4096 shots, with positions rounded to 1/100 of a unit and velocities to 1/10 of a unit a second.
+	 */
+	public ShotCache(){
+		this(4096, 0.01, 0.1);
+	}
+
+	/**
+	 * Creates an empty cache.
+	 *
+	 * @param          capacity the most shots it holds at once
+	 * @param positionTolerance how far apart, in table units, two positions can be and still count as the same
+	 * @param velocityTolerance how far apart two velocities can be and still count as the same
+	 */
+	public ShotCache(int capacity, double positionTolerance, double velocityTolerance){
+		this.capacity = capacity;
+		this.positionTolerance = positionTolerance; this.velocityTolerance = velocityTolerance;
+		this.entries = new LinkedHashMap<Long, GameSnapshot>(16, 0.75f, true){ // (access order, so the eldest entry is the least recently used)
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Long, GameSnapshot> eldest){
+				if (this.size() <= ShotCache.this.capacity){return false;}
+				ShotCache.this.evictions++;
+				return true;
+			}
+		};
+	}
+
+	/**
+	 * Hashes a game, with its balls' positions rounded to some tolerance. Sunken balls only count as sunk, wherever they ended up.
+	 * Ball i of one game is only ever compared to ball i of another (along with its type), so only games with the same layout
+	 * of ball types can ever hash the same.
+	 *
+	 * @param      game the game being hashed; all its balls should be at rest
+	 * @param tolerance how far apart two positions can be and still (usually) hash the same. Positions are rounded to the nearest
+	 *                  multiple of it, so two positions right on either side of a halfway point won't
+	 * @return          the hash
+	 */
+	public static long hash(GameState game, double tolerance){
+		BallStore s = game.table.getBallStore();
+		long h = mix(0x9E3779B97F4A7C15L, s.size);
+		h = mix(h, game.turn); h = mix(h, game.groups[0]); h = mix(h, game.groups[1]);
+		h = mix(h, game.foul ? 1 : 0); h = mix(h, game.table.simulationMode);
+		for (int type = 0; type < 4; type++){h = mix(h, game.lastSunkByType[type]);}
+		for (int i = 0; i < s.size; i++){
+			h = mix(h, s.type[i]);
+			if (s.sunk[i]){h = mix(h, -1);}
+			else {h = mix(h, Math.round(s.xPos[i]/tolerance)); h = mix(h, Math.round(s.yPos[i]/tolerance));}
+		}
+		return finish(h);
+	}
+
+	// folds a value into a running hash
+	private static long mix(long h, long value){
+		h ^= value; h *= 0xBF58476D1CE4E5B9L;
+		return h ^ (h >>> 31);
+	}
+
+	// spreads the bits of a hash out one last time (splitmix64's finalizer)
+	private static long finish(long h){
+		h = (h ^ (h >>> 30)) * 0xBF58476D1CE4E5B9L;
+		h = (h ^ (h >>> 27)) * 0x94D049BB133111EBL;
+		return h ^ (h >>> 31);
+	}
+
+	/**
+	 * Hashes a game using this cache's positionTolerance (see hash(GameState, double)).
+	 *
+	 * @param game the game being hashed
+	 * @return     the hash, to pass on to key()
+	 */
+	public long hash(GameState game){
+		return ShotCache.hash(game, this.positionTolerance);
+	}
+
+	/**
+	 * Makes the key for a shot.
+	 *
+	 * @param state the hash of the game the shot's taken in (see hash())
+	 * @param  xVel the velocity the cue ball's shot at along the x axis
+	 * @param  yVel the velocity the cue ball's shot at along the y axis
+	 * @return      the key
+	 */
+	public long key(long state, double xVel, double yVel){
+		return finish(mix(mix(state, Math.round(xVel/this.velocityTolerance)), Math.round(yVel/this.velocityTolerance)));
+	}
+
+	/**
+	 * Looks up how a shot turned out.
+	 *
+	 * @param key the shot's key (see key())
+	 * @return    the game as it was once every ball stopped moving, or null if the shot isn't in the cache.
+	 *            Shared with anything else that looks the shot up, so it should only ever be restored from, never saved into
+	 */
+	public synchronized GameSnapshot get(long key){
+		GameSnapshot outcome = this.entries.get(key);
+		if (outcome == null){this.misses++;}
+		else {this.hits++;}
+		return outcome;
+	}
+
+	/**
+	 * Remembers how a shot turned out, throwing out the least recently used shot if the cache is full.
+	 *
+	 * @param     key the shot's key (see key())
+	 * @param outcome the game once every ball stopped moving; shouldn't be changed afterwards
+	 */
+	public synchronized void put(long key, GameSnapshot outcome){
+		this.entries.put(key, outcome);
+	}
+
+	/**
+	 * Throws out every shot (the counts stay as they are).
+	 */
+	public synchronized void clear(){
+		this.entries.clear();
+	}
+
+	public synchronized int getSize(){return this.entries.size();}
+	public synchronized long getHits(){return this.hits;}
+	public synchronized long getMisses(){return this.misses;}
+	public synchronized long getEvictions(){return this.evictions;}
+
+	/**
+	 * Gets the fraction of lookups that found the shot already in the cache.
+	 *
+	 * @return the hit rate, between 0 and 1 (0 if nothing's been looked up yet)
+	 */
+	public synchronized double getHitRate(){
+		long lookups = this.hits + this.misses;
+		return (lookups == 0) ? 0 : (double)this.hits / lookups;
+	}
+
+	@Override
+	public synchronized String toString(){
+		return String.format("%d/%d shots cached, %d hits, %d misses (%.1f%% hit rate), %d evicted",
+			this.entries.size(), this.capacity, this.hits, this.misses, 100*this.getHitRate(), this.evictions);
+	}
+}
@@ -0,0 +1,173 @@
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Estimates how a shot is likely to turn out by playing it out many times with a bit of noise added each time.
+ * The rollouts are spread out across every core with fork/join. Each worker thread makes one copy of the game
+ * (see GameState(GameState)) and rewinds it with GameState.restore() before every rollout, so playing a shot out doesn't
+ * allocate a whole new table each time. Nothing here touches AWT, so it can be used from bots and batch jobs as well as the UI.
+ *
+ * The noise model is a normal distribution on both the angle and the speed of the shot:
+ * the angle is off by angleNoise radians (one standard deviation), and the speed is off by a factor of speedNoise.
+ * Each rollout gets its own random seed derived from the estimator's seed and its index, so the results don't depend
+ * on how the rollouts happen to get split up between threads. That also means estimating the same shot again plays out
+ * the exact same rollouts, which the estimator's ShotCache turns into lookups.
+ */
+public class ShotEstimator {
+	public static final double MAX_TIME = 60;  // the most simulated time, in seconds, a rollout is allowed before it's cut off
+	public static final int ROLLOUTS_PER_TASK = 8; // how few rollouts a fork/join task needs before it stops splitting
+
+	public double angleNoise; // standard deviation of the shot's angle, in radians
+	public double speedNoise; // standard deviation of the shot's speed, as a fraction of the speed
+	public double cellSize;   // how wide and tall each cell in the cue ball heatmap is
+	public long seed;
+	public ShotCache cache;   // where rollouts get looked up before they're played out (null to always play them out)
+
+	private final ForkJoinPool pool;
+
+	/**
+	 * Creates an estimator that runs on the common fork/join pool with some default amount of noise.
+	 */
+	public ShotEstimator(){
+		this(ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * Creates an estimator that runs on a given fork/join pool with some default amount of noise.
+	 *
+	 * @param pool the pool that rollouts are run on
+	 */
+	public ShotEstimator(ForkJoinPool pool){
+		this.pool = pool;
+		this.angleNoise = 0.01; this.speedNoise = 0.03;
+		this.cellSize = 8;
+		this.seed = 0;
+		this.cache = new ShotCache();
+	}
+
+	/**
+	 * Plays a shot out a number of times and collects how each of those rollouts turned out.
+	 * The shot is taken from the game as it currently is, except that any foul is treated as already dealt with
+	 * (i.e. the cue ball's been placed already). The game passed in is never modified.
+	 *
+	 * @param     game the game the shot is being taken in. all its balls should be at rest
+	 * @param     xVel the intended velocity of the cue ball along the x axis (see BallController.getShotSpeed())
+	 * @param     yVel the intended velocity of the cue ball along the y axis
+	 * @param rollouts how many times to play the shot out
+	 * @return         the combined outcome of every rollout
+	 */
+	public ShotOutcome estimate(GameState game, double xVel, double yVel, int rollouts){
+		GameState start = new GameState(game); start.foul = false; // every rollout starts from this, so the caller can keep using game
+		return this.pool.invoke(new Rollouts(new Shot(start, xVel, yVel, this.cache), 0, rollouts));
+	}
+
+	/**
+	 * Plays a single rollout of a shot out to completion.
+	 *
+	 * @param shot the shot being taken
+	 * @param  rng where the noise comes from
+	 * @return     this thread's copy of the game, after the shot was taken and every ball stopped moving
+	 */
+	private GameState rollout(Shot shot, SplittableRandom rng){
+		double speed = Math.sqrt(shot.xVel*shot.xVel + shot.yVel*shot.yVel) * Math.max(0, 1 + this.speedNoise*rng.nextGaussian());
+		double angle = Math.atan2(shot.yVel, shot.xVel) + this.angleNoise*rng.nextGaussian();
+
+		double xVel = speed*Math.cos(angle); double yVel = speed*Math.sin(angle);
+
+		SimulationEngine engine = shot.engines.get();
+		GameState game = engine.getGame();
+		long key = 0;
+		if (shot.cache != null){
+			key = shot.cache.key(shot.state, xVel, yVel);
+			GameSnapshot outcome = shot.cache.get(key);
+			if (outcome != null){game.restore(outcome); return game;}
+		}
+		game.restore(shot.snapshot);
+		game.table.getCueBall().setVelocity(xVel, yVel);
+
+		long frames = engine.getFrames();
+		do {
+			engine.step();
+		} while (game.table.moving && (engine.getFrames() - frames)*SimulationEngine.FRAME_TIME < MAX_TIME);
+		if (shot.cache != null){shot.cache.put(key, new GameSnapshot(game));}
+		return game;
+	}
+
+	// everything the rollouts for one call to estimate() have in common
+	private static class Shot {
+		final GameState start; final GameSnapshot snapshot;
+		final double xVel, yVel;
+		final ShotCache cache; final long state; // the cache, and the hash of start to look rollouts up under
+		final ThreadLocal<SimulationEngine> engines; // each worker thread's own copy of the game, which gets rewound before every rollout
+
+		Shot(GameState start, double xVel, double yVel, ShotCache cache){
+			this.start = start; this.snapshot = new GameSnapshot(start);
+			this.xVel = xVel; this.yVel = yVel;
+			this.cache = cache; this.state = (cache != null) ? cache.hash(start) : 0;
+			this.engines = ThreadLocal.withInitial(() -> new SimulationEngine(new GameState(start)));
+		}
+	}
+
+	// splits a range of rollouts in half until there's few enough of them to just run one after the other
+	private class Rollouts extends RecursiveTask<ShotOutcome> {
+		private static final long serialVersionUID = 1L;
+		private final Shot shot;
+		private final int lo, hi;
+
+		Rollouts(Shot shot, int lo, int hi){
+			this.shot = shot;
+			this.lo = lo; this.hi = hi;
+		}
+
+		@Override
+		protected ShotOutcome compute(){
+			if (this.hi - this.lo <= ROLLOUTS_PER_TASK){
+				ShotOutcome outcome = new ShotOutcome(this.shot.start, cellSize);
+				for (int i = this.lo; i < this.hi; i++){
+					// seeding from the index (rather than splitting one generator) keeps each rollout the same no matter which thread runs it
+					SplittableRandom rng = new SplittableRandom(seed + i*0x9E3779B97F4A7C15L);
+					outcome.add(this.shot.start, rollout(this.shot, rng));
+				}
+				return outcome;
+			}
+
+			int mid = (this.lo + this.hi) >>> 1;
+			Rollouts left = new Rollouts(this.shot, this.lo, mid);
+			left.fork();
+			ShotOutcome outcome = new Rollouts(this.shot, mid, this.hi).compute();
+			outcome.merge(left.join());
+			return outcome;
+		}
+	}
+
+	/**
+	 * Estimates how a break shot turns out and prints out the results, along with how long it took.
+	 */
+	public static void main(String[] args){
+		System.setProperty("java.awt.headless", "true");
+		int rollouts = (args.length > 0) ? Integer.parseInt(args[0]) : 2000;
+
+		GameState game = new GameState();
+		ShotEstimator estimator = new ShotEstimator();
+		estimator.estimate(game, 1200, 5, Math.min(rollouts, 200)); // warm up
+
+		estimator.cache = null; // (so the warm up doesn't turn every rollout below into a lookup)
+		long start = System.nanoTime();
+		ShotOutcome outcome = estimator.estimate(game, 1200, 5, rollouts);
+		long elapsed = System.nanoTime() - start;
+
+		System.out.println(outcome.rollouts + " rollouts in " + elapsed/1e6 + "ms (" + (int)(outcome.rollouts / (elapsed/1e9)) + "/s) on " + ForkJoinPool.getCommonPoolParallelism() + " threads");
+		System.out.println("Mean pocketed: red " + outcome.getMeanPocketed(Ball.TYPE_RED) + ", blue " + outcome.getMeanPocketed(Ball.TYPE_BLUE)
+			+ ", 8 ball " + outcome.getMeanPocketed(Ball.TYPE_8BALL) + ", cue ball " + outcome.getMeanPocketed(Ball.TYPE_CUEBALL));
+		System.out.println("Foul rate: " + outcome.getFoulRate() + "; turn retention: " + outcome.getTurnRetention());
+
+		// and again with a cache, twice over, to see how much estimating the same shot again saves
+		estimator.cache = new ShotCache(Math.max(rollouts, 1), 0.01, 0.1);
+		for (int pass = 1; pass <= 2; pass++){
+			start = System.nanoTime();
+			ShotOutcome cached = estimator.estimate(game, 1200, 5, rollouts);
+			elapsed = System.nanoTime() - start;
+			System.out.println("Cached, pass " + pass + ": " + elapsed/1e6 + "ms, foul rate " + cached.getFoulRate() + "; " + estimator.cache);
+		}
+	}
+}
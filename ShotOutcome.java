@@ -0,0 +1,122 @@
+/**
+ * Describes how a shot tends to turn out, as estimated by ShotEstimator.
+ * Holds counts over every rollout that was simulated; the get methods turn those into rates.
+ */
+class ShotOutcome {
+	public int rollouts;
+	public int[][] pocketed;  // pocketed[type][n] is how many rollouts sunk exactly n balls of that type (see Ball.TYPE_CUEBALL and so on)
+	public int fouls;         // how many rollouts ended in a foul
+	public int retained;      // how many rollouts ended with the shooter still having their turn
+	public int[][] heatmap;   // heatmap[row][col] is how many rollouts left the cue ball resting in that cell of the table
+	public int cueSunk;       // how many rollouts sunk the cue ball (those aren't in the heatmap)
+	public final double cellSize;
+
+	/**
+	 * Creates an empty outcome with no rollouts in it.
+	 *
+	 * @param    game the game the shot is being taken in (only used for the size of the table)
+	 * @param cellSize how wide and tall each cell in the heatmap is
+	 */
+	public ShotOutcome(GameState game, double cellSize){
+		this.rollouts = 0;
+		this.pocketed = new int[4][game.table.getBallCount() + 1];
+		this.fouls = 0; this.retained = 0;
+		this.cellSize = cellSize;
+		this.heatmap = new int[Math.max(1, (int)Math.ceil(game.h / cellSize))][Math.max(1, (int)Math.ceil(game.w / cellSize))];
+		this.cueSunk = 0;
+	}
+
+	/**
+	 * Adds a rollout to the outcome.
+	 *
+	 * @param before the game right before the shot was taken
+	 * @param  after the same game once every ball stopped moving
+	 */
+	public void add(GameState before, GameState after){
+		this.rollouts++;
+		for (int type = 0; type < 4; type++){
+			int n = after.table.sunkByType[type] - before.table.sunkByType[type];
+			this.pocketed[type][Math.max(0, Math.min(n, this.pocketed[type].length - 1))]++;
+		}
+		if (after.foul){this.fouls++;}
+		if (after.turn == before.turn){this.retained++;}
+
+		Ball cue = after.table.getCueBall();
+		if (cue != null && cue.isSunk()){this.cueSunk++;}
+		else if (cue != null){
+			int row = (int)Math.floor(cue.getYPos() / this.cellSize); int col = (int)Math.floor(cue.getXPos() / this.cellSize);
+			row = Math.max(0, Math.min(this.heatmap.length - 1, row)); col = Math.max(0, Math.min(this.heatmap[0].length - 1, col));
+			this.heatmap[row][col]++;
+		}
+	}
+
+	/**
+	 * Adds every rollout from another outcome into this one. Both should've been created for the same game and cell size.
+	 *
+	 * @param other the outcome being merged in
+	 */
+	public void merge(ShotOutcome other){
+		this.rollouts += other.rollouts;
+		for (int type = 0; type < 4; type++){
+			for (int n = 0; n < this.pocketed[type].length; n++){this.pocketed[type][n] += other.pocketed[type][n];}
+		}
+		this.fouls += other.fouls; this.retained += other.retained;
+		for (int row = 0; row < this.heatmap.length; row++){
+			for (int col = 0; col < this.heatmap[row].length; col++){this.heatmap[row][col] += other.heatmap[row][col];}
+		}
+		this.cueSunk += other.cueSunk;
+	}
+
+	/**
+	 * Gets the average number of balls of some type that got sunk per rollout.
+	 *
+	 * @param type the type of ball (see Ball.TYPE_CUEBALL and so on)
+	 * @return     the mean number of balls of that type sunk
+	 */
+	public double getMeanPocketed(int type){
+		if (this.rollouts == 0){return 0;}
+		long total = 0;
+		for (int n = 0; n < this.pocketed[type].length; n++){total += (long)n*this.pocketed[type][n];}
+		return (double)total / this.rollouts;
+	}
+
+	/**
+	 * Gets the fraction of rollouts that sunk at least one ball of some type.
+	 *
+	 * @param type the type of ball (see Ball.TYPE_CUEBALL and so on)
+	 * @return     the chance of sinking a ball of that type, between 0 and 1
+	 */
+	public double getPocketChance(int type){
+		if (this.rollouts == 0){return 0;}
+		return 1 - (double)this.pocketed[type][0] / this.rollouts;
+	}
+
+	/**
+	 * Gets the fraction of rollouts that ended in a foul.
+	 *
+	 * @return the foul rate, between 0 and 1
+	 */
+	public double getFoulRate(){
+		return (this.rollouts == 0) ? 0 : (double)this.fouls / this.rollouts;
+	}
+
+	/**
+	 * Gets the fraction of rollouts where the shooter kept their turn.
+	 *
+	 * @return the turn retention rate, between 0 and 1
+	 */
+	public double getTurnRetention(){
+		return (this.rollouts == 0) ? 0 : (double)this.retained / this.rollouts;
+	}
+
+	/**
+	 * Gets the fraction of rollouts that left the cue ball resting in some cell of the heatmap.
+	 *
+	 * @param row the row of the cell (y coordinate divided by cellSize)
+	 * @param col the column of the cell (x coordinate divided by cellSize)
+	 * @return    the chance of the cue ball ending up in that cell, between 0 and 1
+	 */
+	public double getCueChance(int row, int col){
+		return (this.rollouts == 0) ? 0 : (double)this.heatmap[row][col] / this.rollouts;
+	}
+}
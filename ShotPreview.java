@@ -0,0 +1,354 @@
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Works out the shot preview on a thread of its own, so the render thread never has to wait on it while the player's dragging the mouse around.
+ * The preview is the cue ball's whole path: every cushion it bounces off of, the ball it runs into first (see TableState.castBall()),
+ * which way both balls go from there (using the same model as CollisionHandler.handleBallCollisions()), and whether either of them ends up in a pocket.
+ * Every other ball is treated as if it's standing still, and the paths stop as soon as either ball runs into a second one.
+ *
+ * The render thread hands over the shot being lined up every frame with request(), and draws whatever latest() has,
+ * which is the last preview the worker published. Requests don't queue up: only the newest one is kept, so if the mouse moves
+ * a few times while the worker's busy, everything but the last position gets skipped. A request for the same shot on the
+ * same table as the last one is ignored, so holding the mouse still costs nothing. And the last CACHE_SIZE previews are kept
+ * around, so dragging back over a spot that's already been previewed comes straight back without bothering the worker.
+ *
+ * The worker only gets budget nanoseconds of work on a preview each frame. Paths are traced one bounce at a time, alternating between
+ * the two balls once they've touched, and if the budget runs out partway through, whatever's been traced so far gets published
+ * (with Result.complete false) and the worker waits for the next frame to carry on from there. A newer request (or cancel())
+ * stops it between bounces. So the first contact shows up right away, the rest of the path fills in over the next few frames
+ * on a slow machine, and the worker never takes more than its share of a frame however long the paths get.
+ *
+ * Tables are told apart with ShotCache.hash(), with a tolerance small enough that only the exact same table matches.
+ * The worker keeps its own copy of the game, and only restores the table into it when the table's actually changed.
+ */
+class ShotPreview implements Runnable {
+	public static final int CACHE_SIZE = 16;
+	public static final double EXACT = 1e-9;   // the tolerance tables are hashed with
+	public static final int MAX_BOUNCES = 8;   // the most cushions a path is traced off of before it's cut short
+	public static final long BUDGET = 1000000; // the default for budget (1ms, or 6% of a frame)
+	private static final long FRAME_NANOS = (long)(SimulationEngine.FRAME_TIME*1e9);
+	private static final double NUDGE = 1e-6;  // how far a ball gets pushed off of a cushion after bouncing, so the next cast doesn't start out touching it
+
+	/**
+	 * The path a ball would take across the table: where it starts, every cushion it bounces off of, and where it ends up.
+	 */
+	public static class Path {
+		public final int ball;            // the index of the ball taking the path
+		public final double[] xPos, yPos; // the points along the path
+		public final int points;
+		public final int end;   // how the path ends: one of the CollisionPoint.HIT_ constants (HIT_NONE if the ball stops or leaves the table,
+		                        // HIT_POCKET if it gets sunk, HIT_BALL if it runs into another ball, HIT_WALL if it's still going after MAX_BOUNCES),
+		                        // or -1 if it hasn't been traced all the way yet
+		public final int index; // the pocket, ball or wall it ends at (-1 if none)
+
+		Path(int ball, double[] xPos, double[] yPos, int points, int end, int index){
+			this.ball = ball; this.xPos = xPos; this.yPos = yPos; this.points = points;
+			this.end = end; this.index = index;
+		}
+
+		public boolean isPotted(){return this.end == CollisionPoint.HIT_POCKET;}
+	}
+
+	/**
+	 * How a previewed shot would go.
+	 */
+	public static class Result {
+		public final long state;         // the hash of the table the shot was previewed on
+		public final double xVel, yVel;  // the shot
+		public final CollisionPoint hit; // where the cue ball first touches something (null if it hasn't been worked out yet)
+		public final Path cue;           // the cue ball's path
+		public final Path object;        // the path of the first ball the cue ball runs into (null if it doesn't run into one, or it hasn't been worked out yet)
+		public final boolean complete;   // false if the paths are still being traced
+
+		Result(long state, double xVel, double yVel, CollisionPoint hit, Path cue, Path object, boolean complete){
+			this.state = state; this.xVel = xVel; this.yVel = yVel; this.hit = hit;
+			this.cue = cue; this.object = object; this.complete = complete;
+		}
+	}
+
+	// a shot waiting on the worker
+	private static class Request {
+		final GameState template; final GameSnapshot snapshot; final long state;
+		final double xVel, yVel;
+		final long key, generation;
+
+		Request(GameState template, GameSnapshot snapshot, long state, double xVel, double yVel, long key, long generation){
+			this.template = template; this.snapshot = snapshot; this.state = state;
+			this.xVel = xVel; this.yVel = yVel; this.key = key; this.generation = generation;
+		}
+	}
+
+	// a ball partway along its path
+	private static class Tracer {
+		final Ball ball; final int index;
+		double x, y, xVel, yVel;
+		int hide = -1; // a ball that's treated as gone while this one's being cast (the other ball, once they've touched)
+		double[] xPos = new double[MAX_BOUNCES + 3], yPos = new double[MAX_BOUNCES + 3]; int points, bounces; // (the start, up to MAX_BOUNCES cushions and the first contact, and the end)
+		int end = -1, endIndex = -1;
+
+		Tracer(Ball ball, double x, double y, double xVel, double yVel){
+			this.ball = ball; this.index = ball.getIndex();
+			this.x = x; this.y = y; this.xVel = xVel; this.yVel = yVel;
+			this.add(x, y);
+		}
+
+		void add(double x, double y){this.xPos[this.points] = x; this.yPos[this.points] = y; this.points++;}
+		void finish(int end, int index){this.end = end; this.endIndex = index;}
+		boolean isDone(){return this.end >= 0;}
+		Path path(){return new Path(this.index, Arrays.copyOf(this.xPos, this.points), Arrays.copyOf(this.yPos, this.points), this.points, this.end, this.endIndex);}
+	}
+
+	public final PerformanceMetrics.Window times = new PerformanceMetrics.Window(); // how much of the worker's time each preview took
+	public volatile long budget = BUDGET; // how many nanoseconds the worker can spend on a preview each frame
+	private final PerformanceMetrics metrics; // where the worker's casts get counted (can be null)
+
+	private final AtomicReference<Request> pending = new AtomicReference<Request>();
+	private volatile Result latest;
+	private volatile long generation; // bumped for every new request (and cancel()), so the worker can tell when it's working on an old one
+	private final LinkedHashMap<Long, Result> cache; // synchronized on itself, along with latest and generation
+	private volatile long requested, computed, skipped, cached, partial;
+	private Thread thread;
+	private volatile boolean running;
+
+	// render thread only
+	private GameState lastTemplate; private long lastState; private GameSnapshot lastSnapshot;
+	private long lastKey; private boolean anyRequested;
+
+	// worker thread only
+	private GameState template, game; private long state; private boolean restored;
+	private final BallStore scratch = new BallStore(2); // the two balls in a collision, so CollisionHandler can work out how they bounce without touching the game
+	private Tracer cue, object; private CollisionPoint hit; private boolean alternate;
+
+	/**
+	 * Creates a preview worker. It doesn't do anything until it's started.
+	 *
+	 * @param metrics where to count the casts the worker does (see PerformanceMetrics.recordCasts()); can be null
+	 */
+	public ShotPreview(PerformanceMetrics metrics){
+		this.metrics = metrics;
+		this.cache = new LinkedHashMap<Long, Result>(CACHE_SIZE*2, 0.75f, true){
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Long, Result> eldest){return this.size() > CACHE_SIZE;}
+		};
+		this.scratch.add(1, 1, Ball.TYPE_CUEBALL); this.scratch.add(1, 1, Ball.TYPE_CUEBALL);
+	}
+
+	/**
+	 * Starts the worker thread. Does nothing if it's already running.
+	 */
+	public synchronized void start(){
+		if (this.running){return;}
+		this.running = true;
+		this.thread = new Thread(this, "ShotPreview"); this.thread.setDaemon(true);
+		this.thread.start();
+	}
+
+	/**
+	 * Stops the worker thread once it's done with whatever bounce it's working on.
+	 */
+	public void stop(){
+		Thread t;
+		synchronized (this){
+			this.running = false;
+			t = this.thread; this.thread = null;
+		}
+		if (t == null){return;}
+		LockSupport.unpark(t);
+		try {t.join();}
+		catch (InterruptedException e) {Thread.currentThread().interrupt();}
+	}
+
+	/**
+	 * Asks for a preview of a shot. Only ever called from the render thread. Returns right away; the preview shows up in latest()
+	 * once it's done (right away, if it's one of the last few that were previewed).
+	 *
+	 * @param template the template of the FrameBuffer game came from (see FrameBuffer.template), which the worker copies its game from
+	 * @param     game the game the shot's being taken in, as the render thread has it; all its balls should be at rest
+	 * @param     xVel the velocity the cue ball would be shot at along the x axis
+	 * @param     yVel the velocity the cue ball would be shot at along the y axis
+	 */
+	public void request(GameState template, GameState game, double xVel, double yVel){
+		long state = ShotCache.hash(game, EXACT);
+		long key = ShotPreview.key(state, xVel, yVel);
+		if (this.anyRequested && key == this.lastKey && template == this.lastTemplate){return;} // nothing's changed since last time
+		this.anyRequested = true; this.lastKey = key; this.requested++;
+
+		if (template != this.lastTemplate || state != this.lastState || this.lastSnapshot == null){
+			this.lastTemplate = template; this.lastState = state; this.lastSnapshot = new GameSnapshot(game); // (only once per shot, not once per frame)
+		}
+
+		Result hit; long generation;
+		synchronized (this.cache){
+			generation = ++this.generation; // (so whatever the worker's still tracing doesn't get published over this)
+			hit = this.cache.get(key);
+			if (hit != null){this.latest = hit;}
+		}
+		if (hit != null){this.cached++; if (this.pending.getAndSet(null) != null){this.skipped++;} return;}
+
+		if (this.pending.getAndSet(new Request(template, this.lastSnapshot, state, xVel, yVel, key, generation)) != null){this.skipped++;}
+		Thread t = this.thread;
+		if (t != null){LockSupport.unpark(t);}
+	}
+
+	/**
+	 * Drops whatever preview's waiting on the worker (or being traced by it), and forgets the last one. Called from the render thread once
+	 * the shot's been taken (or the player's stopped lining it up), so the worker doesn't go on working out a preview nobody's going to look at.
+	 */
+	public void cancel(){
+		synchronized (this.cache){this.generation++;}
+		if (this.pending.getAndSet(null) != null){this.skipped++;}
+		this.anyRequested = false;
+	}
+
+	/**
+	 * Gets the last preview that was published for the table the last request was on. Only ever called from the render thread.
+	 *
+	 * @return the preview, which might be for a shot from a few frames ago or still being traced (see Result.complete),
+	 *         or null if nothing's been previewed on this table yet
+	 */
+	public Result latest(){
+		Result result = this.latest;
+		return (result != null && this.anyRequested && result.state == this.lastState) ? result : null;
+	}
+
+	public long getRequested(){return this.requested;}
+	public long getComputed(){return this.computed;}
+	public long getSkipped(){return this.skipped;}
+	public long getCached(){return this.cached;}
+	public long getPartial(){return this.partial;} // how many times the worker ran out of budget partway through a preview
+
+	// combines a table's hash with a shot
+	private static long key(long state, double xVel, double yVel){
+		long h = state;
+		h = (h ^ Double.doubleToLongBits(xVel)) * 0xBF58476D1CE4E5B9L; h ^= h >>> 31;
+		h = (h ^ Double.doubleToLongBits(yVel)) * 0x94D049BB133111EBL; h ^= h >>> 31;
+		return h;
+	}
+
+	@Override
+	public void run(){
+		while (this.running){
+			Request r = this.pending.getAndSet(null);
+			if (r == null){LockSupport.park(this); continue;}
+
+			long busy = 0; long frameStart = System.nanoTime();
+			if (r.template != this.template){this.template = r.template; this.game = new GameState(r.template); this.restored = false;} // the game was reset
+			if (r.state != this.state || !this.restored){this.game.restore(r.snapshot); this.state = r.state; this.restored = true;}
+			if (!this.begin(r)){continue;} // nothing to preview
+
+			// trace for up to budget nanoseconds a frame, publishing whatever's been traced at the end of each frame's share,
+			// until the paths are done or there's a newer request
+			while (true){
+				long start = System.nanoTime();
+				boolean done = this.trace(r, start + this.budget);
+				busy += System.nanoTime() - start;
+				if (!this.publish(r, done) || done || !this.running){break;}
+				this.partial++;
+
+				frameStart += FRAME_NANOS;
+				long wait = frameStart - System.nanoTime();
+				if (wait > 0){LockSupport.parkNanos(this, wait);} // (request() wakes us up early if there's a newer shot)
+				else {frameStart = System.nanoTime();}           // running behind; don't try to make the time up
+			}
+
+			this.times.record(busy);
+			if (this.metrics != null){this.metrics.recordCasts(this.game.table);}
+		}
+	}
+
+	// publishes the paths traced so far for a request, unless a newer request's come in since; returns false if it has
+	private boolean publish(Request r, boolean done){
+		Path object = (this.object != null) ? this.object.path() : null;
+		Result result = new Result(r.state, r.xVel, r.yVel, this.hit, this.cue.path(), object, done);
+		synchronized (this.cache){
+			if (done){this.cache.put(r.key, result);} // (a finished preview's still worth keeping even if it's not the newest one)
+			if (r.generation != this.generation){return false;}
+			this.latest = result;
+		}
+		if (done){this.computed++;}
+		return true;
+	}
+
+	// sets up the tracers for a request on the worker's copy of the game; returns false if there's no cue ball to trace
+	private boolean begin(Request r){
+		Ball cue = this.game.table.getCueBall();
+		if (cue == null || cue.isSunk()){return false;}
+		this.cue = new Tracer(cue, cue.getXPos(), cue.getYPos(), r.xVel, r.yVel);
+		this.object = null; this.hit = null; this.alternate = false;
+		return true;
+	}
+
+	// traces the paths a bounce at a time until they're done (returns true), the deadline passes, or a newer request comes in
+	private boolean trace(Request r, long deadline){
+		while (true){
+			boolean cueDone = this.cue.isDone(); boolean objectDone = (this.object == null || this.object.isDone());
+			if (cueDone && objectDone){return true;}
+			if (r.generation != this.generation || !this.running){return false;}
+
+			// once both balls are moving, take turns so that neither path gets left behind when the budget runs out
+			this.alternate = !this.alternate;
+			this.step((cueDone || (!objectDone && this.alternate)) ? this.object : this.cue);
+			if (System.nanoTime() >= deadline){return false;}
+		}
+	}
+
+	// moves a ball along to the next thing it touches
+	private void step(Tracer t){
+		TableState table = this.game.table;
+		CollisionPoint hit = this.cast(t);
+		if (t == this.cue && this.hit == null){this.hit = hit;}
+		t.add(hit.xPos, hit.yPos);
+
+		// friction slows the ball down on the way (see Kinematics), but doesn't change its direction
+		double velocity = Math.sqrt(t.xVel*t.xVel + t.yVel*t.yVel);
+		double speed = (table.getFriction() > 0) ? Math.max(0, velocity - table.getFriction()*hit.time) : velocity;
+		double factor = (velocity > 0) ? speed/velocity : 0;
+		t.x = hit.xPos; t.y = hit.yPos; t.xVel *= factor; t.yVel *= factor;
+
+		BallStore s = this.scratch;
+		if (hit.type == CollisionPoint.HIT_WALL){
+			if (speed == 0){t.finish(CollisionPoint.HIT_NONE, -1); return;}
+			if (t.bounces++ == MAX_BOUNCES){t.finish(CollisionPoint.HIT_WALL, hit.index); return;}
+
+			Wall wall = table.getWall(hit.index);
+			s.xVel[0] = t.xVel; s.yVel[0] = t.yVel;
+			CollisionHandler.reflect(s, 0, wall.normalX, wall.normalY, TableState.RESTITUTION);
+			t.xVel = s.xVel[0]; t.yVel = s.yVel[0];
+
+			double side = (t.xVel*wall.normalX + t.yVel*wall.normalY >= 0) ? NUDGE : -NUDGE;
+			t.x += wall.normalX*side; t.y += wall.normalY*side;
+		}
+		else if (hit.type == CollisionPoint.HIT_BALL && t == this.cue && this.object == null){
+			// the first ball the cue ball runs into gets knocked along too; the cue ball carries on from there
+			BallStore b = table.getBallStore(); int i = hit.index;
+			s.xPos[0] = t.x; s.yPos[0] = t.y; s.xVel[0] = t.xVel; s.yVel[0] = t.yVel; s.mass[0] = b.mass[t.index];
+			s.xPos[1] = b.xPos[i]; s.yPos[1] = b.yPos[i]; s.xVel[1] = 0; s.yVel[1] = 0; s.mass[1] = b.mass[i];
+			CollisionHandler.resolveBallCollision(s, 0, s, 1, TableState.RESTITUTION);
+
+			t.xVel = s.xVel[0]; t.yVel = s.yVel[0]; t.hide = i;
+			this.object = new Tracer(table.getBall(i), b.xPos[i], b.yPos[i], s.xVel[1], s.yVel[1]);
+			this.object.hide = t.index;
+		}
+		else {t.finish(hit.type, hit.index);} // stopped, left the table, got sunk or ran into a second ball
+	}
+
+	// casts a ball from where its tracer's got to, with the ball it's touched (if any) out of the way
+	private CollisionPoint cast(Tracer t){
+		BallStore s = this.game.table.getBallStore(); int i = t.index;
+		double x = s.xPos[i]; double y = s.yPos[i];
+		boolean hidden = (t.hide >= 0) && s.sunk[t.hide];
+		s.xPos[i] = t.x; s.yPos[i] = t.y;
+		if (t.hide >= 0){s.sunk[t.hide] = true;}
+
+		CollisionPoint hit = this.game.table.castBall(t.ball, t.xVel, t.yVel);
+
+		// (written straight into the store rather than through Ball's setters, which would wake the balls up)
+		s.xPos[i] = x; s.yPos[i] = y;
+		if (t.hide >= 0){s.sunk[t.hide] = hidden;}
+		return hit;
+	}
+}
@@ -0,0 +1,375 @@
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Picks a shot for whichever player's turn it is, for bot players.
+ *
+ * The search goes through a handful of steps:
+ *   1. come up with candidate shots: aiming the cue ball so it knocks each ball we're allowed to hit towards each pocket,
+ *      plus a fan of evenly spaced angles, each at a few different speeds (up to BallController.MAX_SHOT_SPEED)
+ *   2. throw out shots that are obviously bad using TableState.castBall(), which is cheap: shots where the cue ball
+ *      heads straight into a pocket, hits a ball we aren't allowed to hit first, or doesn't reach anything at all
+ *   3. play the rest out in parallel on copies of the game (with a bit of noise, like ShotEstimator), using the same
+ *      SimulationEngine and CollisionHandler physics as everything else, and score them on how often they sink a ball,
+ *      how often they foul, and how much the cue ball has to work with afterwards
+ *
+ * Rollouts are looked up in a ShotCache before they're played out, and the noise on them is seeded from the shot itself,
+ * so searching the same table again (or one within the cache's tolerance of it) is mostly lookups.
+ *
+ * Candidates are played out most promising first, and the search stops after budget nanoseconds of wall clock time
+ * no matter how far it got, returning the best shot it found up to that point.
+ */
+public class ShotSearch {
+	public long budget;         // how long, in nanoseconds, search() is allowed to take
+	public int angles;          // how many evenly spaced angles are tried on top of the aimed ones
+	public double[] speeds;     // the speeds each angle is tried at
+	public int rollouts;        // how many times each candidate is played out; the first one has no noise
+	public double angleNoise;   // see ShotEstimator.angleNoise
+	public double speedNoise;   // see ShotEstimator.speedNoise
+	public double maxCut;       // how far off (in radians) an aimed shot can hit the object ball before it's not worth trying
+	public ShotCache cache;     // where rollouts get looked up before they're played out (null to always play them out)
+
+	private final ForkJoinPool pool;
+
+	/**
+	 * Describes the shot a search settled on, and how it expects it to go.
+	 */
+	public static class Result {
+		public final double xVel, yVel;
+		public final double score;      // see ShotSearch.score()
+		public final double potChance;  // fraction of rollouts where a ball was sunk and the turn was kept
+		public final double foulRate;   // fraction of rollouts that ended in a foul
+		public int candidates, pruned, evaluated; // how many shots were considered, thrown out and actually played out
+
+		public Result(double xVel, double yVel, double score, double potChance, double foulRate){
+			this.xVel = xVel; this.yVel = yVel;
+			this.score = score; this.potChance = potChance; this.foulRate = foulRate;
+		}
+	}
+
+	/**
+	 * Creates a search that runs on the common fork/join pool with a 200ms budget.
+	 */
+	public ShotSearch(){
+		this(ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * Creates a search that runs on a given fork/join pool with a 200ms budget.
+	 *
+	 * @param pool the pool that candidates are played out on
+	 */
+	public ShotSearch(ForkJoinPool pool){
+		this.pool = pool;
+		this.budget = 200000000L;
+		this.angles = 72;
+		this.speeds = new double[]{ 250, 500, 850, BallController.MAX_SHOT_SPEED };
+		this.rollouts = 3;
+		this.angleNoise = 0.005; this.speedNoise = 0.02;
+		this.maxCut = Math.toRadians(75);
+		this.cache = new ShotCache();
+	}
+
+	/**
+	 * Finds a good shot for the player whose turn it is.
+	 * Any foul is treated as already dealt with (i.e. the cue ball should be placed before calling this). The game passed in is never modified.
+	 *
+	 * @param game the game the shot is being taken in. all its balls should be at rest
+	 * @return     the best shot found before the budget ran out
+	 */
+	public Result search(GameState game){
+		long deadline = System.nanoTime() + this.budget;
+		GameState start = new GameState(game); start.foul = false;
+
+		Search search = new Search(start, deadline, this.cache);
+		ArrayList<double[]> candidates = this.candidates(search);
+		search.best = this.fallback(search);
+		search.best.candidates = candidates.size() + search.pruned; search.best.pruned = search.pruned;
+
+		ForkJoinTask<Void> task = this.pool.submit(new Candidates(search, candidates, 0, candidates.size()));
+		try {
+			task.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+		}
+		catch (TimeoutException e) {} // out of time; whatever's still running notices the deadline and stops on its own
+		catch (InterruptedException e) {Thread.currentThread().interrupt();}
+		catch (ExecutionException e) {throw new RuntimeException(e.getCause());}
+
+		synchronized (search){
+			Result best = search.best;
+			best.candidates = candidates.size() + search.pruned; best.pruned = search.pruned; best.evaluated = search.evaluated;
+			return best;
+		}
+	}
+
+	/**
+	 * Figures out which types of ball the player whose turn it is can legally hit first.
+	 * Hitting the 8 ball is technically fine before groups are assigned, but sinking it loses the game, so it's left out.
+	 *
+	 * @param game the game being played
+	 * @return     a lookup table indexed by ball type
+	 */
+	private static boolean[] legalTypes(GameState game){
+		boolean[] legal = new boolean[4];
+		int group = game.groups[game.turn];
+		if (group == -1){legal[Ball.TYPE_RED] = true; legal[Ball.TYPE_BLUE] = true;}
+		else if (group == Ball.TYPE_RED || group == Ball.TYPE_BLUE){
+			if (game.lastSunkByType[group] == 7){legal[Ball.TYPE_8BALL] = true;} // cleared our group, so it's time for the 8 ball
+			else {legal[group] = true;}
+		}
+		return legal;
+	}
+
+	/**
+	 * Comes up with every candidate shot worth playing out, most promising first, and throws out the obviously bad ones.
+	 * Each candidate is {xVel, yVel}.
+	 */
+	private ArrayList<double[]> candidates(Search search){
+		TableState table = search.start.table;
+		Ball cue = table.getCueBall();
+		ArrayList<double[]> aimed = new ArrayList<double[]>(); // {angle, the ball it's aimed at, how straight the cut is}
+
+		// aim for the spot where the cue ball needs to be to knock an object ball straight into a pocket (the "ghost ball")
+		for (int b = 0; b < table.getBallCount(); b++){
+			Ball ball = table.getBall(b);
+			if (ball == cue || ball.isSunk() || !search.legal[ball.type]){continue;}
+
+			for (int p = 0; p < table.getPocketCount(); p++){
+				Pocket pocket = table.getPocket(p);
+				double px = pocket.xPos - ball.getXPos(); double py = pocket.yPos - ball.getYPos();
+				double pd = Math.sqrt(px*px + py*py);
+				if (pd == 0){continue;}
+				px /= pd; py /= pd;
+
+				double gx = ball.getXPos() - px*(ball.radius + cue.radius); double gy = ball.getYPos() - py*(ball.radius + cue.radius);
+				double ax = gx - cue.getXPos(); double ay = gy - cue.getYPos();
+				double ad = Math.sqrt(ax*ax + ay*ay);
+				double cut = (ad == 0) ? -1 : (ax*px + ay*py)/ad;
+				if (cut < Math.cos(this.maxCut)){continue;} // too thin a cut to be worth it
+
+				aimed.add(new double[]{ Math.atan2(ay, ax), b, cut });
+			}
+		}
+		aimed.sort((x, y) -> Double.compare(y[2], x[2])); // straighter cuts first
+
+		// then a fan of angles all the way around, for banks, safeties and whatever else the aimed shots miss
+		ArrayList<double[]> directions = new ArrayList<double[]>(aimed);
+		for (int i = 0; i < this.angles; i++){
+			directions.add(new double[]{ 2*Math.PI*i/this.angles, -1, 0 });
+		}
+
+		ArrayList<double[]> candidates = new ArrayList<double[]>();
+		for (int d = 0; d < directions.size(); d++){
+			double angle = directions.get(d)[0]; int aimedAt = (int)directions.get(d)[1];
+			for (int s = 0; s < this.speeds.length; s++){
+				double xVel = this.speeds[s]*Math.cos(angle); double yVel = this.speeds[s]*Math.sin(angle);
+
+				// see what the cue ball would run into first, pretending nothing else moves
+				CollisionPoint hit = table.castBall(cue, xVel, yVel);
+				boolean bad = false;
+				if (hit.type == CollisionPoint.HIT_NONE){bad = true;}        // runs out of steam before touching anything
+				else if (hit.type == CollisionPoint.HIT_POCKET){bad = true;} // scratches
+				else if (hit.type == CollisionPoint.HIT_BALL){               // hits the wrong ball first, or something's in the way
+					bad = !search.legal[table.getBall(hit.index).type] || (aimedAt != -1 && hit.index != aimedAt);
+				}
+				if (bad){search.pruned++; continue;}
+
+				candidates.add(new double[]{ xVel, yVel });
+			}
+		}
+		return candidates;
+	}
+
+	/**
+	 * Comes up with a shot to fall back on if nothing gets played out in time: straight at the nearest ball we're allowed to hit.
+	 */
+	private Result fallback(Search search){
+		TableState table = search.start.table; Ball cue = table.getCueBall();
+		double nearest = Double.POSITIVE_INFINITY; double angle = 0;
+		for (int b = 0; b < table.getBallCount(); b++){
+			Ball ball = table.getBall(b);
+			if (ball == cue || ball.isSunk() || !search.legal[ball.type]){continue;}
+			double dx = ball.getXPos() - cue.getXPos(); double dy = ball.getYPos() - cue.getYPos();
+			double distance = Math.sqrt(dx*dx + dy*dy);
+			if (distance < nearest){nearest = distance; angle = Math.atan2(dy, dx);}
+		}
+		double speed = this.speeds[this.speeds.length/2];
+		return new Result(speed*Math.cos(angle), speed*Math.sin(angle), Double.NEGATIVE_INFINITY, 0, 1);
+	}
+
+	/**
+	 * Scores how a single rollout went, from the point of view of the player who took the shot.
+	 * Winning or losing outweighs everything else; otherwise keeping the turn is worth 1, a foul costs 1.5,
+	 * and every ball left open for the next shot is worth a little extra on top of keeping the turn.
+	 *
+	 * @param before the game right before the shot
+	 * @param  after the game once every ball stopped moving
+	 * @param  leave how many balls the shooter could hit cleanly afterwards (see countLeave())
+	 * @return       the score; higher is better
+	 */
+	private static double score(GameState before, GameState after, int leave){
+		int player = before.turn;
+		if (after.groups[player] == 3){return 100;}             // won the game
+		if (after.groups[(player+1)%2] == 3){return -100;}      // lost the game
+
+		double score = 0;
+		if (after.foul){score -= 1.5;}
+		else if (after.turn == player){score += 1 + 0.05*leave;}
+		return score;
+	}
+
+	/**
+	 * Counts how many balls the player whose turn it is could hit cleanly from where the cue ball ended up.
+	 */
+	private static int countLeave(GameState game){
+		TableState table = game.table; Ball cue = table.getCueBall();
+		if (cue.isSunk()){return 0;}
+		boolean[] legal = ShotSearch.legalTypes(game);
+
+		int open = 0;
+		for (int b = 0; b < table.getBallCount(); b++){
+			Ball ball = table.getBall(b);
+			if (ball == cue || ball.isSunk() || !legal[ball.type]){continue;}
+			double dx = ball.getXPos() - cue.getXPos(); double dy = ball.getYPos() - cue.getYPos();
+			CollisionPoint hit = table.castBall(cue, dx*10, dy*10);
+			if (hit.type == CollisionPoint.HIT_BALL && hit.index == b){open++;}
+		}
+		return open;
+	}
+
+	/**
+	 * Plays a candidate out a few times and offers it up as the best shot if it beats what's been found so far.
+	 * Returns early without offering anything if the deadline passes partway through.
+	 */
+	private void evaluate(Search search, double[] candidate){
+		SimulationEngine engine = search.engines.get();
+		GameState game = engine.getGame();
+
+		double total = 0; int pots = 0; int fouls = 0;
+		for (int r = 0; r < this.rollouts; r++){
+			double xVel = candidate[0]; double yVel = candidate[1];
+			if (r > 0){ // the first rollout is the shot exactly as aimed; the rest are how it might go if it's a little off
+				SplittableRandom rng = new SplittableRandom(Double.doubleToLongBits(xVel)*31 + Double.doubleToLongBits(yVel) + r);
+				double speed = Math.sqrt(xVel*xVel + yVel*yVel) * Math.max(0, 1 + this.speedNoise*rng.nextGaussian());
+				double angle = Math.atan2(yVel, xVel) + this.angleNoise*rng.nextGaussian();
+				xVel = speed*Math.cos(angle); yVel = speed*Math.sin(angle);
+			}
+
+			long key = 0; GameSnapshot outcome = null;
+			if (search.cache != null){key = search.cache.key(search.state, xVel, yVel); outcome = search.cache.get(key);}
+			if (outcome != null){game.restore(outcome);}
+			else {
+				game.restore(search.snapshot);
+				game.table.getCueBall().setVelocity(xVel, yVel); // (not engine.shoot(), so rollouts don't pile up in the engine's replay log)
+				long frames = engine.getFrames();
+				do {
+					engine.step();
+					if (System.nanoTime() > search.deadline){return;}
+				} while (game.table.moving && (engine.getFrames() - frames)*SimulationEngine.FRAME_TIME < ShotEstimator.MAX_TIME);
+				if (search.cache != null){search.cache.put(key, new GameSnapshot(game));}
+			}
+
+			boolean retained = !game.foul && game.turn == search.start.turn;
+			int leave = retained ? ShotSearch.countLeave(game) : 0;
+			total += ShotSearch.score(search.start, game, leave);
+			if (retained){pots++;}
+			if (game.foul){fouls++;}
+		}
+
+		Result result = new Result(candidate[0], candidate[1], total/this.rollouts, (double)pots/this.rollouts, (double)fouls/this.rollouts);
+		synchronized (search){
+			search.evaluated++;
+			if (result.score > search.best.score){search.best = result;}
+		}
+	}
+
+	// everything the candidates for one call to search() have in common
+	private static class Search {
+		final GameState start; final GameSnapshot snapshot;
+		final long deadline;
+		final boolean[] legal;
+		final ShotCache cache; final long state; // the cache, and the hash of start to look rollouts up under
+		final ThreadLocal<SimulationEngine> engines; // each worker thread's own copy of the game, which gets rewound before every rollout
+		Result best; int pruned, evaluated;
+
+		Search(GameState start, long deadline, ShotCache cache){
+			this.start = start; this.snapshot = new GameSnapshot(start);
+			this.deadline = deadline;
+			this.cache = cache; this.state = (cache != null) ? cache.hash(start) : 0;
+			this.legal = ShotSearch.legalTypes(start);
+			this.engines = ThreadLocal.withInitial(() -> new SimulationEngine(new GameState(start)));
+		}
+	}
+
+	// splits a range of candidates in half until there's only one left, working through them front to back
+	private class Candidates extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final Search search;
+		private final ArrayList<double[]> candidates;
+		private final int lo, hi;
+
+		Candidates(Search search, ArrayList<double[]> candidates, int lo, int hi){
+			this.search = search; this.candidates = candidates;
+			this.lo = lo; this.hi = hi;
+		}
+
+		@Override
+		protected void compute(){
+			if (System.nanoTime() > this.search.deadline){return;}
+			if (this.hi - this.lo <= 1){
+				if (this.lo < this.hi){evaluate(this.search, this.candidates.get(this.lo));}
+				return;
+			}
+
+			// fork the back half and do the front half ourselves, so the more promising candidates get looked at first
+			int mid = (this.lo + this.hi) >>> 1;
+			Candidates back = new Candidates(this.search, this.candidates, mid, this.hi);
+			back.fork();
+			new Candidates(this.search, this.candidates, this.lo, mid).compute();
+			back.join();
+		}
+	}
+
+	/**
+	 * Has two bots play a game against each other and prints out how it went, along with how long each search took.
+	 * Takes the rack's seed as an optional argument.
+	 */
+	public static void main(String[] args){
+		System.setProperty("java.awt.headless", "true");
+		GameState game = (args.length > 0) ? new GameState(Long.parseLong(args[0])) : new GameState();
+		SimulationEngine engine = new SimulationEngine(game);
+		ShotSearch search = new ShotSearch();
+
+		for (int shot = 1; shot <= 60 && game.groups[0] != 3 && game.groups[1] != 3; shot++){
+			if (game.foul){ // put the cue ball back down somewhere free
+				Ball cue = game.table.getCueBall();
+				double cueX = cue.getXPos(); double cueY = cue.getYPos(); cue.setPosition(-1000, -1000);
+				double[] spot = null;
+				for (int i = 0; spot == null && i < 200; i++){
+					double x = 56 + (i % 20 - 10)*3; double y = 56 + (i / 20 - 5)*5;
+					if (game.table.castBall(new Ball(cue.radius, Ball.TYPE_CUEBALL, x, y), 0, 0).type == CollisionPoint.HIT_NONE){spot = new double[]{x, y};}
+				}
+				cue.setPosition(cueX, cueY);
+				for (double y = cue.radius; spot == null && y < game.table.h; y += cue.radius){ // nothing free near the usual spot; try the whole table
+					for (double x = cue.radius; spot == null && x < game.table.w; x += cue.radius){
+						if (game.table.canPlace(x, y)){spot = new double[]{x, y};}
+					}
+				}
+				if (spot == null){System.out.println("shot " + shot + ": nowhere free to put the cue ball back down"); break;}
+				engine.place(spot[0], spot[1]);
+			}
+
+			int player = game.turn;
+			long start = System.nanoTime();
+			Result result = search.search(game);
+			long elapsed = System.nanoTime() - start;
+			System.out.printf("shot %d (P%d): (%.1f, %.1f) score %.2f pot %.2f foul %.2f; %d candidates, %d pruned, %d played out in %.1fms%n",
+				shot, player+1, result.xVel, result.yVel, result.score, result.potChance, result.foulRate,
+				result.candidates, result.pruned, result.evaluated, elapsed/1e6);
+
+			engine.shoot(result.xVel, result.yVel);
+			do {engine.step();} while (game.table.moving);
+		}
+		System.out.println("Groups: " + Arrays.toString(game.groups) + "; sunk by type: " + Arrays.toString(game.table.sunkByType));
+		System.out.println("Cache: " + search.cache);
+	}
+}
@@ -0,0 +1,344 @@
+/**
+ * Advances a GameState forward in time using a fixed timestep, independently of any renderer.
+ * The engine can either run on its own thread (see start()) or be stepped manually (see step() and advance()).
+ * Nothing in here touches AWT, so it's safe to run with java.awt.headless=true on servers and in batch jobs.
+ *
+ * Anything that reads or mutates the GameState from another thread (mouse input, etc.)
+ * should synchronize on the engine while doing so, since the simulation thread does the same.
+ * Renderers shouldn't, though, since a slow paint would hold up the physics; they should draw from getFrameBuffer() instead.
+ *
+ * Shots and placements should go through shoot() and place(), which apply them right away and record them in a ReplayLog
+ * along with the frame they happened on. Nothing in the simulation depends on the wall clock, so that log is enough
+ * to play the game back exactly (see ReplayLog.replay()).
+ */
+public class SimulationEngine implements Runnable {
+	public static final double FRAME_TIME = 1.0/60.0; // the amount of simulated time, in seconds, that one frame covers
+	public static final double STEP_ACCURACY = 0.75;  // by default, how far (in radii of the smallest ball) any ball can move in one call to GameState.moveTime()
+	public static final int MAX_SUBSTEPS = 16;        // by default, the most times GameState.moveTime() is called per frame
+	public static final int MAX_CATCH_UP = 5;         // the most frames we'll simulate back to back before dropping time
+
+	private GameState game;
+	private long frames;
+	private ReplayLog log; // created once the first frame is simulated or the first input comes in
+	private volatile FrameBuffer frameBuffer; // created the first time something asks for it, since headless engines don't need one
+	private final PerformanceMetrics metrics;
+	private double stepAccuracy; private int maxSubsteps; // see setStepping()
+
+	private Thread thread;
+	private volatile boolean running;
+
+	public SimulationEngine(GameState game){
+		this.game = game;
+		this.frames = 0;
+		this.running = false;
+		this.metrics = new PerformanceMetrics();
+		this.stepAccuracy = STEP_ACCURACY; this.maxSubsteps = MAX_SUBSTEPS;
+	}
+
+	/**
+	 * Sets how finely each frame gets split up (see substeps()). Higher accuracy costs more time on frames where balls are moving quickly.
+	 * The settings are part of the replay log (a game only plays back exactly with the same settings), so they can only be changed
+	 * before the game gets underway, i.e. before the first frame is simulated or the first input comes in (or right after setGame()).
+	 *
+	 * @param    accuracy the furthest any ball can move in one substep, in radii of the smallest ball on the table
+	 * @param maxSubsteps the most substeps a frame can be split into, no matter how fast the balls are going
+	 */
+	public synchronized void setStepping(double accuracy, int maxSubsteps){
+		if (!(accuracy > 0) || maxSubsteps < 1){throw new IllegalArgumentException("Accuracy has to be positive and at least one substep is needed.");}
+		if (this.log != null){throw new IllegalStateException("The stepping can't be changed once the game is underway.");}
+		this.stepAccuracy = accuracy; this.maxSubsteps = maxSubsteps;
+	}
+
+	/**
+	 * Works out how many times a frame should be split up so that no ball moves further than some distance in any one step.
+	 * This is basically a CFL condition: collisions are only looked for between steps, so a ball that moves too far in one
+	 * could end up deep inside (or right through) whatever it hits. A table where nothing's moving fast only needs one step per frame.
+	 * The balls' top speed can only go down during a frame (friction and collisions don't speed anything up), so working it out at the start is enough.
+	 * Event driven tables handle collisions exactly, so those always get one step.
+	 *
+	 * @param       table the table being moved forward
+	 * @param    accuracy the furthest any ball can move in one step, in radii of the smallest ball
+	 * @param maxSubsteps the most steps the frame can be split into
+	 * @return            how many steps to split the next frame into
+	 */
+	public static int substeps(TableState table, double accuracy, int maxSubsteps){
+		if (table.simulationMode == TableState.MODE_EVENT_DRIVEN){return 1;}
+		double travel = table.getMaxSpeed()*FRAME_TIME; double limit = accuracy*table.getMinRadius();
+		if (travel <= limit){return 1;}
+		return (int)Math.min(maxSubsteps, Math.ceil(travel/limit));
+	}
+
+	/**
+	 * Gets the metrics every step() gets recorded into. Renderers can record their own times into it as well.
+	 *
+	 * @return the metrics for this engine
+	 */
+	public PerformanceMetrics getMetrics(){
+		return this.metrics;
+	}
+
+	/**
+	 * Gets the GameState being simulated.
+	 *
+	 * @return the GameState owned by this engine
+	 */
+	public synchronized GameState getGame(){
+		return this.game;
+	}
+
+	/**
+	 * Replaces the GameState being simulated (e.g. when the game is reset).
+	 * The frame count and the replay log start over for the new game.
+	 *
+	 * @param game the GameState that will be simulated from now on
+	 */
+	public synchronized void setGame(GameState game){
+		this.game = game;
+		this.frames = 0; this.log = null;
+		if (this.frameBuffer != null){this.frameBuffer = new FrameBuffer(game, 0);} // the old buffer's frames are for a different game
+	}
+
+	/**
+	 * Gets the buffer every simulated frame gets published to, so a renderer can draw the game without holding the engine's lock.
+	 * The engine only starts publishing frames once this has been called.
+	 * setGame() swaps in a brand new buffer, so readers should check whether it's changed every so often.
+	 *
+	 * @return the frame buffer for the current game
+	 */
+	public FrameBuffer getFrameBuffer(){
+		// renderers call this every frame, and step() holds the lock for the whole frame, so only take it to make the first buffer
+		FrameBuffer buffer = this.frameBuffer;
+		if (buffer != null){return buffer;}
+		synchronized (this){
+			if (this.frameBuffer == null){this.frameBuffer = new FrameBuffer(this.game, this.frames);}
+			return this.frameBuffer;
+		}
+	}
+
+	/**
+	 * Gets the log of every shot and placement made in the current game so far.
+	 *
+	 * @return the replay log, with its end marker set to the current frame
+	 */
+	public synchronized ReplayLog getLog(){
+		ReplayLog log = this.startLog();
+		log.end(this.frames, ReplayLog.hash(this.game));
+		return log;
+	}
+
+	// the log picks up the table's simulation mode when it's created, so it's only created once the game's actually underway
+	private ReplayLog startLog(){
+		if (this.log == null){this.log = new ReplayLog(this.game.seed, this.game.table.simulationMode, this.stepAccuracy, this.maxSubsteps);}
+		return this.log;
+	}
+
+	/**
+	 * Fires the cue ball, and records the shot in the replay log.
+	 *
+	 * @param xVel the velocity along the x axis the cue ball is fired at
+	 * @param yVel the velocity along the y axis the cue ball is fired at
+	 */
+	public synchronized void shoot(double xVel, double yVel){
+		this.startLog().add(new ReplayLog.Input(this.frames, ReplayLog.INPUT_SHOT, xVel, yVel));
+		this.game.table.getCueBall().setVelocity(xVel, yVel);
+	}
+
+	/**
+	 * Places the cue ball somewhere on the table after a foul, and records the placement in the replay log.
+	 * Whether the spot is actually free should be checked beforehand (see TableState.drawPlacePreview()).
+	 *
+	 * @param xPos the x coordinate the cue ball is placed at
+	 * @param yPos the y coordinate the cue ball is placed at
+	 */
+	public synchronized void place(double xPos, double yPos){
+		this.startLog().add(new ReplayLog.Input(this.frames, ReplayLog.INPUT_PLACE, xPos, yPos));
+		Ball cue = this.game.table.getCueBall();
+		cue.setPosition(xPos, yPos); cue.setVelocity(0, 0);
+		cue.setSunk(false);
+		this.game.foul = false;
+	}
+
+	/**
+	 * Gets whether the game is at rest: nothing's moving (or fading out in a pocket), and the end of the last shot has been dealt with.
+	 * Stepping a game that's at rest doesn't change anything, so schedulers can skip it until the next shot comes in (see TableScheduler).
+	 *
+	 * @return true if step() would leave the game exactly as it is
+	 */
+	public synchronized boolean isAtRest(){
+		return !this.game.table.moving && !this.game.lastMoving && this.game.table.getBallStore().awakeCount == 0;
+	}
+
+	/**
+	 * Gets how many frames have been simulated so far.
+	 *
+	 * @return the number of frames simulated
+	 */
+	public synchronized long getFrames(){
+		return this.frames;
+	}
+
+	/**
+	 * Gets how much time has been simulated so far.
+	 *
+	 * @return the amount of simulated time in seconds
+	 */
+	public synchronized double getSimTime(){
+		return this.frames * FRAME_TIME;
+	}
+
+	/**
+	 * Moves the game forward by exactly one frame (FRAME_TIME seconds), split into as many calls to GameState.moveTime()
+	 * as the fastest ball needs (see substeps() and setStepping()).
+	 */
+	public synchronized void step(){
+		long start = System.nanoTime();
+		this.startLog();
+		int substeps = substeps(this.game.table, this.stepAccuracy, this.maxSubsteps);
+		for (int i = 0; i < substeps; i++){
+			this.game.moveTime(FRAME_TIME/substeps);
+		}
+		this.frames++;
+		this.metrics.recordStep(System.nanoTime() - start, this.game.table);
+		if (this.frameBuffer != null){this.frameBuffer.publish(this.game, this.frames);}
+		this.notifyAll(); // wake up anything waiting on the next frame (see awaitFrame())
+	}
+
+	/**
+	 * Waits until the engine moves past some frame, so a renderer can draw exactly once per simulated frame.
+	 * Gives up after timeout milliseconds (e.g. if the engine's been stopped), so callers should be fine with nothing having changed.
+	 *
+	 * @param   frame the last frame the caller saw (see getFrames())
+	 * @param timeout the most time, in milliseconds, to wait for
+	 * @return        the frame the engine is on now
+	 */
+	public synchronized long awaitFrame(long frame, long timeout) throws InterruptedException {
+		// (checks for the frame count changing rather than going up, since setGame() starts it over from 0)
+		long deadline = System.currentTimeMillis() + timeout;
+		while (this.frames == frame){
+			long remaining = deadline - System.currentTimeMillis();
+			if (remaining <= 0){break;}
+			this.wait(remaining);
+		}
+		return this.frames;
+	}
+
+	/**
+	 * Moves the game forward as fast as possible by however many whole frames fit into some amount of time.
+	 * Useful for batch jobs where there's no reason to wait on the wall clock.
+	 *
+	 * @param time the amount of time, in seconds, that the game is moved forward
+	 */
+	public void advance(double time){
+		long n = Math.round(time / FRAME_TIME);
+		for (long i = 0; i < n; i++){
+			this.step();
+		}
+	}
+
+	/**
+	 * Starts simulating the game in real time on a separate thread.
+	 * Does nothing if the engine is already running.
+	 */
+	public synchronized void start(){
+		if (this.running){return;}
+		this.running = true;
+		this.thread = new Thread(this, "SimulationEngine");
+		this.thread.setDaemon(true);
+		this.thread.start();
+	}
+
+	/**
+	 * Stops the simulation thread and waits for it to finish its current frame.
+	 */
+	public void stop(){
+		Thread t;
+		synchronized (this){
+			this.running = false;
+			t = this.thread; this.thread = null;
+		}
+		if (t != null && t != Thread.currentThread()){
+			t.interrupt();
+			try {t.join();}
+			catch (InterruptedException e) {Thread.currentThread().interrupt();}
+		}
+	}
+
+	/**
+	 * Gets whether the simulation thread is currently running.
+	 *
+	 * @return true if start() has been called without a matching stop()
+	 */
+	public boolean isRunning(){
+		return this.running;
+	}
+
+	// fixed timestep loop; see https://gafferongames.com/post/fix_your_timestep/
+	// wall clock time goes into an accumulator and gets drained in FRAME_TIME sized chunks,
+	// so the simulation runs at the same rate no matter how often (or how late) we get scheduled
+	@Override
+	public void run(){
+		long frameNanos = (long)(FRAME_TIME * 1e9);
+		long previous = System.nanoTime();
+		long accumulator = 0;
+
+		while (this.running){
+			long current = System.nanoTime();
+			accumulator += current - previous; previous = current;
+
+			// if we fell really far behind (stalled thread, suspended process, etc.) just drop the extra time
+			// otherwise we'd spend forever catching up and fall even further behind
+			accumulator = Math.min(accumulator, MAX_CATCH_UP * frameNanos);
+
+			while (accumulator >= frameNanos){
+				this.step();
+				accumulator -= frameNanos;
+			}
+
+			// sleep until the next frame is due
+			long sleep = (frameNanos - accumulator) / 1000000;
+			if (sleep > 0){
+				try {
+					Thread.sleep(sleep);
+				}
+				catch (InterruptedException e) {}
+			}
+		}
+	}
+
+	/**
+	 * Runs a break shot headlessly and prints out how it went.
+	 * Mostly useful for checking that the simulation works without a display.
+	 * Takes --event-driven to use TableState.MODE_EVENT_DRIVEN, --seed n to pick the rack,
+	 * and --record file to write the game's ReplayLog out to a file afterwards.
+	 */
+	public static void main(String[] args) throws java.io.IOException {
+		System.setProperty("java.awt.headless", "true");
+
+		GameState game = null; String record = null; boolean eventDriven = false;
+		for (int i = 0; i < args.length; i++){
+			if (args[i].equals("--event-driven")){eventDriven = true;}
+			else if (args[i].equals("--seed")){game = new GameState(Long.parseLong(args[++i]));}
+			else if (args[i].equals("--record")){record = args[++i];}
+		}
+
+		SimulationEngine engine = new SimulationEngine(game != null ? game : new GameState());
+		if (eventDriven){
+			engine.getGame().table.simulationMode = TableState.MODE_EVENT_DRIVEN;
+		}
+		engine.shoot(1200, 5);
+
+		long start = System.nanoTime();
+		do {
+			engine.step();
+		} while (engine.getGame().table.moving && engine.getSimTime() < 60);
+		long elapsed = System.nanoTime() - start;
+
+		game = engine.getGame();
+		System.out.println("Simulated " + engine.getFrames() + " frames (" + engine.getSimTime() + "s) in " + elapsed/1e6 + "ms");
+		System.out.println("Sunk by type: " + java.util.Arrays.toString(game.table.sunkByType) + "; turn: " + game.turn + "; foul: " + game.foul);
+
+		if (record != null){
+			try (java.io.Writer out = new java.io.FileWriter(record)){engine.getLog().write(out);}
+		}
+	}
+}
@@ -0,0 +1,306 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Runs lots of games in real time on a small, fixed pool of threads, rather than giving each SimulationEngine a thread of its own.
+ *
+ * One ticker thread wakes up every FRAME_TIME and hands every table that's due for a frame to the pool. Each table gets a
+ * single task at a time, which simulates whatever frames it owes and then goes to the back of the line, so a table
+ * with a busy break shot can't starve the tables queued up behind it. Tables that are at rest (see SimulationEngine.isAtRest())
+ * aren't handed out at all until a shot wakes them up again, so an idle table costs next to nothing.
+ *
+ * Every frame has a deadline: the point it's supposed to be shown at. A table that falls more than SimulationEngine.MAX_CATCH_UP
+ * frames behind (because the pool's overloaded, or the table itself is too slow) drops the extra time, the same way
+ * SimulationEngine.run() does, and gets flagged as lagging for a while (see getLagging()).
+ *
+ * Engines added here shouldn't be start()ed, since the scheduler steps them itself. Inputs (shoot(), place(), etc.) can still
+ * be sent to them from any thread, since the engine synchronizes those against step() as usual; but that means waiting for
+ * whatever frame the pool is on. Anything that can't wait (like a network thread) can hand them to the table's own task
+ * with Table.submit() instead, which runs them right before the table's next frame.
+ */
+public class TableScheduler {
+	public static final long LAG_NANOS = 1000000000L; // how long a table stays flagged as lagging after it last dropped a frame
+
+	private static final long FRAME_NANOS = (long)(SimulationEngine.FRAME_TIME * 1e9);
+
+	/**
+	 * A game being run by the scheduler, along with how well it's been keeping up.
+	 */
+	public static class Table implements Runnable {
+		public final SimulationEngine engine;
+		private final TableScheduler scheduler;
+		private long due;               // when the next frame is due (ticker thread while idle, pool thread while queued)
+		private volatile boolean queued; // whether there's a task for this table in the pool right now
+		private volatile boolean removed;
+		private volatile long framesRun, framesDropped, lastDropped;
+		private final ConcurrentLinkedQueue<Runnable> commands = new ConcurrentLinkedQueue<Runnable>(); // see submit()
+
+		Table(TableScheduler scheduler, SimulationEngine engine){
+			this.scheduler = scheduler; this.engine = engine;
+			this.lastDropped = System.nanoTime() - LAG_NANOS; // (not Long.MIN_VALUE, since isLagging() would overflow)
+		}
+
+		public long getFramesRun(){return this.framesRun;}
+		public long getFramesDropped(){return this.framesDropped;}
+
+		/**
+		 * Hands something to do with the engine (checking whether a shot's allowed and taking it, say) to this table's own task,
+		 * which runs it on the pool right before the table's next frame, so whoever submits it never has to wait on a frame
+		 * that's being simulated. Commands run in the order they were submitted, and a table at rest still gets woken up for them.
+		 * Commands still waiting when the table's removed are dropped.
+		 *
+		 * @param command what to run; it's the only thing touching the engine while it runs
+		 */
+		public void submit(Runnable command){
+			this.commands.add(command);
+		}
+
+		/**
+		 * Gets whether this table dropped any frames recently (within the last LAG_NANOS).
+		 *
+		 * @return true if the table's been falling behind
+		 */
+		public boolean isLagging(){
+			return System.nanoTime() - this.lastDropped < LAG_NANOS;
+		}
+
+		// simulates every frame that's come due, up to SimulationEngine.MAX_CATCH_UP of them; runs on the pool
+		@Override
+		public void run(){
+			try {
+				Runnable command;
+				while (!this.removed && (command = this.commands.poll()) != null){command.run();}
+
+				long start = System.nanoTime();
+				long owed = (start - this.due)/FRAME_NANOS + 1;
+				if (owed > SimulationEngine.MAX_CATCH_UP){
+					// too far behind to catch up on everything, so drop the oldest frames rather than falling even further behind
+					long dropped = owed - SimulationEngine.MAX_CATCH_UP;
+					this.framesDropped += dropped; this.lastDropped = start; this.scheduler.dropped.addAndGet((int)Math.min(dropped, Integer.MAX_VALUE));
+					this.due += dropped*FRAME_NANOS; owed = SimulationEngine.MAX_CATCH_UP;
+				}
+				for (long i = 0; i < owed && !this.removed; i++){
+					this.engine.step();
+					this.due += FRAME_NANOS;
+				}
+				this.framesRun += owed;
+				this.scheduler.ticks.get().record(System.nanoTime() - start);
+			}
+			finally {
+				this.queued = false;
+			}
+		}
+	}
+
+	// how long each table's task took, kept per worker so the pool's threads never wait on each other to record it (see getTickLatency())
+	private final List<PerformanceMetrics.Window> workerTicks = new CopyOnWriteArrayList<PerformanceMetrics.Window>();
+	private final ThreadLocal<PerformanceMetrics.Window> ticks = ThreadLocal.withInitial(() -> {
+		PerformanceMetrics.Window window = new PerformanceMetrics.Window();
+		this.workerTicks.add(window);
+		return window;
+	});
+
+	private final List<Table> tables = new CopyOnWriteArrayList<Table>();
+	private final int threads;
+	private final AtomicInteger dropped = new AtomicInteger(); // frames dropped by every table, since the last call to getDroppedFrames()
+	private volatile long skipped; // table-ticks skipped because the table was at rest (ticker thread only writes it)
+	private ExecutorService pool;
+	private Thread ticker;
+	private volatile boolean running;
+
+	/**
+	 * Creates a scheduler that steps its tables on some number of threads.
+	 *
+	 * @param threads the size of the pool (the number of cores is a good place to start)
+	 */
+	public TableScheduler(int threads){
+		this.threads = threads;
+	}
+
+	/**
+	 * Starts running a game. Its first frame is due right away.
+	 *
+	 * @param engine the engine for the game; shouldn't be running on a thread of its own
+	 * @return       the table the game is running on, for keeping tabs on it or removing it later
+	 */
+	public Table add(SimulationEngine engine){
+		if (engine.isRunning()){throw new IllegalArgumentException("The engine is already running on its own thread.");}
+		Table table = new Table(this, engine);
+		table.due = System.nanoTime();
+		this.tables.add(table);
+		return table;
+	}
+
+	/**
+	 * Stops running a game. If its task is in the middle of running, it stops after the frame it's on.
+	 *
+	 * @param table the table being removed
+	 */
+	public void remove(Table table){
+		table.removed = true;
+		this.tables.remove(table);
+	}
+
+	public int getTableCount(){return this.tables.size();}
+
+	/**
+	 * Gets every table that's dropped frames recently (see Table.isLagging()).
+	 *
+	 * @return the lagging tables, in the order they were added
+	 */
+	public List<Table> getLagging(){
+		List<Table> lagging = new ArrayList<Table>();
+		for (Table table : this.tables){
+			if (table.isLagging()){lagging.add(table);}
+		}
+		return lagging;
+	}
+
+	/**
+	 * Gets how many frames have been dropped (across every table) since the last call, and starts the count over.
+	 *
+	 * @return the number of frames dropped
+	 */
+	public int getDroppedFrames(){
+		return this.dropped.getAndSet(0);
+	}
+
+	/**
+	 * Gets how many times a table's frame was skipped because nothing on it was moving.
+	 *
+	 * @return the number of skipped table-frames since the scheduler was created
+	 */
+	public long getSkippedFrames(){
+		return this.skipped;
+	}
+
+	/**
+	 * Gets how long tables' tasks took (running any commands and stepping every frame they were owed), across every worker in the pool.
+	 *
+	 * @param p the fraction of tasks, from 0 to 1 (e.g. 0.99 for p99, or 1 for the max)
+	 * @return  the latency in nanoseconds, or 0 if no tasks have run yet
+	 */
+	public long getTickLatency(double p){
+		return PerformanceMetrics.Window.percentile(p, this.workerTicks);
+	}
+
+	/**
+	 * Starts the ticker thread and the pool. Does nothing if the scheduler is already running.
+	 */
+	public synchronized void start(){
+		if (this.running){return;}
+		this.running = true;
+		this.workerTicks.clear(); // the last pool's workers are gone
+		AtomicInteger count = new AtomicInteger();
+		this.pool = Executors.newFixedThreadPool(this.threads, r -> {
+			Thread t = new Thread(r, "TableScheduler-" + count.incrementAndGet()); t.setDaemon(true);
+			return t;
+		});
+		this.ticker = new Thread(this::tick, "TableScheduler"); this.ticker.setDaemon(true);
+		this.ticker.start();
+	}
+
+	/**
+	 * Stops the ticker and waits for every table's task to finish the frames it's on.
+	 */
+	public void stop(){
+		Thread t; ExecutorService p;
+		synchronized (this){
+			this.running = false;
+			t = this.ticker; p = this.pool; this.ticker = null; this.pool = null;
+		}
+		if (t == null){return;}
+		try {
+			t.join();
+			p.shutdown(); p.awaitTermination(1, TimeUnit.MINUTES);
+		}
+		catch (InterruptedException e) {Thread.currentThread().interrupt();}
+	}
+
+	// the ticker thread: every FRAME_TIME, queue up every table that's due for a frame, isn't already queued, and isn't at rest
+	// (or has commands waiting; see Table.submit())
+	private void tick(){
+		ExecutorService pool = this.pool;
+		long next = System.nanoTime();
+		while (this.running){
+			long now = System.nanoTime();
+			for (Table table : this.tables){
+				if (table.queued || now < table.due){continue;}
+				if (table.commands.isEmpty() && table.engine.isAtRest()){
+					table.due = now + FRAME_NANOS; this.skipped++; // nothing to catch up on once it wakes up
+					continue;
+				}
+				table.queued = true;
+				pool.execute(table);
+			}
+
+			next += FRAME_NANOS;
+			long sleep = next - System.nanoTime();
+			if (sleep > 0){LockSupport.parkNanos(sleep);}
+			else {next = System.nanoTime();} // the ticker itself fell behind; don't try to make it up with a burst of ticks
+		}
+	}
+
+	/**
+	 * Load tests the scheduler: runs a bunch of tables at once, with a bot on every table that takes a random shot
+	 * whenever its table comes to rest, and prints out how well the pool kept up every second.
+	 * Takes --tables n (1000 by default), --threads n (one per core by default), --seconds n (10 by default) and --event-driven.
+	 */
+	public static void main(String[] args){
+		System.setProperty("java.awt.headless", "true");
+		int tables = 1000; int threads = Runtime.getRuntime().availableProcessors(); int seconds = 10; boolean eventDriven = false;
+		for (int i = 0; i < args.length; i++){
+			if (args[i].equals("--tables")){tables = Integer.parseInt(args[++i]);}
+			else if (args[i].equals("--threads")){threads = Integer.parseInt(args[++i]);}
+			else if (args[i].equals("--seconds")){seconds = Integer.parseInt(args[++i]);}
+			else if (args[i].equals("--event-driven")){eventDriven = true;}
+		}
+
+		TableScheduler scheduler = new TableScheduler(threads);
+		List<Table> running = new ArrayList<Table>();
+		for (int i = 0; i < tables; i++){
+			GameState game = new GameState(i);
+			if (eventDriven){game.table.simulationMode = TableState.MODE_EVENT_DRIVEN;}
+			running.add(scheduler.add(new SimulationEngine(game)));
+		}
+		System.out.println("Running " + tables + " tables on " + threads + " threads for " + seconds + "s");
+		scheduler.start();
+
+		// the "players": every so often, shoot on every table that's come to rest (placing the cue ball first if it was sunk)
+		SplittableRandom random = new SplittableRandom(42);
+		long end = System.nanoTime() + seconds*1000000000L; long report = System.nanoTime() + 1000000000L;
+		long lastFrames = 0;
+		while (System.nanoTime() < end){
+			for (Table table : running){
+				SimulationEngine engine = table.engine;
+				synchronized (engine){
+					if (!engine.isAtRest()){continue;}
+					if (engine.getGame().groups[0] == 3 || engine.getGame().groups[1] == 3){engine.setGame(new GameState(random.nextLong())); continue;}
+					if (engine.getGame().foul){engine.place(56, 56);}
+					double angle = random.nextDouble(2*Math.PI); double speed = random.nextDouble(200, BallController.MAX_SHOT_SPEED);
+					engine.shoot(speed*Math.cos(angle), speed*Math.sin(angle));
+				}
+			}
+			LockSupport.parkNanos(100000000L);
+
+			if (System.nanoTime() >= report){
+				report += 1000000000L;
+				long frames = 0;
+				for (Table table : running){frames += table.getFramesRun();}
+				System.out.printf("%6d frames/s  tick p50 %7.1fus  p99 %7.1fus  max %7.1fus  %5d dropped  %4d lagging  %8d skipped at rest%n",
+					frames - lastFrames, scheduler.getTickLatency(0.5)/1e3, scheduler.getTickLatency(0.99)/1e3, scheduler.getTickLatency(1)/1e3,
+					scheduler.getDroppedFrames(), scheduler.getLagging().size(), scheduler.getSkippedFrames());
+				lastFrames = frames;
+			}
+		}
+		scheduler.stop();
+	}
+}
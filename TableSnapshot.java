@@ -0,0 +1,32 @@
+/**
+ * A copy of everything about a TableState that changes as the balls move around, as saved by TableState.save().
+ * Walls, pockets and the balls' sizes and types never change, so they aren't part of it;
+ * a snapshot can be restored into the table it came from or into any copy of that table (see TableState(TableState)).
+ */
+class TableSnapshot {
+	public final double[] xPos, yPos;
+	public final double[] xVel, yVel;
+	public final boolean[] sunk; public final double[] sunkTime;
+	public final int[] awake, awakeSlot; public int awakeCount; public long wakes;
+
+	public double time;
+	public boolean moving; public int movingCount;
+	public final int[] movingByType, sunkByType;
+	public final int[] movingAs, sunkAs;
+
+	/**
+	 * Creates a snapshot of a table as it is right now.
+	 *
+	 * @param table the table being saved
+	 */
+	public TableSnapshot(TableState table){
+		int n = table.getBallCount();
+		this.xPos = new double[n]; this.yPos = new double[n];
+		this.xVel = new double[n]; this.yVel = new double[n];
+		this.sunk = new boolean[n]; this.sunkTime = new double[n];
+		this.awake = new int[n]; this.awakeSlot = new int[n];
+		this.movingByType = new int[4]; this.sunkByType = new int[4];
+		this.movingAs = new int[n]; this.sunkAs = new int[n];
+		table.save(this);
+	}
+}
@@ -1,28 +1,159 @@
 import java.awt.*;
+import java.awt.image.BufferedImage;
 import java.util.*;
 
 /**
  * Represents a Table surface as well as the various Balls which are on top of it.
  */
 class TableState {
+	public static final int MODE_FIXED_STEP = 0;   // move every ball forward in small steps, then fix up any overlaps (CollisionHandler)
+	public static final int MODE_EVENT_DRIVEN = 1; // jump straight from one collision to the next (EventSimulator)
+	public static final double RESTITUTION = 0.95; // coefficient of restitution for every collision on the table
+
 	public final int w, h;
 	private final double friction;
+	public int simulationMode;
+	private EventSimulator eventSimulator;
 	private ArrayList<Ball> balls; private Ball cueBall; private Ball eightBall;
+	private BallStore store; // where the balls' positions, velocities, etc. actually live; this.balls are views onto it
+	public double time; // how much simulated time the table's been moved forward, in seconds; what events get timestamped with
+	private CollisionEvents events;
 	public boolean moving; public int[] movingByType;
 	public int[] sunkByType;
+	private int movingCount; private int[] movingAs, sunkAs; // what each ball was last counted as in movingByType/sunkByType (-1 if it wasn't)
 	private ArrayList<Wall> walls;
 	private ArrayList<Pocket> pockets;
+	private BallGrid grid; private int[] neighbors; private double maxRadius, minRadius; private boolean gridStale;
+	private GeometryGrid geometry; private int[] nearWalls, nearPockets;
+	private int touched;           // the index of whatever touching() last found
+
+	// running totals of how much work the table's been doing, for PerformanceMetrics (which zeroes them again as it reads them)
+	// nothing in the simulation reads these, and copies of the table start over from 0
+	public long substeps;           // calls to moveTime()
+	public long narrowPhaseTests;   // exact checks between a ball and another ball, a wall or a pocket
+	public long collisionsResolved; // how many of those checks actually found something to bounce off of
+	public long castIterations;     // balls, walls and pockets looked at by castBall() (and so nextCollisionPoint())
+
+	/**
+	 * The circles the shot and placement previews draw. Java2D allocates a little every time it draws an oval (outlined or filled),
+	 * so like Ball does with its sprites, each one is only drawn once for every color, size and antialiasing setting and copied over from then on.
+	 * Only touched by the drawing code, so a table that's never drawn never loads any of AWT.
+	 */
+	private static class Overlay {
+		static final Color INVALID_PLACE_COLOR = new Color(255, 0, 0, 127);
+		static final int MAX_SPRITE_SIZE = 1024; // circles wider than this (in pixels) are just drawn directly
+		static final int SPRITE_PADDING = 2;     // extra room around the circle in its sprite, for its antialiased edge
+
+		private static volatile Overlay[] overlays = new Overlay[0]; // every color and style that's been drawn so far (there's only a handful)
+
+		final Color color; final boolean filled;
+		final BufferedImage[][] sprites = new BufferedImage[2][MAX_SPRITE_SIZE]; // indexed by whether they're antialiased, then by size
+
+		private Overlay(Color color, boolean filled){
+			this.color = color; this.filled = filled;
+		}
+
+		/**
+		 * Draws a circle the same as g.drawOval(x, y, size, size) (or g.fillOval(), if filled) would.
+		 * 
+		 * @param      g the Graphics object being drawn onto (its rendering hints are used for the sprite too)
+		 * @param  color the color to draw the circle in
+		 * @param filled whether the circle's filled in, or just an outline
+		 * @param      x the x coordinate of the left of the circle
+		 * @param      y the y coordinate of the top of the circle
+		 * @param   size the width (and height) of the circle
+		 */
+		static void drawCircle(Graphics g, Color color, boolean filled, int x, int y, int size){
+			if (!(g instanceof Graphics2D) || size < 0 || size >= MAX_SPRITE_SIZE){
+				g.setColor(color);
+				if (filled){g.fillOval(x, y, size, size);}
+				else {g.drawOval(x, y, size, size);}
+				return;
+			}
+			Graphics2D g2d = (Graphics2D)g;
+			boolean antialiased = (g2d.getRenderingHint(RenderingHints.KEY_ANTIALIASING) == RenderingHints.VALUE_ANTIALIAS_ON);
+			BufferedImage[] sprites = Overlay.get(color, filled).sprites[antialiased ? 1 : 0];
+
+			BufferedImage sprite = sprites[size];
+			if (sprite == null){ // (if two threads get here at once, they'll both draw the exact same thing, so it doesn't matter which one wins)
+				int s = size + 1 + 2*SPRITE_PADDING;
+				sprite = g2d.getDeviceConfiguration().createCompatibleImage(s, s, Transparency.TRANSLUCENT);
+				Graphics2D sg = sprite.createGraphics();
+				sg.setRenderingHints(g2d.getRenderingHints());
+				sg.setColor(color);
+				if (filled){sg.fillOval(SPRITE_PADDING, SPRITE_PADDING, size, size);}
+				else {sg.drawOval(SPRITE_PADDING, SPRITE_PADDING, size, size);}
+				sg.dispose();
+				sprites[size] = sprite;
+			}
+			g2d.drawImage(sprite, x - SPRITE_PADDING, y - SPRITE_PADDING, null);
+		}
+
+		// finds the sprites for some color and style, making room for them if they haven't been drawn before
+		private static Overlay get(Color color, boolean filled){
+			Overlay[] known = overlays;
+			for (Overlay o : known){
+				if (o.filled == filled && o.color.equals(color)){return o;}
+			}
+			synchronized (Overlay.class){
+				for (Overlay o : overlays){
+					if (o.filled == filled && o.color.equals(color)){return o;}
+				}
+				Overlay o = new Overlay(color, filled);
+				Overlay[] grown = Arrays.copyOf(overlays, overlays.length + 1); grown[grown.length - 1] = o;
+				overlays = grown;
+				return o;
+			}
+		}
+	}
 
 	public TableState(int w, int h){
 		this.w = w; this.h = h; 
 		this.friction = 200;
 		
 		this.balls = new ArrayList<Ball>();
+		this.store = new BallStore(16);
 		this.walls = new ArrayList<Wall>();
 		this.pockets = new ArrayList<Pocket>();
 
 		this.moving = false; this.movingByType = new int[4];
 		this.sunkByType = new int[4];
+		this.movingCount = 0; this.movingAs = new int[0]; this.sunkAs = new int[0];
+		this.simulationMode = TableState.MODE_FIXED_STEP;
+		this.time = 0; this.events = new CollisionEvents();
+	}
+
+	/**
+	 * Creates a copy of another table that can be moved forward independently of it.
+	 * The balls are copied, but the walls and pockets are shared with the other table since they never change once they're placed.
+	 * 
+	 * @param other The table being copied.
+	 */
+	public TableState(TableState other){
+		this.w = other.w; this.h = other.h;
+		this.friction = other.friction;
+
+		this.store = new BallStore(other.store);
+		this.balls = new ArrayList<Ball>(other.balls.size());
+		for (int i = 0; i < other.balls.size(); i++){
+			Ball ball = new Ball(other.balls.get(i), this.store, i);
+			this.balls.add(ball);
+			if (other.balls.get(i) == other.cueBall){this.cueBall = ball;}
+			if (other.balls.get(i) == other.eightBall){this.eightBall = ball;}
+		}
+		this.walls = new ArrayList<Wall>(other.walls);
+		this.pockets = new ArrayList<Pocket>(other.pockets);
+
+		this.moving = other.moving; this.movingByType = other.movingByType.clone();
+		this.sunkByType = other.sunkByType.clone();
+		this.movingCount = other.movingCount; this.movingAs = other.movingAs.clone(); this.sunkAs = other.sunkAs.clone();
+		this.simulationMode = other.simulationMode;
+		this.time = other.time; this.events = new CollisionEvents(); // (the copy only gets the events that happen to it from here on)
+
+		// the broad phase grid gets rebuilt on the first call to moveTime(), but the geometry grid never changes so it can be shared too
+		this.maxRadius = other.maxRadius; this.minRadius = other.minRadius;
+		this.geometry = other.geometry;
+		if (this.geometry != null){this.nearWalls = new int[walls.size()]; this.nearPockets = new int[pockets.size()];}
 	}
 
 	/** 
@@ -42,7 +173,13 @@ class TableState {
 			// make this ball the cueball/8ball if there isn't one already
 			this.cueBall = (ball.type == Ball.TYPE_CUEBALL) ? ball : this.cueBall;
 			this.eightBall = (ball.type == Ball.TYPE_8BALL) ? ball : this.eightBall;
+			ball.attach(this.store, this.store.add(ball.radius, ball.mass, ball.type)); // move the ball's state into this table's store
 			this.balls.add(ball);
+
+			// the new ball hasn't been counted as moving or sunk yet; that happens the next time moveTime() is called
+			this.movingAs = Arrays.copyOf(this.movingAs, this.balls.size()); this.movingAs[this.balls.size()-1] = -1;
+			this.sunkAs = Arrays.copyOf(this.sunkAs, this.balls.size()); this.sunkAs[this.balls.size()-1] = -1;
+			this.growBroadPhase(ball.radius);
 		}
 	}
 
@@ -53,6 +190,7 @@ class TableState {
 	 */
 	public void addWall(Wall wall){
 		this.walls.add(wall);
+		this.geometry = null;
 	}
 
 	/** 
@@ -62,6 +200,7 @@ class TableState {
 	 */
 	public void addPocket(Pocket pocket){
 		this.pockets.add(pocket);
+		this.geometry = null;
 	}
 
 	/** 
@@ -112,6 +251,86 @@ class TableState {
 		return this.pockets.get(i);
 	}
 
+	/** 
+	 * Gets the store holding the state of every ball on the table, in the same order as getBall().
+	 * Meant for code that needs to run over every ball quickly, like EventSimulator.
+	 * 
+	 * @return The store that this.balls are views onto.
+	 */
+	BallStore getBallStore(){
+		return this.store;
+	}
+
+	/**
+	 * Gets the buffer that every collision and sinking gets written into as moveTime() moves the balls around.
+	 * Anything reading from it should catch up at least once a frame (see CollisionEvents).
+	 * 
+	 * @return The events that have happened on this table.
+	 */
+	public CollisionEvents getEvents(){
+		return this.events;
+	}
+
+	/** 
+	 * Gets the number of balls on the table, including sunken ones.
+	 * 
+	 * @return The size of this.balls.
+	 */
+	public int getBallCount(){
+		return this.balls.size();
+	}
+
+	/** 
+	 * Gets the number of walls on the table.
+	 * 
+	 * @return The size of this.walls.
+	 */
+	public int getWallCount(){
+		return this.walls.size();
+	}
+
+	/** 
+	 * Gets the number of pockets on the table.
+	 * 
+	 * @return The size of this.pockets.
+	 */
+	public int getPocketCount(){
+		return this.pockets.size();
+	}
+
+	/** 
+	 * Gets the radius of the smallest ball on the table.
+	 * 
+	 * @return The smallest radius of any ball that's been put onto the table (0 if there aren't any).
+	 */
+	public double getMinRadius(){
+		return this.minRadius;
+	}
+
+	/** 
+	 * Gets how fast the fastest ball on the table is going. Only awake balls get looked at, since sleeping balls aren't moving.
+	 * 
+	 * @return The highest speed of any ball on the table.
+	 */
+	public double getMaxSpeed(){
+		BallStore s = this.store;
+		double max = 0;
+		for (int k = 0; k < s.awakeCount; k++){
+			int i = s.awake[k];
+			max = Math.max(max, s.xVel[i]*s.xVel[i] + s.yVel[i]*s.yVel[i]);
+		}
+		return Math.sqrt(max);
+	}
+
+	/** 
+	 * Gets the friction of the table's surface.
+	 * 
+	 * @return The rate at which velocity decreases over time (velocity decreases by 1*friction every second).
+	 */
+	public double getFriction(){
+		return this.friction;
+	}
+
 	/**
 	 * Replaces a ball in this.balls with another ball passed in as a parameter.
 	 * 
@@ -119,65 +338,247 @@ class TableState {
 	 * @param ball The ball that we're going to replace this.balls[i] with.
 	 */
 	public void replaceBall(int i, Ball ball){
+		this.balls.get(i).detach(); // the old ball shouldn't keep viewing a slot that belongs to the new ball now
+		ball.attach(this.store, i);
 		this.balls.set(i, ball);
+		this.growBroadPhase(ball.radius);
+	}
+
+	/**
+	 * Copies the state of every ball on the table, along with which balls are moving/sunk, into a snapshot.
+	 * Doesn't allocate anything, so it's fine to call as often as needed.
+	 * 
+	 * @param snapshot The snapshot being written into. Should have been created from this table or a copy of it.
+	 */
+	public void save(TableSnapshot snapshot){
+		BallStore s = this.store; int n = s.size;
+		if (snapshot.xPos.length != n){throw new IllegalArgumentException("Snapshot has " + snapshot.xPos.length + " balls, but the table has " + n + ".");}
+
+		System.arraycopy(s.xPos, 0, snapshot.xPos, 0, n); System.arraycopy(s.yPos, 0, snapshot.yPos, 0, n);
+		System.arraycopy(s.xVel, 0, snapshot.xVel, 0, n); System.arraycopy(s.yVel, 0, snapshot.yVel, 0, n);
+		System.arraycopy(s.sunk, 0, snapshot.sunk, 0, n); System.arraycopy(s.sunkTime, 0, snapshot.sunkTime, 0, n);
+		System.arraycopy(s.awake, 0, snapshot.awake, 0, n); System.arraycopy(s.awakeSlot, 0, snapshot.awakeSlot, 0, n);
+		snapshot.awakeCount = s.awakeCount; snapshot.wakes = s.wakes;
+
+		snapshot.time = this.time;
+		snapshot.moving = this.moving; snapshot.movingCount = this.movingCount;
+		System.arraycopy(this.movingByType, 0, snapshot.movingByType, 0, 4); System.arraycopy(this.sunkByType, 0, snapshot.sunkByType, 0, 4);
+		System.arraycopy(this.movingAs, 0, snapshot.movingAs, 0, n); System.arraycopy(this.sunkAs, 0, snapshot.sunkAs, 0, n);
+	}
+
+	/**
+	 * Puts every ball on the table back the way it was when a snapshot was saved.
+	 * Doesn't allocate anything, so it's fine to call as often as needed.
+	 * 
+	 * @param snapshot The snapshot being restored. Should have been saved from this table or a copy of it.
+	 */
+	public void restore(TableSnapshot snapshot){
+		BallStore s = this.store; int n = s.size;
+		if (snapshot.xPos.length != n){throw new IllegalArgumentException("Snapshot has " + snapshot.xPos.length + " balls, but the table has " + n + ".");}
+
+		System.arraycopy(snapshot.xPos, 0, s.xPos, 0, n); System.arraycopy(snapshot.yPos, 0, s.yPos, 0, n);
+		System.arraycopy(snapshot.xVel, 0, s.xVel, 0, n); System.arraycopy(snapshot.yVel, 0, s.yVel, 0, n);
+		System.arraycopy(snapshot.sunk, 0, s.sunk, 0, n); System.arraycopy(snapshot.sunkTime, 0, s.sunkTime, 0, n);
+		System.arraycopy(snapshot.awake, 0, s.awake, 0, n); System.arraycopy(snapshot.awakeSlot, 0, s.awakeSlot, 0, n);
+		s.awakeCount = snapshot.awakeCount; s.wakes = snapshot.wakes;
+
+		this.time = snapshot.time;
+		this.moving = snapshot.moving; this.movingCount = snapshot.movingCount;
+		System.arraycopy(snapshot.movingByType, 0, this.movingByType, 0, 4); System.arraycopy(snapshot.sunkByType, 0, this.sunkByType, 0, 4);
+		System.arraycopy(snapshot.movingAs, 0, this.movingAs, 0, n); System.arraycopy(snapshot.sunkAs, 0, this.sunkAs, 0, n);
+
+		this.gridStale = true; // the balls could be anywhere now
+		if (this.eventSimulator != null){this.eventSimulator.invalidate();}
+	}
+
+	/**
+	 * Makes sure the broad phase grids have room for every ball and that they're built for a ball of some radius.
+	 * The grids are thrown away here and rebuilt the next time moveTime() is called.
+	 *
+	 * @param radius the radius of a ball that was just put onto the table
+	 */
+	private void growBroadPhase(double radius){
+		if (radius > this.maxRadius){this.geometry = null;}
+		this.maxRadius = Math.max(this.maxRadius, radius);
+		this.minRadius = (this.minRadius == 0) ? radius : Math.min(this.minRadius, radius); // (replaceBall() can only ever make this too small, which is the safe direction)
+		this.grid = null;
 	}
 
 	/**
 	 * Moves all the Balls around a certain amount of time.
 	 * Also handles inter-ball collisions, wall collisions and pocket detection for each of the balls as they move.
+	 * How this is done depends on this.simulationMode; see MODE_FIXED_STEP and MODE_EVENT_DRIVEN.
+	 * 
+	 * Either way, only balls that are awake get looked at. Balls fall asleep once they stop moving (see updateSleeping())
+	 * and only wake up again when something touches them, so a table full of still balls costs next to nothing.
 	 * 
 	 * @param time the amount of time, in seconds, that all the balls are moved forward
 	 */
 	public void moveTime(double time){
-		this.moving = false; this.movingByType = new int[4];
-		this.sunkByType = new int[4];
+		this.substeps++;
+		if (this.simulationMode == TableState.MODE_EVENT_DRIVEN){
+			if (this.eventSimulator == null){this.eventSimulator = new EventSimulator(this);}
+			this.eventSimulator.moveTime(time);
+			this.grid = null; // the event simulator doesn't keep the grid up to date
+		}
+		else {
+			this.stepTime(time);
+		}
+		this.time += time;
+		this.updateSleeping();
+	}
 
-		// shuffle the ball ordering around
-		int[] ball_order = new int[balls.size()];
-		for (int i = 0; i < ball_order.length; i++) {ball_order[i] = i;}
-		Collections.shuffle(Arrays.asList(ball_order));
-		
-		// move the balls
-		for (int b = 0; b < ball_order.length; b++) {
-			int i = ball_order[b];
-			getBall(i).moveTime(time, this.friction);
-			
-			// handle collisions between ball i and every other ball
-			for (int j = 0; j < balls.size(); j++) {
-				if (i != j){ // dont check for collision with itself
-					CollisionHandler.handleBallCollisions(getBall(i), getBall(j), this.friction, 0.95);
+	/**
+	 * Moves all the Balls forward a small amount of time one at a time, resolving each ball's collisions right after it moves.
+	 * Used when this.simulationMode is MODE_FIXED_STEP. Works best when time is small, since fast balls can pass through each other otherwise.
+	 * 
+	 * @param time the amount of time, in seconds, that all the balls are moved forward
+	 */
+	private void stepTime(double time){
+		BallStore s = this.store;
+
+		// (re)build the broad phase grid if a ball was added since the last call
+		// cells are one ball diameter across, so colliding balls are always in the same or adjacent cells
+		// sleeping balls stay in the grid between calls, so awake balls can still run into them
+		// (sunken balls can't collide with other balls, so there's no point in tracking them)
+		// it also gets refilled (but not reallocated) if the balls were moved around by restore()
+		if (this.grid == null){
+			double cellSize = Math.max(2*this.maxRadius, 1);
+			this.grid = new BallGrid(0, 0, this.w, this.h, cellSize);
+			this.neighbors = new int[s.size];
+			this.gridStale = true;
+		}
+		if (this.gridStale){
+			this.grid.clear(s.size);
+			this.gridStale = false;
+			for (int i = 0; i < s.size; i++) {
+				if (!s.sunk[i]){this.grid.insert(i, s.xPos[i], s.yPos[i]);}
+			}
+		}
+
+		// (re)build the grid of walls and pockets if any were added since the last call
+		if (this.geometry == null){
+			this.geometry = new GeometryGrid(this.walls, this.pockets, this.maxRadius, Math.max(4*this.maxRadius, 1));
+			this.nearWalls = new int[walls.size()]; this.nearPockets = new int[pockets.size()];
+		}
+
+		int tests = 0; int resolved = 0;
+		double now = this.time + time; // collisions get found at the end of the step, so that's when they're stamped with
+
+		// same order as always: each ball moves, then bounces off of the balls near it, then off of the walls and into the pockets near it,
+		// before the next ball gets its turn (in index order)
+		// sleeping balls just skip their turn. a sleeping ball that gets hit is woken up by CollisionHandler, so if its turn hasn't come yet
+		// it gets one, and anything it's touching wakes up in turn (the whole cluster of touching balls, basically)
+		for (int i = 0; i < s.size; i++) {
+			if (s.awakeSlot[i] == -1){continue;}
+
+			// move the ball, and keep its spot in the grid up to date
+			s.moveTime(i, time, this.friction);
+			if (s.sunk[i]){this.grid.remove(i);}
+			else if (this.grid.contains(i)){this.grid.update(i, s.xPos[i], s.yPos[i]);}
+			else {this.grid.insert(i, s.xPos[i], s.yPos[i]);}
+
+			// handle collisions between the ball and the balls near it
+			// this does NOT check each pair just once per step: a pair of awake balls is checked on each of their turns, right after
+			// that ball moves, same as when every ball was checked against every other one. checking each pair once means moving
+			// every ball before resolving anything, which changes how the balls play out (by over 100 units on a seeded break).
+			// what the grid does cut is every pair that isn't close enough to touch, and pairs of sleeping balls, which never get a turn
+			if (!s.sunk[i]){
+				int n = this.grid.query(i, this.neighbors);
+				for (int m = 1; m < n; m++) { // (sorted, so they're checked in index order too; there's only ever a handful)
+					int j = this.neighbors[m]; int q = m;
+					while (q > 0 && this.neighbors[q-1] > j){this.neighbors[q] = this.neighbors[q-1]; q--;}
+					this.neighbors[q] = j;
+				}
+				for (int m = 0; m < n; m++) {
+					int j = this.neighbors[m];
+					if (CollisionHandler.handleBallCollisions(s, i, s, j, this.friction, TableState.RESTITUTION)){
+						this.events.add(CollisionEvents.TYPE_BALL, now, i, j); resolved++;
+					}
+					tests++;
+
+					// resolving a collision moves the balls a little, so keep the grid up to date
+					this.grid.update(i, s.xPos[i], s.yPos[i]); this.grid.update(j, s.xPos[j], s.yPos[j]);
 				}
 			}
 
-			// shuffle the wall ordering around
-			int[] wall_order = new int[walls.size()];
-			for (int j = 0; j < wall_order.length; j++) {wall_order[j] = j;}
-			Collections.shuffle(Arrays.asList(wall_order));
+			// only check the walls and pockets near the ball; the rest are too far away to touch it
+			// bouncing off of something can push the ball into another cell though, in which case we carry on with that cell's list
+			// (the lists are in the same order as this.walls and this.pockets, so nothing gets checked twice or skipped)
+			int cell = this.geometry.cellAt(s.xPos[i], s.yPos[i]);
+			int n = this.geometry.queryWalls(cell, this.nearWalls); int last = -1;
+			for(int w = 0; w < n; w++){
+				int j = this.nearWalls[w];
+				if (j <= last){continue;}
+				if (CollisionHandler.handleWallCollisions(s, i, getWall(j), this.friction, TableState.RESTITUTION)){
+					this.events.add(CollisionEvents.TYPE_WALL, now, i, j); resolved++;
+				}
+				tests++; last = j;
 
-			for(int w = 0; w < wall_order.length; w++){
-				int j = wall_order[w];
-				CollisionHandler.handleWallCollisions(getBall(i), getWall(j), this.friction, 0.95);
+				int moved = this.geometry.cellAt(s.xPos[i], s.yPos[i]);
+				if (moved != cell){cell = moved; n = this.geometry.queryWalls(cell, this.nearWalls); w = -1;}
 			}
 
-			for(int p = 0; p < pockets.size(); p++){
-				CollisionHandler.handlePocketCollisions(getBall(i), getPocket(p), this.friction, 0.95);
+			cell = this.geometry.cellAt(s.xPos[i], s.yPos[i]);
+			n = this.geometry.queryPockets(cell, this.nearPockets); last = -1;
+			for(int p = 0; p < n; p++){
+				int j = this.nearPockets[p];
+				if (j <= last){continue;}
+				boolean sunk = s.sunk[i];
+				if (CollisionHandler.handlePocketCollisions(s, i, getPocket(j), this.friction, TableState.RESTITUTION)){resolved++;}
+				if (s.sunk[i] && !sunk){this.events.add(CollisionEvents.TYPE_POCKET, now, i, j);}
+				tests++; last = j;
+
+				int moved = this.geometry.cellAt(s.xPos[i], s.yPos[i]);
+				if (moved != cell){cell = moved; n = this.geometry.queryPockets(cell, this.nearPockets); p = -1;}
 			}
+			if (s.sunk[i]){this.grid.remove(i);} // (it might've just gone in, or been bounced around by a wall)
+			else {this.grid.update(i, s.xPos[i], s.yPos[i]);}
+		}
+
+		this.narrowPhaseTests += tests; this.collisionsResolved += resolved;
+	}
+
+	/**
+	 * Updates which balls are moving and which balls are sunk after the balls have been moved, then puts any balls that stopped to sleep.
+	 * Sleeping balls can't have changed since the last call, so only the awake ones need to be recounted.
+	 */
+	private void updateSleeping(){
+		BallStore s = this.store;
+		int kept = 0;
+
+		for (int k = 0; k < s.awakeCount; k++) {
+			int i = s.awake[k];
 
 			// update moving to track whether any non-sunken balls are moving or not
 			//     (good for checking if balls are still prior to taking another shot; avoids iterating through movingByType to check)
 			//     (waiting for sunken balls to stop moving is tedious though, so ignore those)
 			// update movingByType so we can keep track of whether a ball of its type is moving or not
 			//     (good for detecting fouls in which a player fails to hit a ball in their group first)
-			if ((getBall(i).xVel != 0 || getBall(i).yVel != 0) && !getBall(i).sunk){
-				this.movingByType[getBall(i).type] += 1;
-				this.moving = true;
+			boolean still = (s.xVel[i] == 0 && s.yVel[i] == 0);
+			int movingAs = (!still && !s.sunk[i]) ? s.type[i] : -1;
+			if (movingAs != this.movingAs[i]){
+				if (this.movingAs[i] != -1){this.movingByType[this.movingAs[i]] -= 1; this.movingCount -= 1;}
+				if (movingAs != -1){this.movingByType[movingAs] += 1; this.movingCount += 1;}
+				this.movingAs[i] = movingAs;
 			}
 
-			// update this.sunk accordingly if the ball is sunk
-			if (getBall(i).sunk){
-				this.sunkByType[getBall(i).type] += 1;
+			// update this.sunkByType accordingly if the ball is sunk
+			int sunkAs = s.sunk[i] ? s.type[i] : -1;
+			if (sunkAs != this.sunkAs[i]){
+				if (this.sunkAs[i] != -1){this.sunkByType[this.sunkAs[i]] -= 1;}
+				if (sunkAs != -1){this.sunkByType[sunkAs] += 1;}
+				this.sunkAs[i] = sunkAs;
 			}
+
+			// balls that stopped go to sleep; everything else stays in s.awake
+			// (sunken balls are kept up until they've finished fading out though, since Ball.drawBall() goes off of sunkTime)
+			if (still && (!s.sunk[i] || s.sunkTime[i] >= Ball.SINK_TIME)){s.awakeSlot[i] = -1;}
+			else {s.awake[kept] = i; s.awakeSlot[i] = kept++;}
 		}
+
+		s.awakeCount = kept;
+		this.moving = (this.movingCount > 0);
 	}
 
 	/**
@@ -190,43 +591,126 @@ class TableState {
 	 * @return     an array of doubles containing the x coordinate and y coordinate of the collision point in that order
 	 */
 	public double[] nextCollisionPoint(Ball ball, double xVel, double yVel){
-		// make a ghost ball with the parameters we're looking at
-		// also set the sunken state to the ball's sunken state
-		Ball ghost = new Ball(ball.radius, ball.type, ball.xPos, ball.yPos, xVel, yVel);
-		ghost.sunk = ball.sunk;
-
-		do {
-			// check if it collides with any of the balls that isn't itself
-			for (int b = 0; b < balls.size(); b++){
-				if (getBall(b) != ball){
-					if (getBall(b).distanceFrom(ghost) < 0 && !ghost.sunk && !getBall(b).sunk){
-						return new double[]{ ghost.xPos, ghost.yPos }; // return the first collision it can find
-					}
-				}
+		CollisionPoint hit = this.castBall(ball, xVel, yVel);
+
+		// if the ball got out of bounds or stopped moving, return some placeholder value that doesn't matter
+		if (hit.type == CollisionPoint.HIT_NONE){
+			return new double[]{ -1000, -1000 };
+		}
+		return new double[]{ hit.xPos, hit.yPos };
+	}
+
+	/**
+	 * Determines where and when a particular ball will first collide with some other wall or ball or sink
+	 * into some other pocket on the table, provided that it's moving at some given velocity.
+	 * Every other ball is treated as if it's standing still.
+	 * 
+	 * Rather than stepping a copy of the ball forward through time, this solves for the exact time of contact
+	 * with every ball, wall and pocket using the same friction model as Ball.moveTime() (see Kinematics).
+	 * 
+	 * @param ball the ball that we're determining the next collision point for
+	 * @param xVel the speed of the ball along the x axis
+	 * @param yVel the speed of the ball along the y axis
+	 * @return     where the ball will be when it first touches something, and what it touched
+	 */
+	public CollisionPoint castBall(Ball ball, double xVel, double yVel){
+		BallStore s = this.store;
+		double x = ball.getXPos(); double y = ball.getYPos(); boolean sunk = ball.isSunk();
+		int self = (ball.getStore() == s) ? ball.getIndex() : -1; // so the ball doesn't count as hitting itself
+
+		// (counts every ball, wall and pocket once per pass, even if the pass stops early)
+		this.castIterations += s.size + walls.size() + pockets.size();
+
+		// first off, check if the ball is already touching something where it is right now
+		int touch = this.touching(x, y, ball.radius, sunk, self);
+		if (touch != CollisionPoint.HIT_NONE){
+			return new CollisionPoint(x, y, 0, touch, this.touched);
+		}
+
+		// a ball that isn't moving or that starts off the table can't go on to hit anything
+		double velocity = Math.sqrt(xVel*xVel + yVel*yVel);
+		if (velocity == 0 || !(x >= 0 && x < w && y >= 0 && y < h)){
+			return new CollisionPoint(x, y, 0, CollisionPoint.HIT_NONE, -1);
+		}
+
+		// the ball travels in a straight line until it hits something, so everything below is worked out as a distance
+		// along that line (see Kinematics.rayCircle()) and only turned back into a time at the very end
+		double ux = xVel/velocity; double uy = yVel/velocity;
+		double best = (this.friction > 0) ? velocity*velocity/(2*this.friction) : velocity*60; // how far it goes before stopping
+		int type = CollisionPoint.HIT_NONE; int index = -1;
+
+		this.castIterations += s.size + walls.size() + pockets.size();
+
+		// stop looking once the ball leaves the table
+		if (ux < 0){best = Math.min(best, -x/ux);}
+		if (ux > 0){best = Math.min(best, (w - x)/ux);}
+		if (uy < 0){best = Math.min(best, -y/uy);}
+		if (uy > 0){best = Math.min(best, (h - y)/uy);}
+
+		// other balls (using the same 0.99 fudge factor as Ball.distanceFrom())
+		if (!sunk){
+			for (int b = 0; b < s.size; b++){
+				if (b == self || s.sunk[b]){continue;}
+				double d = Kinematics.rayCircle(x, y, ux, uy, s.xPos[b], s.yPos[b], (ball.radius + s.radius[b])*0.99, best);
+				if (!Double.isNaN(d) && d < best){best = d; type = CollisionPoint.HIT_BALL; index = b;}
 			}
+		}
 
-			// check if it collides with any of the walls
-			for (int w = 0; w < walls.size(); w++){
-				if (getWall(w).isBallColliding(ghost) < 0 && (ghost.sunk == getWall(w).sunk || getWall(w).always)){
-					return new double[]{ ghost.xPos, ghost.yPos }; // return the first collision it can find
-				}
+		for (int w = 0; w < walls.size(); w++){
+			Wall wall = getWall(w);
+			if (sunk == wall.sunk || wall.always){
+				double d = Kinematics.raySegment(x, y, ux, uy, wall, ball.radius, best);
+				if (!Double.isNaN(d) && d < best){best = d; type = CollisionPoint.HIT_WALL; index = w;}
 			}
+		}
 
-			// check if it sinks into any of the pockets if the ball isn't sunk already
-			if (!ghost.sunk){
-				for (int p = 0; p < pockets.size(); p++){
-					if (getPocket(p).ballInPocket(ghost)){
-						return new double[]{ ghost.xPos, ghost.yPos }; // return the first sunken into pocket it can find
-					}
-				}
+		// pockets (using the same threshold as Pocket.ballInPocket())
+		if (!sunk){
+			for (int p = 0; p < pockets.size(); p++){
+				Pocket pocket = getPocket(p);
+				if (ball.radius > pocket.radius){continue;}
+				double d = Kinematics.rayCircle(x, y, ux, uy, pocket.xPos, pocket.yPos, pocket.radius + ball.radius*(1 - 2*0.6), best);
+				if (!Double.isNaN(d) && d < best){best = d; type = CollisionPoint.HIT_POCKET; index = p;}
 			}
+		}
 
-			// if we didn't return earlier, then move the ghost ball forward 1 millisecond in time
-			ghost.moveTime(0.001, this.friction);
-		} while (ghost.xPos >= 0 && ghost.xPos < w && ghost.yPos >= 0 && ghost.yPos < h && ghost.getVelocity() > 0); // while this ghost ball is inbounds and moving
+		double time = Kinematics.travelTime(velocity, this.friction, best);
+		return new CollisionPoint(x + ux*best, y + uy*best, time, type, index);
+	}
 
-		// if the ghost ball got out of bounds or stopped moving, return some placeholder value that doesn't matter
-		return new double[]{ -1000, -1000 };
+	/**
+	 * Checks whether a ball at some spot would already be touching another ball, wall or pocket there,
+	 * the same way castBall() does before it casts anything. Doesn't allocate or move anything on the table.
+	 * 
+	 * @param      x the x coordinate of the ball
+	 * @param      y the y coordinate of the ball
+	 * @param radius the radius of the ball
+	 * @param   sunk whether the ball is sunk (and so only touches the walls inside the pockets)
+	 * @param   self the index of the ball in the store, so it doesn't count as touching itself (or -1)
+	 * @return       what the ball touches (a CollisionPoint.HIT_ type), with its index left in TableState.touched
+	 */
+	private int touching(double x, double y, double radius, boolean sunk, int self){
+		BallStore s = this.store;
+		for (int b = 0; b < s.size; b++){
+			if (b == self || sunk || s.sunk[b]){continue;}
+			double distX = x - s.xPos[b]; double distY = y - s.yPos[b];
+			if (Math.sqrt(distX*distX + distY*distY) - (s.radius[b] + radius)*0.99 < 0){ // same as BallStore.distanceBetween()
+				this.touched = b; return CollisionPoint.HIT_BALL;
+			}
+		}
+		for (int w = 0; w < walls.size(); w++){
+			if ((sunk == getWall(w).sunk || getWall(w).always) && getWall(w).isBallColliding(x, y, radius) < 0){
+				this.touched = w; return CollisionPoint.HIT_WALL;
+			}
+		}
+		if (!sunk){
+			for (int p = 0; p < pockets.size(); p++){
+				if (getPocket(p).ballInPocket(x, y, radius)){
+					this.touched = p; return CollisionPoint.HIT_POCKET;
+				}
+			}
+		}
+		this.touched = -1; return CollisionPoint.HIT_NONE;
 	}
 
 	/**
@@ -239,6 +723,20 @@ class TableState {
 	 * @param yOffset the amount of pixels to offset the drawn ball by on the yAxis
 	 */
 	public void drawObjects(Graphics g, double scale, double xOffset, double yOffset){
+		this.drawStatic(g, scale, xOffset, yOffset);
+		this.drawBalls(g, scale, xOffset, yOffset);
+	}
+
+	/**
+	 * Draws the Walls and Pockets in the TableState onto a Graphics object.
+	 * These never move, so GameState.draw() only draws them once per canvas size and reuses the result.
+	 * 
+	 * @param       g the Graphics object being drawn onto
+	 * @param   scale the factor to increase the size of the drawn walls and pockets
+	 * @param xOffset the amount of pixels to offset them by on the xAxis
+	 * @param yOffset the amount of pixels to offset them by on the yAxis
+	 */
+	public void drawStatic(Graphics g, double scale, double xOffset, double yOffset){
 		for (int i = 0; i < pockets.size(); i++){
 			getPocket(i).drawPocket(g, scale, xOffset, yOffset);
 		}
@@ -246,7 +744,17 @@ class TableState {
 		for (int i = 0; i < walls.size(); i++){
 			getWall(i).drawWall(g, scale, xOffset, yOffset);
 		}
+	}
 
+	/**
+	 * Draws the Balls in the TableState onto a Graphics object.
+	 * 
+	 * @param       g the Graphics object being drawn onto
+	 * @param   scale the factor to increase the size of the drawn ball
+	 * @param xOffset the amount of pixels to offset the drawn ball by on the xAxis
+	 * @param yOffset the amount of pixels to offset the drawn ball by on the yAxis
+	 */
+	public void drawBalls(Graphics g, double scale, double xOffset, double yOffset){
 		for (int i = 0; i < balls.size(); i++) {
 			getBall(i).drawBall(g, scale, xOffset, yOffset);
 		}
@@ -313,31 +821,99 @@ class TableState {
 	 * @param    yVel the velocity along the y-axis the cue ball will be moving at
 	 */
 	public void drawShotPreview(Graphics g, double scale, double xOffset, double yOffset, double xVel, double yVel){
+		if (this.cueBall != null){
+			// determines where the collision point of the cue ball would be
+			this.drawShotPreview(g, scale, xOffset, yOffset, xVel, yVel, this.castBall(this.cueBall, xVel, yVel));
+		}
+	}
+
+	/**
+	 * Same as drawShotPreview() above, except that where the cue ball first touches something has already been worked out
+	 * (e.g. by ShotPreview, off of the render thread), so all that's left is drawing it.
+	 * 
+	 * @param       g the Graphics object being drawn onto
+	 * @param   scale the factor to increase the size of the drawn ball
+	 * @param xOffset the amount of pixels to offset the drawn ball by on the xAxis
+	 * @param yOffset the amount of pixels to offset the drawn ball by on the yAxis
+	 * @param    xVel the velocity along the x-axis the cue ball will be moving at
+	 * @param    yVel the velocity along the y-axis the cue ball will be moving at
+	 * @param     hit where the cue ball first touches something (see castBall()), or null to only draw the velocity vector
+	 */
+	public void drawShotPreview(Graphics g, double scale, double xOffset, double yOffset, double xVel, double yVel, CollisionPoint hit){
 		if (this.cueBall != null){
 			// gets position and radius of cue ball
-			double xPos = this.cueBall.xPos; double yPos = this.cueBall.yPos; double radius = this.cueBall.radius;
+			double xPos = this.cueBall.getXPos(); double yPos = this.cueBall.getYPos(); double radius = this.cueBall.radius;
 
-			// draws the new velocity vector of the cue ball as a Wall
-			// kinda weird, but we can leverage a lot of the busy work with scaling from Wall.drawWall() this way
-			Wall velocity = new Wall(xPos, yPos, xPos+xVel/10, yPos+yVel/10); velocity.setColor(255, 0, 0);
-			velocity.drawWall(g, scale, xOffset, yOffset);
+			// draws the new velocity vector of the cue ball (scaled the same way Wall.drawWall() does it)
+			g.setColor(Color.red);
+			g.drawLine((int)(xPos*scale + xOffset), (int)(yPos*scale + yOffset), (int)((xPos+xVel/10)*scale + xOffset), (int)((yPos+yVel/10)*scale + yOffset));
 
-			// determines where the collision point of the cue ball would be
-			double[] pos = this.nextCollisionPoint(this.cueBall, xVel, yVel);
+			// if the ball got out of bounds or stopped moving, there's nowhere to draw it
+			if (hit == null || hit.type == CollisionPoint.HIT_NONE){return;}
 
 			// applies isotropic scaling to that point and the radius of the cue ball
-			double x = pos[0]*scale + xOffset; double y = pos[1]*scale + yOffset;
+			double x = hit.xPos*scale + xOffset; double y = hit.yPos*scale + yOffset;
 			radius = radius*scale;
 
 			// draws where the cue ball would be at that collision point
-			g.drawOval((int)(x-radius), (int)(y-radius), (int)(2*radius), (int)(2*radius));
+			Overlay.drawCircle(g, Color.red, false, (int)(x-radius), (int)(y-radius), (int)(2*radius));
 		}
 	}
 
+	/**
+	 * Draws the path a ball would take across the table (see ShotPreview.Path) as a line from point to point,
+	 * with an outline of the ball where the path ends and a ring around the pocket if the ball would get sunk.
+	 * This method does not draw any of the objects on the table and should be called after TableState.draw().
+	 * Scaling and offset parameters should be set by GameState.drawShotPreview() automatically.
+	 * 
+	 * @param       g the Graphics object being drawn onto
+	 * @param   scale the factor to increase the size of the drawn ball
+	 * @param xOffset the amount of pixels to offset the drawn ball by on the xAxis
+	 * @param yOffset the amount of pixels to offset the drawn ball by on the yAxis
+	 * @param    path the path being drawn
+	 * @param   color the color to draw it in
+	 */
+	public void drawShotPath(Graphics g, double scale, double xOffset, double yOffset, ShotPreview.Path path, Color color){
+		if (path.points < 2 || path.ball >= this.store.size){return;}
+		g.setColor(color);
+
+		// draws a line between every point (one at a time, so nothing gets allocated every frame)
+		for (int i = 1; i < path.points; i++){
+			g.drawLine((int)(path.xPos[i-1]*scale + xOffset), (int)(path.yPos[i-1]*scale + yOffset), (int)(path.xPos[i]*scale + xOffset), (int)(path.yPos[i]*scale + yOffset));
+		}
+
+		// draws where the ball ends up (unless it's sunk; then the pocket gets a ring around it instead)
+		double x = path.xPos[path.points-1]*scale + xOffset; double y = path.yPos[path.points-1]*scale + yOffset;
+		double radius = this.store.radius[path.ball]*scale;
+		if (path.isPotted()){
+			Pocket pocket = this.getPocket(path.index);
+			x = pocket.xPos*scale + xOffset; y = pocket.yPos*scale + yOffset; radius = pocket.radius*scale + 2;
+		}
+		Overlay.drawCircle(g, color, false, (int)(x-radius), (int)(y-radius), (int)(2*radius));
+	}
+
 	// TODO: this only works with the cueball at the moment, but we need to be able to replace the 8 ball in some instances.
+	/**
+	 * Checks whether the cue ball could be placed at some spot on the table, i.e. it's in bounds and wouldn't be touching
+	 * any other ball, wall or pocket there (see TableState.castBall()).
+	 * 
+	 * @param x the x coordinate on the table the cue ball would be placed at
+	 * @param y the y coordinate on the table the cue ball would be placed at
+	 * @return  true if the cue ball can go there
+	 */
+	public boolean canPlace(double x, double y){
+		if (this.cueBall == null){return false;}
+		if (!(x>=0 && x<w && y>=0 && y<h)){return false;} // it has to be in bounds
+
+		// check the spot as if the cue ball were already there, skipping the cue ball itself rather than moving it
+		// out of the way, so a check never wakes the cue ball up (or allocates anything)
+		this.castIterations += store.size + walls.size() + pockets.size();
+		return this.touching(x, y, this.cueBall.radius, false, this.cueBall.getIndex()) == CollisionPoint.HIT_NONE;
+	}
+
 	/**
 	 * Draws a preview of where the cue ball would be located, given the user clicks at the coordinate (xPos, yPos) on the canvas.
-	 * Will also return whether the cue ball can be placed in that location or not based on TableState.nextCollisionPoint().
+	 * Will also return whether the cue ball can be placed in that location or not based on canPlace().
 	 * This method does not draw any of the objects on the table and should be called after GameState.draw().
 	 * Scaling and offset parameters should be set by GameState.drawPlacePreview() automatically.
 	 * 
@@ -350,28 +926,17 @@ class TableState {
 	 */
 	public boolean drawPlacePreview(Graphics g, double scale, double xOffset, double yOffset, double xPos, double yPos){
 		if (this.cueBall != null){
-			double x = (xPos-xOffset)/scale; double y = (yPos-yOffset)/scale;
-			Ball preview = new Ball(this.cueBall.radius, Ball.TYPE_CUEBALL, x, y);
-
-			double cueX = this.cueBall.xPos; double cueY = this.cueBall.yPos; // make a backup of the cueball's position
-			this.cueBall.xPos = -1000; this.cueBall.yPos = -1000;             // move the cueball somewhere we shouldn't be able to place it
-			double[] collision = this.nextCollisionPoint(preview, 0, 0);      // now we can check if this placement collides with anything except the cueball
-			this.cueBall.xPos = cueX; this.cueBall.yPos = cueY;               // and restore the cueball's position afterwards
-			                                                                  // kinda hacky, but it works
-			
-			double radius = this.cueBall.radius*scale;
-			g.setColor(Color.red); g.drawOval((int)(xPos-radius), (int)(yPos-radius), (int)(2*radius), (int)(2*radius));
+			boolean valid = this.canPlace((xPos-xOffset)/scale, (yPos-yOffset)/scale);
 
-			// keep track of if the cue ball doesn't collide with anything in this spot, as well as if it's in bounds
-			boolean valid = (collision[0] == -1000 && (x>=0 && x<w && y>=0 && y<h));
+			double radius = this.cueBall.radius*scale;
+			Overlay.drawCircle(g, Color.red, false, (int)(xPos-radius), (int)(yPos-radius), (int)(2*radius));
 
 			if (!valid){
-				g.setColor(new Color(255, 0, 0, 127));
-				g.fillOval((int)(xPos-radius), (int)(yPos-radius), (int)(2*radius), (int)(2*radius));
+				Overlay.drawCircle(g, Overlay.INVALID_PLACE_COLOR, true, (int)(xPos-radius), (int)(yPos-radius), (int)(2*radius));
 			}
 
 			return valid;
 		}
 		return false;
 	}
-}
\ No newline at end of file
+}
@@ -9,7 +9,16 @@ public class Wall {
 	public final double length;
 	public final double angle;
 	public final boolean sunk, always; // TODO: are these necessary now that pockets aren't made up of walls anymore?
+	public final double tangentX, tangentY; // unit vector pointing from the first endpoint to the second
+	public final double normalX, normalY;   // unit vector perpendicular to the wall (the tangent rotated 90 degrees clockwise)
+	public final double xMin, yMin, xMax, yMax; // bounding box of the wall
 	private int r, g, b;
+	private Color color; // (r, g, b) as a Color, so drawWall() doesn't make a new one every time
+
+	// the wall's frame, for isBallColliding(): cos/sin of -this.angle, and where the wall ends up once it's rotated onto the x-axis
+	// walls never move, so there's no reason to redo any of this every time a ball gets checked against one
+	private final double cosA, sinA;
+	private final double rotXMin, rotXMax, rotY;
 
 	/**
 	 * Creates a wall which extends across 2 endpoints.
@@ -20,15 +29,7 @@ public class Wall {
 	 * @param y2 the y coordinate for the second endpoint
 	 */
 	public Wall(double x1, double y1, double x2, double y2){
-		this.x1 = x1; this.y1 = y1;
-		this.x2 = x2; this.y2 = y2;
-
-		double dx = this.x2 - this.x1; double dy = this.y2 - this.y1;
-		this.length = Math.sqrt(dx*dx + dy*dy);
-		this.angle = Math.atan2(dy, dx);
-
-		this.sunk = false;
-		this.always = false;
+		this(x1, y1, x2, y2, false, false);
 	}
 
 	/**
@@ -51,6 +52,19 @@ public class Wall {
 
 		this.sunk = sunk;
 		this.always = always;
+
+		this.tangentX = dx / this.length; this.tangentY = dy / this.length;
+		this.normalX = this.tangentY; this.normalY = -this.tangentX;
+		this.xMin = Math.min(this.x1, this.x2); this.xMax = Math.max(this.x1, this.x2);
+		this.yMin = Math.min(this.y1, this.y2); this.yMax = Math.max(this.y1, this.y2);
+
+		// rotate the wall by -this.angle so its lying on the x-axis
+		double a = -this.angle;
+		this.cosA = Math.cos(a); this.sinA = Math.sin(a);
+		double xa = this.x1*this.cosA - this.y1*this.sinA;
+		double xb = this.x2*this.cosA - this.y2*this.sinA;
+		this.rotXMin = Math.min(xa, xb); this.rotXMax = Math.max(xa, xb);
+		this.rotY = this.x1*this.sinA + this.y1*this.cosA; // the y coordinate of the second endpoint would be the same
 	}
 
 	/**
@@ -63,6 +77,7 @@ public class Wall {
 	 */
 	public void setColor(int r, int g, int b){
 		this.r = r; this.g = g; this.b = b;
+		this.color = new Color(r, g, b);
 	}
 
 	// TODO: the value that this method returns isn't entirely consistent. needs to be rectified if we're going to make wall collisions accurate.
@@ -74,38 +89,44 @@ public class Wall {
 	 * @return     the distance from the wall to the ball's edge
 	 */
 	public double isBallColliding(Ball ball){
+		return this.isBallColliding(ball.getXPos(), ball.getYPos(), ball.radius);
+	}
+
+	/**
+	 * Determines if a ball at some position with some radius is colliding with this Wall.
+	 * Same as isBallColliding(Ball), but doesn't need a Ball object.
+	 * 
+	 * @param   xPos the x coordinate of the ball's center
+	 * @param   yPos the y coordinate of the ball's center
+	 * @param radius the radius of the ball
+	 * @return       the distance from the wall to the ball's edge
+	 */
+	public double isBallColliding(double xPos, double yPos, double radius){
 		// determine if the ball is already too far away on either the x-axis or y-axis to even touch the line in the first place
 		// return 1 (not less than 0) if this is the case
-		if (ball.xPos > Math.max(this.x1, this.x2) + ball.radius){return 1;} // too far right
-		if (ball.xPos < Math.min(this.x1, this.x2) - ball.radius){return 1;} // too far left
-
-		if (ball.yPos > Math.max(this.y1, this.y2) + ball.radius){return 1;} // too low
-		if (ball.yPos < Math.min(this.y1, this.y2) - ball.radius){return 1;} // too high
+		if (xPos > this.xMax + radius){return 1;} // too far right
+		if (xPos < this.xMin - radius){return 1;} // too far left
 
-		double a = -this.angle;
-
-		// rotate the wall by -this.angle so its lying on the x-axis
-		double xa = this.x1*Math.cos(a) - this.y1*Math.sin(a);
-		double ya = this.x1*Math.sin(a) + this.y1*Math.cos(a);
-		double xb = this.x2*Math.cos(a) - this.y2*Math.sin(a);
-		// yb would be the same as ya; no need to calculate it here
+		if (yPos > this.yMax + radius){return 1;} // too low
+		if (yPos < this.yMin - radius){return 1;} // too high
 
+		// the wall was already rotated by -this.angle so its lying on the x-axis in the constructor
 		// rotate the ball along -this.angle accordingly
-		double x_ball = ball.xPos*Math.cos(a) - ball.yPos*Math.sin(a);
-		double y_ball = ball.xPos*Math.sin(a) + ball.yPos*Math.cos(a);
+		double x_ball = xPos*this.cosA - yPos*this.sinA;
+		double y_ball = xPos*this.sinA + yPos*this.cosA;
 
 		// find how far away the ball is on the x axis
 		//                  Math.max([distance from right side], [distance from left side])
-		double x_distance = Math.max(x_ball - Math.max(xa, xb), Math.min(xa, xb) - x_ball);
+		double x_distance = Math.max(x_ball - this.rotXMax, this.rotXMin - x_ball);
 		x_distance = Math.max(x_distance, 0);
 
 		// find how far away the ball is on the y axis
-		double y_distance = ya - (y_ball + ball.radius);
+		double y_distance = this.rotY - (y_ball + radius);
 
-		if (Math.abs(y_distance) < ball.radius*2){ // ...if the ball's within the wall on the y-axis...
-			if (x_distance < ball.radius/2){ // ...and within the wall on the x-axis...
+		if (Math.abs(y_distance) < radius*2){ // ...if the ball's within the wall on the y-axis...
+			if (x_distance < radius/2){ // ...and within the wall on the x-axis...
 				// ...return the amount of distance the ball has collided with the wall
-				return y_distance + Math.sin(x_distance/ball.radius)*ball.radius;
+				return y_distance + Math.sin(x_distance/radius)*radius;
 			}
 			else { // if it's not in that x coordinate range...
 				return x_distance; // return how far away it is on the x axis.
@@ -129,7 +150,7 @@ public class Wall {
 		int xa = (int)(this.x1*scale + xOffset); int ya = (int)(this.y1*scale + yOffset);
 		int xb = (int)(this.x2*scale + xOffset); int yb = (int)(this.y2*scale + yOffset);
 		
-		Color wallColor = new Color(this.r, this.g, this.b);
-		g.setColor(wallColor); g.drawLine(xa, ya, xb, yb);
+		if (this.color == null){this.color = new Color(this.r, this.g, this.b);}
+		g.setColor(this.color); g.drawLine(xa, ya, xb, yb);
 	}
 }
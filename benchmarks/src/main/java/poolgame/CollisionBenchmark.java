@@ -0,0 +1,89 @@
+package poolgame;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmarks the collision kernels in CollisionHandler on their own, away from the rest of TableState.moveTime().
+ * Each kernel is run twice: once on a pair that's actually touching (so the collision gets resolved),
+ * and once on a pair that isn't (which is what happens for the vast majority of checks in a real step).
+ * The balls are put back where they started before every call, since the kernels move them.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = "-Djava.awt.headless=true")
+public class CollisionBenchmark {
+	private static final double RADIUS = 3.35; // same as the balls in GameState
+
+	private TableState table;
+	private BallStore store;
+	private int a, b;      // a rolls into b, which is sitting still
+	private Wall wall;     // the left cushion, running along x = 0
+	private Pocket pocket; // the top-left pocket, at (0, 0)
+	private double friction;
+
+	@Setup(Level.Trial)
+	public void setup(){
+		GameState game = new GameState(Fixtures.SEED);
+		this.wall = game.table.getWall(0); this.pocket = game.table.getPocket(0);
+		this.friction = game.table.getFriction();
+
+		this.table = new TableState(game.w, game.h);
+		this.a = 0; this.table.addBall(new Ball(RADIUS, Ball.TYPE_RED, 0, 0));
+		this.b = 1; this.table.addBall(new Ball(RADIUS, Ball.TYPE_BLUE, 0, 0));
+		this.store = this.table.getBallStore();
+	}
+
+	// puts ball i at some position, moving at some velocity, and not sunk
+	private void place(int i, double xPos, double yPos, double xVel, double yVel){
+		BallStore s = this.store;
+		s.xPos[i] = xPos; s.yPos[i] = yPos; s.xVel[i] = xVel; s.yVel[i] = yVel;
+		s.sunk[i] = false; s.sunkTime[i] = 0;
+	}
+
+	@Benchmark
+	public void ballHit(Blackhole bh){
+		this.place(this.a, 100, 50, 300, 20); this.place(this.b, 100 + 1.9*RADIUS, 50.5, 0, 0);
+		CollisionHandler.handleBallCollisions(this.store, this.a, this.store, this.b, this.friction, TableState.RESTITUTION);
+		bh.consume(this.store.xVel[this.b]);
+	}
+
+	@Benchmark
+	public void ballMiss(Blackhole bh){
+		this.place(this.a, 100, 50, 300, 20); this.place(this.b, 100 + 4*RADIUS, 50.5, 0, 0);
+		CollisionHandler.handleBallCollisions(this.store, this.a, this.store, this.b, this.friction, TableState.RESTITUTION);
+		bh.consume(this.store.xVel[this.b]);
+	}
+
+	@Benchmark
+	public void wallHit(Blackhole bh){
+		this.place(this.a, 0.9*RADIUS, 50, -300, 20);
+		CollisionHandler.handleWallCollisions(this.store, this.a, this.wall, this.friction, TableState.RESTITUTION);
+		bh.consume(this.store.xVel[this.a]);
+	}
+
+	@Benchmark
+	public void wallMiss(Blackhole bh){
+		this.place(this.a, 100, 50, -300, 20);
+		CollisionHandler.handleWallCollisions(this.store, this.a, this.wall, this.friction, TableState.RESTITUTION);
+		bh.consume(this.store.xVel[this.a]);
+	}
+
+	@Benchmark
+	public void pocketHit(Blackhole bh){
+		this.place(this.a, 1, 1.5, -150, -100);
+		CollisionHandler.handlePocketCollisions(this.store, this.a, this.pocket, this.friction, TableState.RESTITUTION);
+		bh.consume(this.store.sunk[this.a]);
+	}
+
+	@Benchmark
+	public void pocketMiss(Blackhole bh){
+		this.place(this.a, 100, 50, -150, -100);
+		CollisionHandler.handlePocketCollisions(this.store, this.a, this.pocket, this.friction, TableState.RESTITUTION);
+		bh.consume(this.store.sunk[this.a]);
+	}
+}
@@ -0,0 +1,50 @@
+package poolgame;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Benchmarks GameState.draw(), which is what PoolCanvas does every frame, into an offscreen image.
+ * Runs headless, so it measures Java2D's software pipeline rather than whatever the display would use.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = "-Djava.awt.headless=true")
+public class DrawBenchmark {
+	@Param({Fixtures.BREAK, Fixtures.MID_GAME})
+	public String fixture;
+
+	@Param({"1280x720"})
+	public String size;
+
+	private GameState game;
+	private BufferedImage image;
+	private Graphics2D g;
+	private int w, h;
+
+	@Setup(Level.Trial)
+	public void setup(){
+		this.game = Fixtures.game(this.fixture, TableState.MODE_FIXED_STEP);
+		String[] parts = this.size.split("x");
+		this.w = Integer.parseInt(parts[0]); this.h = Integer.parseInt(parts[1]);
+		this.image = new BufferedImage(this.w, this.h, BufferedImage.TYPE_INT_RGB);
+		this.g = this.image.createGraphics();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown(){
+		this.g.dispose();
+	}
+
+	@Benchmark
+	public BufferedImage draw(){
+		this.g.setColor(Color.white); this.g.fillRect(0, 0, this.w, this.h); // PoolCanvas.update() starts every frame from a blank buffer too
+		this.game.draw(this.g, this.w, this.h);
+		return this.image;
+	}
+}
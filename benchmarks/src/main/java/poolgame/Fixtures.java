@@ -0,0 +1,69 @@
+package poolgame;
+
+/**
+ * Builds the games that the benchmarks run on.
+ * Every fixture comes from a seeded rack (see GameState(long)) and is played out with fixed shots through SimulationEngine,
+ * so the exact same table comes out every time, on every machine.
+ */
+class Fixtures {
+	public static final long SEED = 42;
+
+	public static final String BREAK = "break";      // the rack, with the cue ball just fired into it
+	public static final String MID_GAME = "midgame"; // a few balls down, with the second shot still rolling around
+	public static final String AT_REST = "rest";     // the table right after the break, once everything's stopped moving
+
+	/**
+	 * Builds one of the fixtures above.
+	 *
+	 * @param           name which fixture (BREAK, MID_GAME or AT_REST)
+	 * @param simulationMode the simulation mode the table should use (see TableState.MODE_FIXED_STEP)
+	 * @return               the game, ready to have its table moved forward
+	 */
+	public static GameState game(String name, int simulationMode){
+		GameState game = new GameState(SEED);
+		game.table.simulationMode = simulationMode;
+		SimulationEngine engine = new SimulationEngine(game);
+
+		engine.shoot(1200, 5);
+		if (name.equals(BREAK)){return game;}
+
+		Fixtures.settle(engine);
+		if (name.equals(AT_REST)){return game;}
+
+		if (name.equals(MID_GAME)){
+			// go straight for whichever ball is closest, and catch everything partway through
+			Fixtures.shootAtNearest(engine, 900);
+			for (int i = 0; i < 20; i++){engine.step();}
+			return game;
+		}
+		throw new IllegalArgumentException("Unknown fixture: " + name);
+	}
+
+	/**
+	 * Shoots the cue ball straight at whichever ball is closest to it, placing it back on the table first if it was sunk.
+	 * The table should be at rest.
+	 *
+	 * @param engine the engine running the game
+	 * @param  speed how fast to shoot the cue ball
+	 */
+	public static void shootAtNearest(SimulationEngine engine, double speed){
+		GameState game = engine.getGame();
+		if (game.table.getCueBall().isSunk()){engine.place(56, 56);}
+		Ball cue = game.table.getCueBall(); Ball target = null; double nearest = Double.POSITIVE_INFINITY;
+		for (int i = 0; i < game.table.getBallCount(); i++){
+			Ball ball = game.table.getBall(i);
+			if (ball == cue || ball.isSunk()){continue;}
+			double d = ball.distanceFrom(cue);
+			if (d < nearest){nearest = d; target = ball;}
+		}
+		if (target == null){return;}
+		double dx = target.getXPos() - cue.getXPos(); double dy = target.getYPos() - cue.getYPos();
+		double d = Math.sqrt(dx*dx + dy*dy);
+		engine.shoot(speed*dx/d, speed*dy/d);
+	}
+
+	// steps the game until every ball stops moving
+	public static void settle(SimulationEngine engine){
+		do {engine.step();} while (engine.getGame().table.moving);
+	}
+}
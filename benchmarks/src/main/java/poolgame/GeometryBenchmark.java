@@ -0,0 +1,60 @@
+package poolgame;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmarks the geometry queries: Wall.isBallColliding() against every wall on the table,
+ * and TableState.nextCollisionPoint() (what the shot preview and the bots lean on) for the cue ball.
+ * Both cycle through a fixed set of inputs generated from Fixtures.SEED, so every run asks the same questions.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = "-Djava.awt.headless=true")
+public class GeometryBenchmark {
+	private static final int INPUTS = 256; // must be a power of two
+
+	@Param({Fixtures.BREAK, Fixtures.AT_REST})
+	public String fixture;
+
+	private TableState table;
+	private Ball cue;
+	private double[] points; // {x, y} pairs spread over the table and a little past its edges
+	private double[] shots;  // {xVel, yVel} pairs in every direction, at every speed a player could shoot at
+	private int next;
+
+	@Setup(Level.Trial)
+	public void setup(){
+		GameState game = Fixtures.game(this.fixture, TableState.MODE_FIXED_STEP);
+		this.table = game.table; this.cue = this.table.getCueBall();
+		this.table.getCueBall().setVelocity(0, 0); // only its position matters here
+
+		SplittableRandom rng = new SplittableRandom(Fixtures.SEED);
+		this.points = new double[INPUTS*2]; this.shots = new double[INPUTS*2];
+		for (int i = 0; i < INPUTS; i++){
+			this.points[i*2] = rng.nextDouble(-10, game.w + 10); this.points[i*2 + 1] = rng.nextDouble(-10, game.h + 10);
+			double angle = rng.nextDouble(2*Math.PI); double speed = rng.nextDouble(50, BallController.MAX_SHOT_SPEED);
+			this.shots[i*2] = speed*Math.cos(angle); this.shots[i*2 + 1] = speed*Math.sin(angle);
+		}
+	}
+
+	@Benchmark
+	public void isBallColliding(Blackhole bh){
+		int i = this.next++ & (INPUTS - 1);
+		double x = this.points[i*2]; double y = this.points[i*2 + 1];
+		for (int w = 0; w < this.table.getWallCount(); w++){
+			bh.consume(this.table.getWall(w).isBallColliding(x, y, this.cue.radius));
+		}
+	}
+
+	@Benchmark
+	public double[] nextCollisionPoint(){
+		int i = this.next++ & (INPUTS - 1);
+		return this.table.nextCollisionPoint(this.cue, this.shots[i*2], this.shots[i*2 + 1]);
+	}
+}
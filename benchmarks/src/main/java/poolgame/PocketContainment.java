@@ -0,0 +1,51 @@
+package poolgame;
+
+import java.util.Random;
+
+/**
+ * Checks that balls stay inside of the pockets they sink into when the table's running in MODE_EVENT_DRIVEN.
+ * Breaks a seeded rack with a random (but seeded) shot over and over, plays each one out for FRAMES frames,
+ * and then makes sure every sunken ball is still within its pocket's radius of the closest pocket.
+ * Exits with a non-zero status if any of them aren't.
+ *
+ *     java -cp target/benchmarks.jar poolgame.PocketContainment
+ */
+public class PocketContainment {
+	public static final int BREAKS = 200;
+	public static final int FRAMES = 900;
+
+	public static void main(String[] args){
+		Random random = new Random(Fixtures.SEED);
+		int sunk = 0; int escaped = 0;
+
+		for (int run = 0; run < BREAKS; run++){
+			GameState game = new GameState(Fixtures.SEED + run);
+			game.table.simulationMode = TableState.MODE_EVENT_DRIVEN;
+			SimulationEngine engine = new SimulationEngine(game);
+
+			double angle = (random.nextDouble() - 0.5) * Math.PI/6; double speed = 600 + random.nextDouble()*1200;
+			engine.shoot(speed*Math.cos(angle), speed*Math.sin(angle));
+			for (int frame = 0; frame < FRAMES; frame++){engine.step();}
+
+			for (int i = 0; i < game.table.getBallCount(); i++){
+				Ball ball = game.table.getBall(i);
+				if (!ball.isSunk()){continue;}
+				sunk++;
+
+				Pocket closest = null; double distance = Double.POSITIVE_INFINITY;
+				for (int p = 0; p < game.table.getPocketCount(); p++){
+					Pocket pocket = game.table.getPocket(p);
+					double d = pocket.distanceFromPocket(ball.getXPos(), ball.getYPos());
+					if (d < distance){distance = d; closest = pocket;}
+				}
+				if (closest == null || distance > closest.radius){
+					escaped++;
+					System.out.println("break " + run + ": ball " + i + " ended up at (" + ball.getXPos() + ", " + ball.getYPos() + "), " + distance + " away from the closest pocket");
+				}
+			}
+		}
+
+		System.out.println(escaped + " of " + sunk + " sunken balls ended up outside of their pocket over " + BREAKS + " breaks");
+		if (escaped != 0){System.exit(1);}
+	}
+}
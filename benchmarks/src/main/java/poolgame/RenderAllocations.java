@@ -0,0 +1,124 @@
+package poolgame;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+
+/**
+ * Checks that drawing a game doesn't allocate anything once it's warmed up.
+ * Plays a seeded game out with fixed shots (see Fixtures.shootAtNearest()) and saves every frame of it, which covers
+ * balls rolling, balls fading out as they sink, and the table sitting at rest. Everything's drawn through PoolCanvas.paint(),
+ * the same as on screen (minus the BufferStrategy), into an offscreen image, in each of the modes the player can be in:
+ * - watching: every frame of the game, with nothing under the mouse
+ * - shooting: the table at rest with a shot held lined up, including its preview from ShotPreview once the worker's traced it
+ * - placing: the table at rest with the cue ball's placement preview following the mouse across the table
+ * Each mode gets drawn over and over until everything's cached and compiled, and then once more while counting the bytes
+ * this thread allocates inside paint(). Exits with a non-zero status if that's anything other than 0.
+ *
+ * (Moving the mouse while shooting hands a new request over to the preview's worker, which allocates one small object
+ * for each new aim; that's the handoff between the threads rather than drawing, so the aim's held still here.)
+ *
+ *     java -cp target/benchmarks.jar poolgame.RenderAllocations
+ */
+public class RenderAllocations {
+	public static final int SHOTS = 4;
+	public static final int WARMUP_PASSES = 30;
+	public static final int AIM_FRAMES = 120;        // frames drawn in each pass while shooting or placing
+	public static final long PREVIEW_TIMEOUT = 10000; // how long to wait for the preview's worker to finish tracing the held shot, in ms
+
+	private static com.sun.management.ThreadMXBean threads;
+	private static long thread;
+
+	public static void main(String[] args) throws InterruptedException {
+		System.setProperty("java.awt.headless", "true");
+		threads = (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+		thread = Thread.currentThread().getId();
+
+		// record the game
+		GameState game = new GameState(Fixtures.SEED);
+		SimulationEngine engine = new SimulationEngine(game);
+		ArrayList<GameSnapshot> frames = new ArrayList<GameSnapshot>();
+		for (int shot = 0; shot < SHOTS; shot++){
+			if (shot == 0){engine.shoot(1200, 5);}
+			else {Fixtures.shootAtNearest(engine, 900);}
+			do {
+				engine.step();
+				frames.add(new GameSnapshot(game));
+			} while (game.table.moving);
+		}
+		if (game.table.getCueBall().isSunk()){engine.place(56, 56);}
+		GameSnapshot rest = new GameSnapshot(game); // where the next shot gets lined up from
+
+		int w = 1280; int h = 720;
+		BufferedImage image = new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
+		Graphics2D g = image.createGraphics();
+
+		// nothing's started, so the canvas only ever draws when it's told to
+		PoolCanvas canvas = new PoolCanvas(engine);
+		canvas.w = w; canvas.h = h; canvas.calibrateScaling();
+		BallController controller = canvas.cueBallController;
+		canvas.preview.start();
+
+		long watching = 0; long shooting = 0; long placing = 0;
+		for (int pass = 0; pass <= WARMUP_PASSES; pass++){
+			boolean measure = (pass == WARMUP_PASSES);
+
+			controller.mode = BallController.MODE_NONE;
+			long allocated = 0;
+			for (GameSnapshot frame : frames){
+				canvas.game.restore(frame);
+				allocated += paint(canvas, g);
+			}
+			if (measure){watching = allocated;}
+
+			// aim from the cue ball, dragged back and to the side a bit
+			canvas.game.restore(rest);
+			Ball cue = canvas.game.table.getCueBall();
+			int cx = (int)(cue.getXPos()*canvas.scale + canvas.xOffset); int cy = (int)(cue.getYPos()*canvas.scale + canvas.yOffset);
+			controller.mode = BallController.MODE_SHOOTING;
+			controller.pressMouse(cx, cy); controller.holdMouse(cx - 150, cy - 40);
+			if (measure){
+				// wait for the worker to finish the held shot, so what gets measured is drawing the whole preview
+				long deadline = System.currentTimeMillis() + PREVIEW_TIMEOUT;
+				while (canvas.preview.latest() == null || !canvas.preview.latest().complete){
+					if (System.currentTimeMillis() > deadline){System.out.println("the shot preview never finished"); System.exit(1);}
+					paint(canvas, g); Thread.sleep(1);
+				}
+			}
+			allocated = 0;
+			for (int i = 0; i < AIM_FRAMES; i++){
+				allocated += paint(canvas, g);
+			}
+			if (measure){shooting = allocated;}
+
+			// sweep the mouse across the table, over spots the cue ball can and can't go
+			controller.resetMouse();
+			controller.mode = BallController.MODE_PLACING;
+			allocated = 0;
+			for (int i = 0; i < AIM_FRAMES; i++){
+				double x = canvas.game.w * (double)i/(AIM_FRAMES - 1);
+				controller.moveMouse((int)(x*canvas.scale + canvas.xOffset), cy);
+				allocated += paint(canvas, g);
+			}
+			if (measure){placing = allocated;}
+			controller.resetMouse();
+		}
+		canvas.preview.stop();
+		g.dispose();
+
+		System.out.println(watching + " bytes allocated over " + frames.size() + " frames watching (" + (double)watching/frames.size() + " per frame)");
+		System.out.println(shooting + " bytes allocated over " + AIM_FRAMES + " frames shooting (" + (double)shooting/AIM_FRAMES + " per frame)");
+		System.out.println(placing + " bytes allocated over " + AIM_FRAMES + " frames placing (" + (double)placing/AIM_FRAMES + " per frame)");
+		if (watching != 0 || shooting != 0 || placing != 0){System.exit(1);}
+	}
+
+	// draws one frame through the canvas, starting from a blank buffer like PoolCanvas.render() does, and returns the bytes paint() allocated
+	private static long paint(PoolCanvas canvas, Graphics2D g){
+		g.setColor(Color.white); g.fillRect(0, 0, canvas.w, canvas.h);
+		long before = threads.getThreadAllocatedBytes(thread);
+		canvas.paint(g);
+		long after = threads.getThreadAllocatedBytes(thread);
+		return after - before;
+	}
+}
@@ -0,0 +1,46 @@
+package poolgame;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Benchmarks TableState.moveTime(), the physics step, on a few different tables.
+ * Each operation rewinds the table to its fixture (see TableState.restore(), which doesn't allocate)
+ * and then moves it forward FRAMES frames, the same way SimulationEngine.step() does (including working out the substeps each frame needs).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = "-Djava.awt.headless=true")
+public class TableBenchmark {
+	public static final int FRAMES = 30; // half a second of simulated time per operation
+
+	@Param({Fixtures.BREAK, Fixtures.MID_GAME, Fixtures.AT_REST})
+	public String fixture;
+
+	@Param({"0", "1"}) // TableState.MODE_FIXED_STEP, TableState.MODE_EVENT_DRIVEN
+	public int simulationMode;
+
+	private TableState table;
+	private TableSnapshot snapshot;
+
+	@Setup(Level.Trial)
+	public void setup(){
+		this.table = Fixtures.game(this.fixture, this.simulationMode).table;
+		this.snapshot = new TableSnapshot(this.table);
+	}
+
+	@Benchmark
+	public boolean moveTime(){
+		this.table.restore(this.snapshot);
+		for (int f = 0; f < FRAMES; f++){
+			int substeps = SimulationEngine.substeps(this.table, SimulationEngine.STEP_ACCURACY, SimulationEngine.MAX_SUBSTEPS);
+			for (int i = 0; i < substeps; i++){
+				this.table.moveTime(SimulationEngine.FRAME_TIME/substeps);
+			}
+		}
+		return this.table.moving;
+	}
+}